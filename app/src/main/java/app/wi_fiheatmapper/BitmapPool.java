@@ -0,0 +1,95 @@
+package app.wi_fiheatmapper;
+
+import android.graphics.Bitmap;
+import android.util.Log;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Pool of mutable bitmaps bucketed by dimensions and config, so bitmaps of same size are reused
+ * instead of allocating new ones and leaving old ones to GC.
+ * <p/>
+ * Pool keeps bitmaps up to max count of bytes. Bitmap released to full pool is recycled
+ * immediately. Pool is thread safe.
+ */
+public class BitmapPool {
+
+    private static final String TAG = BitmapPool.class.getSimpleName();
+
+    private final int mMaxBytes;
+    private final Map<Long, ArrayDeque<Bitmap>> mBuckets = new HashMap<>();
+    private int mBytes;
+
+    /**
+     * @param maxBytes Max count of bytes of bitmaps kept in pool.
+     */
+    public BitmapPool(int maxBytes) {
+        mMaxBytes = maxBytes;
+    }
+
+    /**
+     * Get bitmap from pool or create new one if pool has no bitmap of this size. Pixels of reused
+     * bitmap are not cleared.
+     *
+     * @return Mutable bitmap owned by caller until it is released.
+     */
+    public synchronized Bitmap acquire(int width, int height, Bitmap.Config config) {
+        ArrayDeque<Bitmap> bucket = mBuckets.get(bucketKey(width, height, config));
+        Bitmap bitmap = bucket != null ? bucket.poll() : null;
+        if (bitmap == null) return Bitmap.createBitmap(width, height, config);
+
+        mBytes -= bitmap.getByteCount();
+        return bitmap;
+    }
+
+    /**
+     * Return bitmap to pool. Caller must not use bitmap anymore.
+     *
+     * @param bitmap Bitmap from {@link #acquire} or null.
+     */
+    public synchronized void release(Bitmap bitmap) {
+        if (bitmap == null || bitmap.isRecycled()) return;
+
+        int bytes = bitmap.getByteCount();
+        if (mBytes + bytes > mMaxBytes) {
+            Log.d(TAG, "pool is full, recycling " + bitmap.getWidth() + "x" + bitmap.getHeight());
+            bitmap.recycle();
+            return;
+        }
+
+        long key = bucketKey(bitmap.getWidth(), bitmap.getHeight(), bitmap.getConfig());
+        ArrayDeque<Bitmap> bucket = mBuckets.get(key);
+        if (bucket == null) {
+            bucket = new ArrayDeque<>(2);
+            mBuckets.put(key, bucket);
+        }
+        bucket.push(bitmap);
+        mBytes += bytes;
+    }
+
+    /**
+     * Recycle all bitmaps in pool.
+     */
+    public synchronized void clear() {
+        for (ArrayDeque<Bitmap> bucket : mBuckets.values()) {
+            for (Bitmap bitmap : bucket) {
+                bitmap.recycle();
+            }
+        }
+        mBuckets.clear();
+        mBytes = 0;
+    }
+
+    /**
+     * @return Count of bytes of bitmaps kept in pool.
+     */
+    public synchronized int getByteCount() {
+        return mBytes;
+    }
+
+    private static long bucketKey(int width, int height, Bitmap.Config config) {
+        return ((long) width << 36) | ((long) height << 8) | config.ordinal();
+    }
+}
@@ -0,0 +1,104 @@
+package app.wi_fiheatmapper;
+
+import android.graphics.Bitmap;
+
+/**
+ * Two bitmaps of heatmap overlay used in turns. Raster is written to back bitmap while front
+ * bitmap is shown on map, so shown bitmap is never changed during drawing of map. Bitmaps are
+ * taken from pool and returned to it when size of raster changes, so updates of same size
+ * allocate no bitmap.
+ * <p/>
+ * Each bitmap remembers pixels changed since it was written last time, so only these pixels are
+ * copied to it from raster.
+ * <p/>
+ * Bitmaps are updated on render thread and swapped on UI thread. Caller must not update and swap
+ * concurrently.
+ */
+public class DoubleBufferedBitmap {
+
+    private final BitmapPool mPool;
+    private final Bitmap.Config mConfig;
+    private Bitmap mFront;
+    private Bitmap mBack;
+    /**
+     * Pixels changed since front and back bitmap were written.
+     */
+    private DirtyRegion mFrontRegion = new DirtyRegion();
+    private DirtyRegion mBackRegion = new DirtyRegion();
+
+    /**
+     * @param pool   Pool of bitmaps.
+     * @param config Config of bitmaps, e.g. {@link Bitmap.Config#ARGB_4444} for half memory.
+     */
+    public DoubleBufferedBitmap(BitmapPool pool, Bitmap.Config config) {
+        mPool = pool;
+        mConfig = config;
+    }
+
+    /**
+     * Copy changed pixels of raster to back bitmap.
+     *
+     * @param pixels Pixels of raster in rows.
+     * @param width  Width of raster.
+     * @param height Height of raster.
+     * @param region Pixels changed since last update.
+     * @return Back bitmap with all pixels of raster. It should be shown and then {@link #swap}ped.
+     */
+    public Bitmap update(int[] pixels, int width, int height, DirtyRegion region) {
+        if (mBack == null || mBack.getWidth() != width || mBack.getHeight() != height) {
+            // Both bitmaps get new size, shown bitmap is returned to pool by next update.
+            if (mBack != null) mPool.release(mBack);
+            mBack = mPool.acquire(width, height, mConfig);
+            mBackRegion.clear();
+            mBackRegion.add(0, 0, width, height);
+            mFrontRegion.clear();
+            mFrontRegion.add(0, 0, width, height);
+        } else {
+            for (int i = 0; i < region.size(); i++) {
+                mBackRegion.add(region.getLeft(i), region.getTop(i), region.getRight(i),
+                                region.getBottom(i));
+                mFrontRegion.add(region.getLeft(i), region.getTop(i), region.getRight(i),
+                                 region.getBottom(i));
+            }
+        }
+
+        for (int i = 0; i < mBackRegion.size(); i++) {
+            int left = mBackRegion.getLeft(i);
+            int top = mBackRegion.getTop(i);
+            mBack.setPixels(pixels, top * width + left, width, left, top,
+                            mBackRegion.getRight(i) - left, mBackRegion.getBottom(i) - top);
+        }
+        mBackRegion.clear();
+        return mBack;
+    }
+
+    /**
+     * Make back bitmap front one after it is shown.
+     */
+    public void swap() {
+        Bitmap bitmap = mFront;
+        mFront = mBack;
+        mBack = bitmap;
+        DirtyRegion region = mFrontRegion;
+        mFrontRegion = mBackRegion;
+        mBackRegion = region;
+    }
+
+    /**
+     * @return Count of bytes of both bitmaps.
+     */
+    public int getByteCount() {
+        return (mFront != null ? mFront.getByteCount() : 0)
+                + (mBack != null ? mBack.getByteCount() : 0);
+    }
+
+    /**
+     * Return both bitmaps to pool.
+     */
+    public void release() {
+        mPool.release(mFront);
+        mPool.release(mBack);
+        mFront = null;
+        mBack = null;
+    }
+}
@@ -0,0 +1,86 @@
+package app.wi_fiheatmapper;
+
+import android.content.Context;
+import android.location.Location;
+import android.os.Bundle;
+import android.os.Looper;
+import android.support.annotation.Nullable;
+
+import com.google.android.gms.common.api.GoogleApiClient;
+import com.google.android.gms.location.LocationListener;
+import com.google.android.gms.location.LocationRequest;
+import com.google.android.gms.location.LocationServices;
+
+/**
+ * Locations from Google fused location provider. Locations are delivered on thread of looper.
+ */
+public class FusedLocationSource implements LocationSource {
+
+    // Setting for location Google location provider.
+    private static final int LOCAION_INTERVAL = 1000;
+    private static final int LOCATION_FASTEST_INTERVAL = 500;
+
+    private final GoogleApiClient mGoogleApiClient;
+    private final Looper mLooper;
+    private final LocationListener mLocationListener = new LocationListener() {
+        @Override
+        public void onLocationChanged(Location location) {
+            mCallback.onLocationChanged(location);
+        }
+    };
+    private Callback mCallback;
+
+    public FusedLocationSource(Context context, Looper looper) {
+        mLooper = looper;
+        mGoogleApiClient = new GoogleApiClient.Builder(context)
+                .addConnectionCallbacks(new GApiClientConnCallback())
+                .addApi(LocationServices.API)
+                .build();
+    }
+
+    @Override
+    public void start(Callback callback) {
+        mCallback = callback;
+        mGoogleApiClient.connect();
+    }
+
+    @Override
+    public void stop() {
+        if (mGoogleApiClient.isConnected()) {
+            LocationServices.FusedLocationApi.removeLocationUpdates(mGoogleApiClient,
+                                                                    mLocationListener);
+        }
+        mGoogleApiClient.disconnect();
+    }
+
+    @Override
+    public void requestUpdates(float smallestDisplacement) {
+        LocationRequest locReq = new LocationRequest().setPriority(LocationRequest.PRIORITY_HIGH_ACCURACY)
+                                                      .setInterval(LOCAION_INTERVAL)
+                                                      .setFastestInterval(LOCATION_FASTEST_INTERVAL)
+                                                      .setSmallestDisplacement(smallestDisplacement);
+        LocationServices.FusedLocationApi.requestLocationUpdates(mGoogleApiClient, locReq,
+                                                                 mLocationListener, mLooper);
+    }
+
+    @Nullable
+    @Override
+    public Location getLastLocation() {
+        return LocationServices.FusedLocationApi.getLastLocation(mGoogleApiClient);
+    }
+
+    /**
+     * Callback for GoogleApiClient. Notify about last know location after connect.
+     */
+    private class GApiClientConnCallback implements GoogleApiClient.ConnectionCallbacks {
+
+        @Override
+        public void onConnected(@Nullable Bundle bundle) {
+            mCallback.onConnected();
+        }
+
+        @Override
+        public void onConnectionSuspended(int i) {
+        }
+    }
+}
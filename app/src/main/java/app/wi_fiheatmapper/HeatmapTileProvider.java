@@ -0,0 +1,483 @@
+package app.wi_fiheatmapper;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.os.AsyncTask;
+import android.util.Log;
+import android.util.LruCache;
+
+import com.google.android.gms.maps.model.Tile;
+import com.google.android.gms.maps.model.TileProvider;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Provider of heatmap tiles for {@link com.google.android.gms.maps.model.TileOverlay}.
+ * <p/>
+ * Tiles are rendered on demand for each zoom level, so heatmap is sharp at any zoom. Rendered tiles
+ * are cached in memory and on disk under key of tile coords, data generation, tile version and
+ * interpolator. Version of tile is changed only if new sample is in search radius of tile pixels,
+ * so only tiles touched by new samples are rendered again. Generation is changed by each full
+ * delta, because versions of other store can be same as versions of previous store.
+ * <p/>
+ * Data are set from main thread, tiles are requested by map on its background threads.
+ */
+public class HeatmapTileProvider implements TileProvider {
+
+    public static final String TAG = HeatmapTileProvider.class.getSimpleName();
+
+    /**
+     * Tiles are provided only for zoom levels where heatmap is larger than few pixels.
+     */
+    public static final int MIN_ZOOM = 12;
+    public static final int MAX_ZOOM = 21;
+
+    private static final int TILE_SIZE = 256;
+    private static final int MEMORY_CACHE_SIZE = 4 * 1024 * 1024;
+    private static final long DISK_CACHE_SIZE = 32 * 1024 * 1024;
+    private static final String DISK_CACHE_DIR = "heatmap_tiles";
+    private static final double METERS_PER_DEGREE = 6371009 * Math.PI / 180;
+
+    private final float mExponent;
+    private final int mMaxNeighbours;
+    private final float mSearchRadius;
+
+    /**
+     * PNG data of tiles. Empty array for tile without heatmap.
+     */
+    private final LruCache<String, byte[]> mMemoryCache;
+    private final File mDiskCacheDir;
+    private long mDiskCacheSize;
+
+    /**
+     * Version of data in which tile was last changed by new sample. Key is from {@link #tileKey}.
+     */
+    private final Map<Long, Long> mTileVersions = new ConcurrentHashMap<>();
+    /**
+     * Version of data in which all tiles changed, e.g. by change of color range.
+     */
+    private volatile long mMinTileVersion;
+    private volatile Data mHeatmapData;
+    /**
+     * Generation of last data. Accessed only from main thread.
+     */
+    private int mGeneration;
+    private volatile Interpolator.Type mInterpolatorType = Interpolator.Type.IDW;
+
+    // Range of RSSI in data. Accessed only from main thread.
+    private int mMinRssi = Integer.MAX_VALUE;
+    private int mMaxRssi = Integer.MIN_VALUE;
+
+    private final HeatmapRasterizer mRasterizer = new HeatmapRasterizer(1);
+    /**
+     * Pixel buffer of each tile thread, reused for all tiles rendered by thread.
+     */
+    private final ThreadLocal<int[]> mPixels = new ThreadLocal<int[]>() {
+        @Override
+        protected int[] initialValue() {
+            return new int[TILE_SIZE * TILE_SIZE];
+        }
+    };
+
+    private final Object mModelLock = new Object();
+    private Model mModel;
+
+    /**
+     * @param context       Context for access to cache dir.
+     * @param exponent      Power parameter of IDW.
+     * @param maxNeighbours Max count of nearest samples used for estimating RSSI of pixel.
+     * @param searchRadius  Only samples in this distance in meters are used for estimating RSSI of
+     *                      pixel. Pixels without samples in this distance are transparent.
+     */
+    public HeatmapTileProvider(Context context, float exponent, int maxNeighbours, float searchRadius) {
+        mExponent = exponent;
+        mMaxNeighbours = maxNeighbours;
+        mSearchRadius = searchRadius;
+
+        mMemoryCache = new LruCache<String, byte[]>(MEMORY_CACHE_SIZE) {
+            @Override
+            protected int sizeOf(String key, byte[] value) {
+                return value.length + 1;
+            }
+        };
+
+        // Versions of tiles are valid only for current data, so start with empty disk cache.
+        mDiskCacheDir = new File(context.getCacheDir(), DISK_CACHE_DIR);
+        deleteFiles(mDiskCacheDir);
+        if (!mDiskCacheDir.mkdirs()) Log.w(TAG, "Cannot create tile cache dir " + mDiskCacheDir);
+    }
+
+    /**
+     * Update data of heatmap. Must be called from main thread.
+     *
+     * @param delta Changes of heatmap data.
+     * @return True if some tiles changed and tile overlay should be refreshed.
+     */
+    public boolean setData(SampleStore.Delta delta) {
+        SampleStore.Snapshot samples = delta.getSamples();
+        if (!delta.isFull() && mHeatmapData != null
+                && mHeatmapData.mSamples.hasSameSamples(samples)) {
+            return false;
+        }
+
+        if (delta.isFull()) {
+            // Data can be of other store, so tiles of previous data are never used again.
+            mGeneration++;
+            mMinRssi = Integer.MAX_VALUE;
+            mMaxRssi = Integer.MIN_VALUE;
+            mTileVersions.clear();
+            AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+                @Override
+                public void run() {
+                    clearDiskCache();
+                }
+            });
+        }
+
+        int minRssi = mMinRssi;
+        int maxRssi = mMaxRssi;
+        for (int i = 0; i < delta.getChangedCount(); i++) {
+            int index = delta.getChangedIndex(i);
+            minRssi = Math.min(minRssi, samples.getRssi(index));
+            maxRssi = Math.max(maxRssi, samples.getRssi(index));
+
+            if (!delta.isFull()) {
+                invalidateTiles(samples.getLatitude(index), samples.getLongitude(index),
+                                samples.getVersion());
+            }
+        }
+
+        // Colors of all tiles depend on range of RSSI. Model of global interpolator is fitted
+        // again to all samples, so all its tiles change too.
+        if (delta.isFull() || minRssi != mMinRssi || maxRssi != mMaxRssi
+                || !mInterpolatorType.isLocal()) {
+            mMinRssi = minRssi;
+            mMaxRssi = maxRssi;
+            mMinTileVersion = samples.getVersion();
+            mTileVersions.clear();
+            mMemoryCache.evictAll();
+        }
+
+        // Publish data after tile versions, so tile threads see versions of this data.
+        mHeatmapData = new Data(samples, mGeneration);
+        return true;
+    }
+
+    /**
+     * Change interpolator of tiles. Tiles of other interpolator stay in cache under own keys.
+     *
+     * @return True if interpolator changed and tile overlay should be refreshed.
+     */
+    public boolean setInterpolatorType(Interpolator.Type type) {
+        if (type == mInterpolatorType) return false;
+
+        // Versions of tiles track only changes around samples. Cached tiles of global
+        // interpolator can be of older data, so all tiles are rendered again.
+        if (!type.isLocal() && mHeatmapData != null) {
+            mMinTileVersion = mHeatmapData.mSamples.getVersion();
+            mTileVersions.clear();
+        }
+        mInterpolatorType = type;
+        return true;
+    }
+
+    public int getMinRssi() {
+        return mMinRssi;
+    }
+
+    public int getMaxRssi() {
+        return mMaxRssi;
+    }
+
+    @Override
+    public Tile getTile(int x, int y, int zoom) {
+        Data heatmapData = mHeatmapData;
+        if (heatmapData == null || heatmapData.mSamples.isEmpty() || zoom < MIN_ZOOM) {
+            return NO_TILE;
+        }
+
+        Model model = getModel(mInterpolatorType);
+        long version = getTileVersion(x, y, zoom);
+        String key = zoom + "_" + x + "_" + y + "_" + model.mGeneration + "_" + version + "_"
+                + model.mInterpolator.getType();
+
+        byte[] data = mMemoryCache.get(key);
+        if (data == null) data = readFromDisk(key);
+        if (data == null) {
+            data = renderTile(model, x, y, zoom);
+            // Tile can be already changed by newer data than data of model. Cache only valid tile.
+            if (version <= model.mVersion) {
+                mMemoryCache.put(key, data);
+                writeToDisk(key, data);
+            }
+        } else {
+            mMemoryCache.put(key, data);
+        }
+
+        return data.length == 0 ? NO_TILE : new Tile(TILE_SIZE, TILE_SIZE, data);
+    }
+
+    /**
+     * Get model for latest data, build it if data or interpolator changed. Data are only replaced
+     * by newer ones, so model is never built for older data than data of last model.
+     */
+    private Model getModel(Interpolator.Type type) {
+        synchronized (mModelLock) {
+            Data heatmapData = mHeatmapData;
+            if (mModel == null || mModel.mGeneration != heatmapData.mGeneration
+                    || !mModel.mSamples.hasSameSamples(heatmapData.mSamples)
+                    || mModel.mInterpolator.getType() != type) {
+                mModel = new Model(heatmapData, type);
+            }
+            return mModel;
+        }
+    }
+
+    private long getTileVersion(int x, int y, int zoom) {
+        Long version = mTileVersions.get(tileKey(x, y, zoom));
+        return version == null ? mMinTileVersion : Math.max(version, mMinTileVersion);
+    }
+
+    /**
+     * Mark tiles in search radius of sample as changed on all zoom levels.
+     */
+    private void invalidateTiles(double latitude, double longitude, long version) {
+        double deltaLat = mSearchRadius / METERS_PER_DEGREE;
+        double deltaLon = deltaLat / Math.cos(Math.toRadians(latitude));
+        for (int zoom = MIN_ZOOM; zoom <= MAX_ZOOM; zoom++) {
+            int minX = tileX(longitude - deltaLon, zoom);
+            int maxX = tileX(longitude + deltaLon, zoom);
+            int minY = tileY(latitude + deltaLat, zoom);
+            int maxY = tileY(latitude - deltaLat, zoom);
+            for (int x = minX; x <= maxX; x++) {
+                for (int y = minY; y <= maxY; y++) {
+                    mTileVersions.put(tileKey(x, y, zoom), version);
+                }
+            }
+        }
+    }
+
+    /**
+     * Render tile to PNG.
+     *
+     * @return PNG data or empty array if there is no heatmap in tile.
+     */
+    private byte[] renderTile(Model model, int x, int y, int zoom) {
+        // Coords of centers of pixels in local plane. Longitude depends only on column and latitude
+        // only on row of pixel.
+        double scale = 1L << zoom;
+        float[] xs = new float[TILE_SIZE];
+        float[] ys = new float[TILE_SIZE];
+        for (int i = 0; i < TILE_SIZE; i++) {
+            double longitude = (x + (i + 0.5) / TILE_SIZE) / scale * 360 - 180;
+            xs[i] = model.mProjection.toX(longitude);
+            double mercatorY = Math.PI * (1 - 2 * (y + (i + 0.5) / TILE_SIZE) / scale);
+            ys[i] = model.mProjection.toY(Math.toDegrees(Math.atan(Math.sinh(mercatorY))));
+        }
+
+        // Skip tiles out of surveyed area.
+        if (xs[TILE_SIZE - 1] < model.mMinX - mSearchRadius || xs[0] > model.mMaxX + mSearchRadius
+                || ys[0] < model.mMinY - mSearchRadius || ys[TILE_SIZE - 1] > model.mMaxY + mSearchRadius) {
+            return new byte[0];
+        }
+
+        // Tiles are requested by more threads of map, so render each tile on its thread only.
+        DirtyRegion region = new DirtyRegion();
+        region.add(0, 0, TILE_SIZE, TILE_SIZE);
+        int[] pixels = mPixels.get();
+        mRasterizer.render(model.mInterpolator, xs, ys, model.mPalette, region, pixels, TILE_SIZE,
+                           null);
+
+        boolean empty = true;
+        for (int pixel : pixels) {
+            if (pixel != 0) {
+                empty = false;
+                break;
+            }
+        }
+        if (empty) return new byte[0];
+
+        Bitmap bitmap = Bitmap.createBitmap(pixels, TILE_SIZE, TILE_SIZE, Bitmap.Config.ARGB_8888);
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        bitmap.compress(Bitmap.CompressFormat.PNG, 100, stream);
+        bitmap.recycle();
+        return stream.toByteArray();
+    }
+
+    private byte[] readFromDisk(String key) {
+        File file = new File(mDiskCacheDir, key);
+        if (!file.exists()) return null;
+
+        byte[] data = new byte[(int) file.length()];
+        InputStream stream = null;
+        try {
+            stream = new FileInputStream(file);
+            int offset = 0;
+            while (offset < data.length) {
+                int read = stream.read(data, offset, data.length - offset);
+                if (read < 0) return null;
+                offset += read;
+            }
+            return data;
+        } catch (IOException e) {
+            Log.w(TAG, "Cannot read tile " + key, e);
+            return null;
+        } finally {
+            close(stream);
+        }
+    }
+
+    private void writeToDisk(String key, byte[] data) {
+        File file = new File(mDiskCacheDir, key);
+        OutputStream stream = null;
+        try {
+            stream = new FileOutputStream(file);
+            stream.write(data);
+        } catch (IOException e) {
+            Log.w(TAG, "Cannot write tile " + key, e);
+            return;
+        } finally {
+            close(stream);
+        }
+
+        synchronized (mDiskCacheDir) {
+            mDiskCacheSize += data.length;
+            if (mDiskCacheSize > DISK_CACHE_SIZE) trimDiskCache();
+        }
+    }
+
+    /**
+     * Delete all tiles on disk.
+     */
+    private void clearDiskCache() {
+        synchronized (mDiskCacheDir) {
+            deleteFiles(mDiskCacheDir);
+            mDiskCacheSize = 0;
+        }
+    }
+
+    /**
+     * Delete oldest tiles until half of disk cache is free.
+     */
+    private void trimDiskCache() {
+        File[] files = mDiskCacheDir.listFiles();
+        if (files == null) return;
+
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File lhs, File rhs) {
+                long diff = lhs.lastModified() - rhs.lastModified();
+                return diff < 0 ? -1 : (diff > 0 ? 1 : 0);
+            }
+        });
+        for (File file : files) {
+            if (mDiskCacheSize <= DISK_CACHE_SIZE / 2) break;
+            long length = file.length();
+            if (file.delete()) mDiskCacheSize -= length;
+        }
+    }
+
+    private static void deleteFiles(File dir) {
+        File[] files = dir.listFiles();
+        if (files == null) return;
+        for (File file : files) {
+            if (!file.delete()) Log.w(TAG, "Cannot delete " + file);
+        }
+    }
+
+    private static void close(java.io.Closeable closeable) {
+        if (closeable == null) return;
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            Log.w(TAG, "Cannot close stream", e);
+        }
+    }
+
+    static long tileKey(int x, int y, int zoom) {
+        return ((long) zoom << 58) | ((long) x << 29) | y;
+    }
+
+    private static int tileX(double longitude, int zoom) {
+        return (int) Math.floor((longitude + 180) / 360 * (1 << zoom));
+    }
+
+    private static int tileY(double latitude, int zoom) {
+        double latRad = Math.toRadians(latitude);
+        double mercatorY = Math.log(Math.tan(latRad) + 1 / Math.cos(latRad));
+        return (int) Math.floor((1 - mercatorY / Math.PI) / 2 * (1 << zoom));
+    }
+
+    /**
+     * Heatmap data with generation, published together to tile threads.
+     */
+    private static class Data {
+        private final SampleStore.Snapshot mSamples;
+        private final int mGeneration;
+
+        Data(SampleStore.Snapshot samples, int generation) {
+            mSamples = samples;
+            mGeneration = generation;
+        }
+    }
+
+    /**
+     * Samples of one data version prepared for rendering.
+     */
+    private class Model {
+        private final SampleStore.Snapshot mSamples;
+        private final int mGeneration;
+        private final long mVersion;
+        private final LocalProjection mProjection;
+        private final Interpolator mInterpolator;
+        private final HeatmapColors.Palette mPalette = new HeatmapColors.Palette();
+        private int mMinRssi = Integer.MAX_VALUE;
+        private int mMaxRssi = Integer.MIN_VALUE;
+        private final float mMinX;
+        private final float mMinY;
+        private final float mMaxX;
+        private final float mMaxY;
+
+        Model(Data data, Interpolator.Type type) {
+            SampleStore.Snapshot heatmapData = data.mSamples;
+            mSamples = heatmapData;
+            mGeneration = data.mGeneration;
+            // Samples are already projected by store.
+            mVersion = heatmapData.getVersion();
+            mProjection = heatmapData.getProjection();
+            mMinX = heatmapData.getMinX();
+            mMinY = heatmapData.getMinY();
+            mMaxX = heatmapData.getMaxX();
+            mMaxY = heatmapData.getMaxY();
+
+            int count = heatmapData.size();
+            float[] xs = new float[count];
+            float[] ys = new float[count];
+            int[] rssis = new int[count];
+            for (int i = 0; i < count; i++) {
+                xs[i] = heatmapData.getX(i);
+                ys[i] = heatmapData.getY(i);
+                rssis[i] = heatmapData.getRssi(i);
+                mMinRssi = Math.min(mMinRssi, rssis[i]);
+                mMaxRssi = Math.max(mMaxRssi, rssis[i]);
+            }
+
+            // Model is built once per version of data, so expensive fit is shared by all tiles.
+            mInterpolator = Interpolator.create(type, mExponent, mMaxNeighbours, mSearchRadius);
+            mInterpolator.setPoints(xs, ys, rssis, count);
+            Log.d(TAG, type + " fitted to " + count + " samples in "
+                    + mInterpolator.getFitNanos() / 1000000 + "ms");
+            mPalette.setRange(mMinRssi, mMaxRssi);
+        }
+    }
+}
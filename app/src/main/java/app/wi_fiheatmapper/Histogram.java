@@ -0,0 +1,103 @@
+package app.wi_fiheatmapper;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram of non-negative long values with fixed relative precision, like HdrHistogram.
+ * <p/>
+ * Values are counted in buckets of {@link #SUB_BUCKET_COUNT} linear sub-buckets for each power of
+ * two, so each value is known with precision about 6%. Values smaller than
+ * 2 * {@link #SUB_BUCKET_COUNT} are exact. Recording is one atomic increment without allocation
+ * and can be done from any thread.
+ */
+public class Histogram {
+
+    private static final int SUB_BUCKET_BITS = 4;
+    static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    /**
+     * Bucket of largest long value is last one.
+     */
+    private static final int BUCKET_COUNT = indexOf(Long.MAX_VALUE) + 1;
+
+    private final AtomicLongArray mCounts = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong mCount = new AtomicLong();
+    private final AtomicLong mSum = new AtomicLong();
+    private final AtomicLong mMax = new AtomicLong();
+
+    /**
+     * @param value Recorded value, negative value is recorded as zero.
+     */
+    public void record(long value) {
+        if (value < 0) value = 0;
+
+        mCounts.incrementAndGet(indexOf(value));
+        mCount.incrementAndGet();
+        mSum.addAndGet(value);
+        long max;
+        do {
+            max = mMax.get();
+        } while (value > max && !mMax.compareAndSet(max, value));
+    }
+
+    public long getCount() {
+        return mCount.get();
+    }
+
+    public long getMax() {
+        return mMax.get();
+    }
+
+    public double getMean() {
+        long count = mCount.get();
+        return count > 0 ? (double) mSum.get() / count : 0;
+    }
+
+    /**
+     * @param percentile Percentile from 0 to 100.
+     * @return Highest value equivalent to value at percentile, never more than max.
+     */
+    public long getValueAtPercentile(double percentile) {
+        long count = mCount.get();
+        if (count == 0) return 0;
+
+        long rank = Math.max((long) Math.ceil(percentile / 100 * count), 1);
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += mCounts.get(i);
+            if (seen >= rank) return Math.min(highestValueOf(i), mMax.get());
+        }
+        return mMax.get();
+    }
+
+    public void reset() {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            mCounts.set(i, 0);
+        }
+        mCount.set(0);
+        mSum.set(0);
+        mMax.set(0);
+    }
+
+    @Override
+    public String toString() {
+        return "count " + getCount() + ", mean " + Math.round(getMean()) + ", p50 "
+                + getValueAtPercentile(50) + ", p90 " + getValueAtPercentile(90) + ", p99 "
+                + getValueAtPercentile(99) + ", max " + getMax();
+    }
+
+    static int indexOf(long value) {
+        if (value < 2 * SUB_BUCKET_COUNT) return (int) value;
+
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return (shift + 1) * SUB_BUCKET_COUNT + (int) (value >>> shift) - SUB_BUCKET_COUNT;
+    }
+
+    static long highestValueOf(int index) {
+        if (index < 2 * SUB_BUCKET_COUNT) return index;
+
+        int shift = index / SUB_BUCKET_COUNT - 1;
+        long subBucket = index % SUB_BUCKET_COUNT + SUB_BUCKET_COUNT;
+        return ((subBucket + 1) << shift) - 1;
+    }
+}
@@ -0,0 +1,175 @@
+package app.wi_fiheatmapper;
+
+import android.location.Location;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Delivers events of {@link SurveyingService} to one listener on executor of listener.
+ * <p/>
+ * Events are coalesced, only latest value of each event is delivered. Event is posted to executor
+ * only if no delivery is pending, so slow listener gets less events and never blocks thread of
+ * service. Posting is lock-free and can be called from any thread.
+ * <p/>
+ * Heatmap data are delivered as deltas. At most one delta is on way to listener, next delta is
+ * created by thread of service after listener got previous one, so it contains all changes since
+ * then. Methods working with heatmap data must be called on thread of service.
+ */
+class ListenerChannel {
+
+    private static final int EVENT_SCAN = 1;
+    private static final int EVENT_RSSI = 2;
+    private static final int EVENT_LOCATION = 4;
+    private static final int EVENT_HEATMAP = 8;
+
+    private final SurveyingService.ServiceListener mListener;
+    private final Executor mListenerExecutor;
+    private final Executor mServiceExecutor;
+    private final SampleStore mHeatmapData;
+    private final MetricsRegistry.Counter mDroppedEvents;
+
+    /**
+     * Events posted to listener executor and not delivered yet.
+     */
+    private final AtomicInteger mPendingEvents = new AtomicInteger();
+    private volatile boolean mClosed;
+
+    // Latest values of events.
+    private volatile WifiScan mScan;
+    private volatile SurveyedRssi mSurveyedRssi;
+    private volatile Location mLocation;
+    private volatile SampleStore.Delta mDelta;
+    /**
+     * Version of heatmap data delivered to listener.
+     */
+    private volatile long mDeliveredVersion;
+
+    // Used only by thread of service.
+    private long mSentVersion;
+    private boolean mDeltaSent;
+
+    private final Runnable mDeliver = new Runnable() {
+        @Override
+        public void run() {
+            deliver();
+        }
+    };
+    private final Runnable mDeltaDelivered = new Runnable() {
+        @Override
+        public void run() {
+            mDeltaSent = false;
+            offerHeatmap();
+        }
+    };
+
+    /**
+     * @param listener         Listener of events.
+     * @param listenerExecutor Executor on which listener gets events.
+     * @param serviceExecutor  Executor of thread of service, which is only writer of heatmap data.
+     * @param heatmapData      Heatmap data of service.
+     * @param knownVersion     Version of heatmap data known by listener, zero for none.
+     * @param droppedEvents    Counter of events replaced by newer value before delivery.
+     */
+    ListenerChannel(SurveyingService.ServiceListener listener, Executor listenerExecutor,
+                    Executor serviceExecutor, SampleStore heatmapData, long knownVersion,
+                    MetricsRegistry.Counter droppedEvents) {
+        mListener = listener;
+        mListenerExecutor = listenerExecutor;
+        mServiceExecutor = serviceExecutor;
+        mHeatmapData = heatmapData;
+        mDroppedEvents = droppedEvents;
+        mSentVersion = knownVersion;
+        mDeliveredVersion = knownVersion;
+    }
+
+    SurveyingService.ServiceListener getListener() {
+        return mListener;
+    }
+
+    /**
+     * @return Version of heatmap data delivered to listener.
+     */
+    long getDeliveredVersion() {
+        return mDeliveredVersion;
+    }
+
+    /**
+     * Stop delivering of events. Events already posted to executor are dropped.
+     */
+    void close() {
+        mClosed = true;
+    }
+
+    void postScanResults(WifiScan scan) {
+        mScan = scan;
+        post(EVENT_SCAN);
+    }
+
+    void postSurveyedRssi(String surveyedSsid, int rssi) {
+        mSurveyedRssi = new SurveyedRssi(surveyedSsid, rssi);
+        post(EVENT_RSSI);
+    }
+
+    void postLocation(Location location) {
+        mLocation = location;
+        post(EVENT_LOCATION);
+    }
+
+    /**
+     * Send changes of heatmap data unknown to listener, if no delta is on way to listener. Must be
+     * called on thread of service.
+     */
+    void offerHeatmap() {
+        if (mDeltaSent || mClosed || mHeatmapData.getVersion() == mSentVersion) return;
+
+        SampleStore.Delta delta = mHeatmapData.deltaSince(mSentVersion);
+        mSentVersion = delta.getVersion();
+        mDeltaSent = true;
+        mDelta = delta;
+        post(EVENT_HEATMAP);
+    }
+
+    private void post(int event) {
+        int pending;
+        do {
+            pending = mPendingEvents.get();
+        } while (!mPendingEvents.compareAndSet(pending, pending | event));
+        if ((pending & event) != 0) mDroppedEvents.increment();
+
+        // Delivery already posted takes latest value of this event too.
+        if (pending == 0 && !mClosed) mListenerExecutor.execute(mDeliver);
+    }
+
+    private void deliver() {
+        int events = mPendingEvents.getAndSet(0);
+        if (mClosed) return;
+
+        if ((events & EVENT_SCAN) != 0) mListener.onWiFiScanCompleted(mScan);
+        if ((events & EVENT_RSSI) != 0) {
+            SurveyedRssi surveyedRssi = mSurveyedRssi;
+            mListener.onSurveyedWiFiUpdated(surveyedRssi.mSsid, surveyedRssi.mRssi);
+        }
+        if ((events & EVENT_LOCATION) != 0) mListener.onLastLocationUpdated(mLocation);
+        if ((events & EVENT_HEATMAP) != 0) {
+            SampleStore.Delta delta = mDelta;
+            mDelta = null;
+            mListener.onHeatmapDataUpdated(delta);
+            mDeliveredVersion = delta.getVersion();
+            mServiceExecutor.execute(mDeltaDelivered);
+        }
+    }
+
+    /**
+     * SSID and its RSSI published together.
+     */
+    private static class SurveyedRssi {
+        private final String mSsid;
+        private final int mRssi;
+
+        SurveyedRssi(String ssid, int rssi) {
+            mSsid = ssid;
+            mRssi = rssi;
+        }
+    }
+}
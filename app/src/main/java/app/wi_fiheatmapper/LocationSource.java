@@ -0,0 +1,45 @@
+package app.wi_fiheatmapper;
+
+import android.location.Location;
+import android.support.annotation.Nullable;
+
+/**
+ * Source of location fixes for {@link SurveyingService}. Locations are delivered to callback on
+ * thread of service, which is given to source when it is created.
+ */
+public interface LocationSource {
+
+    /**
+     * Connect to provider of locations. Updates are delivered only after they are requested.
+     */
+    void start(Callback callback);
+
+    /**
+     * Stop delivering locations and disconnect from provider.
+     */
+    void stop();
+
+    /**
+     * Request updates of location with high accuracy.
+     *
+     * @param smallestDisplacement Min distance between fixes in meters.
+     */
+    void requestUpdates(float smallestDisplacement);
+
+    /**
+     * @return Last known location or null if not known yet.
+     */
+    @Nullable
+    Location getLastLocation();
+
+    interface Callback {
+
+        /**
+         * Source is connected and its last known location is available. Can be called on any
+         * thread.
+         */
+        void onConnected();
+
+        void onLocationChanged(Location location);
+    }
+}
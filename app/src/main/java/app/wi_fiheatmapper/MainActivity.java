@@ -1,38 +1,44 @@
 package app.wi_fiheatmapper;
 
+import android.content.DialogInterface;
 import android.content.Intent;
 import android.graphics.Bitmap;
-import android.graphics.Color;
-import android.graphics.Point;
 import android.location.Location;
-import android.net.wifi.ScanResult;
+import android.net.Uri;
 import android.os.AsyncTask;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.SystemClock;
 import android.support.annotation.NonNull;
-import android.support.v4.graphics.ColorUtils;
+import android.support.annotation.Nullable;
+import android.support.v7.app.AlertDialog;
 import android.support.v7.app.AppCompatActivity;
 import android.util.Log;
+import android.view.Menu;
+import android.view.MenuItem;
 import android.view.View;
 import android.widget.TextView;
+import android.widget.Toast;
 
 import com.google.android.gms.maps.CameraUpdateFactory;
 import com.google.android.gms.maps.GoogleMap;
 import com.google.android.gms.maps.SupportMapFragment;
 import com.google.android.gms.maps.model.BitmapDescriptorFactory;
-import com.google.android.gms.maps.model.Circle;
-import com.google.android.gms.maps.model.CircleOptions;
 import com.google.android.gms.maps.model.GroundOverlay;
 import com.google.android.gms.maps.model.GroundOverlayOptions;
 import com.google.android.gms.maps.model.LatLng;
 import com.google.android.gms.maps.model.LatLngBounds;
-import com.google.maps.android.SphericalUtil;
-
-import java.util.ArrayList;
-import java.util.Collection;
-import java.util.Collections;
-import java.util.HashMap;
+import com.google.android.gms.maps.model.TileOverlay;
+import com.google.android.gms.maps.model.TileOverlayOptions;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringWriter;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  * Acitivity show RSSI heatmap of selected network on map.
@@ -52,25 +58,128 @@ public class MainActivity extends AppCompatActivity {
                                                               R.id.legend_color_4,
                                                               R.id.legend_color_5};
 
+    private static final int REQUEST_IMPORT = 1;
+    /**
+     * Directory in external app files for exported surveys.
+     */
+    private static final String EXPORTS_DIR = "exports";
+
     private static final int MAX_BITMAP_DIMEN = 128;
+    /**
+     * Pool keeps bitmaps of overlay for two sizes of raster.
+     */
+    private static final int BITMAP_POOL_BYTES = 4 * MAX_BITMAP_DIMEN * MAX_BITMAP_DIMEN * 4;
     private static final float P_EXPONENT = 3f;
+    /**
+     * Count of nearest measured points used for estimating RSSI of pixel.
+     */
+    private static final int IDW_NEIGHBOURS = 12;
+    /**
+     * Max distance in meters of measured points used for estimating RSSI of pixel.
+     * New sample changes only pixels in this distance.
+     */
+    private static final float IDW_SEARCH_RADIUS = 20f;
+    /**
+     * Min search radius in pixels, so heatmap of large area is not only dots around samples.
+     */
+    private static final float MIN_SEARCH_RADIUS_PX = 2f;
+    /**
+     * If more samples are changed since last heatmap, whole heatmap is rendered again.
+     */
+    private static final int MAX_DIRTY_SAMPLES = 256;
+    /**
+     * Interval of refreshing debug panel in millis.
+     */
+    private static final long DEBUG_PANEL_INTERVAL = 1000;
 
     private final SurveyingService.SurveyingServiceConnection mSurveyingServiceConnection
             = new SurveyingService.SurveyingServiceConnection(new SurveyingServiceListener());
     /**
-     * Map hold for circles drawed on map for corresponding location.
+     * Markers of samples drawn in tiles of one overlay.
      */
-    private final Map<Location, Circle> mLocToCircleMap = new HashMap<>();
+    private final SampleMarkerTileProvider mMarkerProvider = new SampleMarkerTileProvider();
+    private TileOverlay mMarkerOverlay;
 
     private GoogleMap mMap;
     private GroundOverlay mGroundOverlay;
     private AsyncTask<Void, Void, Bitmap> mBitmapTask;
+    /**
+     * Decides when bitmap of heatmap is rendered, created with activity.
+     */
+    private RenderScheduler mRenderScheduler;
+    /**
+     * Own thread of rendering, so import or export tasks do not delay heatmap.
+     */
+    private final ExecutorService mRenderExecutor = Executors.newSingleThreadExecutor();
+    private final Handler mHandler = new Handler();
+    private final Runnable mStartRender = new Runnable() {
+        @Override
+        public void run() {
+            startRender();
+        }
+    };
+    private boolean mDebugPanelShown;
+    private final Runnable mUpdateDebugPanel = new Runnable() {
+        @Override
+        public void run() {
+            updateDebugPanel();
+        }
+    };
+    /**
+     * Used instead of ground overlay if heatmap is rendered in tiles.
+     */
+    private HeatmapTileProvider mTileProvider;
+    private TileOverlay mTileOverlay;
+    private HeatmapRasterizer mRasterizer;
+    /**
+     * Renderer of heatmap bitmap, used only by thread of {@link #mRenderExecutor}.
+     */
+    private HeatmapRenderer mRenderer;
+    /**
+     * Interpolator selected by user. Renderer gets it with next render task.
+     */
+    private Interpolator.Type mInterpolatorType = Interpolator.Type.IDW;
+    /**
+     * Latest heatmap data delivered by service.
+     */
+    private SampleStore.Snapshot mLatestHeatmapData;
+    private final BitmapPool mBitmapPool = new BitmapPool(BITMAP_POOL_BYTES);
+    /**
+     * Bitmaps of heatmap overlay. Only pixels changed by new samples are copied to them again.
+     */
+    private DoubleBufferedBitmap mHeatmapBitmap;
+    /**
+     * Indexes of samples changed since last rendered heatmap.
+     */
+    private int[] mDirtySamples = new int[16];
+    private int mDirtySamplesCount;
+    /**
+     * True if whole heatmap must be rendered again.
+     */
+    private boolean mFullRepaint = true;
+    /**
+     * Survey imported from file shown instead of data of service. Null if data of service are shown.
+     */
+    private SampleStore mImportedSurvey;
+    private String mImportedSsid;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_main);
 
+        mRasterizer = new HeatmapRasterizer(Runtime.getRuntime().availableProcessors());
+        mRenderer = new HeatmapRenderer(mRasterizer, P_EXPONENT, IDW_NEIGHBOURS, IDW_SEARCH_RADIUS,
+                                        MIN_SEARCH_RADIUS_PX, MAX_BITMAP_DIMEN);
+        mRenderScheduler = new RenderScheduler(getResources().getInteger(R.integer.heatmap_max_frame_rate));
+        Bitmap.Config bitmapConfig = getResources().getBoolean(R.bool.heatmap_reduced_colors)
+                ? Bitmap.Config.ARGB_4444 : Bitmap.Config.ARGB_8888;
+        mHeatmapBitmap = new DoubleBufferedBitmap(mBitmapPool, bitmapConfig);
+        if (getResources().getBoolean(R.bool.tiled_heatmap)) {
+            mTileProvider = new HeatmapTileProvider(this, P_EXPONENT, IDW_NEIGHBOURS,
+                                                    IDW_SEARCH_RADIUS);
+        }
+
         SupportMapFragment mapFragment = (SupportMapFragment) getSupportFragmentManager()
                 .findFragmentById(R.id.map);
         mapFragment.getMapAsync(new MapReadyCallback());
@@ -82,6 +191,154 @@ public class MainActivity extends AppCompatActivity {
         }
     }
 
+    @Override
+    public boolean onCreateOptionsMenu(Menu menu) {
+        getMenuInflater().inflate(R.menu.main, menu);
+        return true;
+    }
+
+    @Override
+    public boolean onPrepareOptionsMenu(Menu menu) {
+        SurveyingService service = mSurveyingServiceConnection.getService();
+        if (service != null) {
+            switch (service.getReducerType()) {
+                case MAX:
+                    menu.findItem(R.id.action_reducer_max).setChecked(true);
+                    break;
+                case MEAN_POWER:
+                    menu.findItem(R.id.action_reducer_mean_power).setChecked(true);
+                    break;
+                case ROAMING:
+                    menu.findItem(R.id.action_reducer_roaming).setChecked(true);
+                    break;
+            }
+            switch (service.getFilterType()) {
+                case NONE:
+                    menu.findItem(R.id.action_filter_none).setChecked(true);
+                    break;
+                case EWMA:
+                    menu.findItem(R.id.action_filter_ewma).setChecked(true);
+                    break;
+                case MEDIAN:
+                    menu.findItem(R.id.action_filter_median).setChecked(true);
+                    break;
+                case KALMAN:
+                    menu.findItem(R.id.action_filter_kalman).setChecked(true);
+                    break;
+            }
+        }
+        switch (mInterpolatorType) {
+            case IDW:
+                menu.findItem(R.id.action_interpolator_idw).setChecked(true);
+                break;
+            case RBF:
+                menu.findItem(R.id.action_interpolator_rbf).setChecked(true);
+                break;
+            case KRIGING:
+                menu.findItem(R.id.action_interpolator_kriging).setChecked(true);
+                break;
+        }
+        menu.findItem(R.id.action_debug_panel).setChecked(mDebugPanelShown);
+        return super.onPrepareOptionsMenu(menu);
+    }
+
+    @Override
+    public boolean onOptionsItemSelected(MenuItem item) {
+        SurveyingService service = mSurveyingServiceConnection.getService();
+        switch (item.getItemId()) {
+            case R.id.action_select_network:
+                SsidPickerDialog dialog = SsidPickerDialog.newInstance(new SsidSelectedCallback());
+                dialog.show(getSupportFragmentManager(), SsidPickerDialog.TAG);
+                return true;
+            case R.id.action_reducer_max:
+                if (service != null) service.setReducer(RssiReducer.Type.MAX);
+                return true;
+            case R.id.action_reducer_mean_power:
+                if (service != null) service.setReducer(RssiReducer.Type.MEAN_POWER);
+                return true;
+            case R.id.action_reducer_roaming:
+                if (service != null) service.setReducer(RssiReducer.Type.ROAMING);
+                return true;
+            case R.id.action_filter_none:
+                if (service != null) service.setFilter(RssiFilter.Type.NONE);
+                return true;
+            case R.id.action_filter_ewma:
+                if (service != null) service.setFilter(RssiFilter.Type.EWMA);
+                return true;
+            case R.id.action_filter_median:
+                if (service != null) service.setFilter(RssiFilter.Type.MEDIAN);
+                return true;
+            case R.id.action_filter_kalman:
+                if (service != null) service.setFilter(RssiFilter.Type.KALMAN);
+                return true;
+            case R.id.action_interpolator_idw:
+                setInterpolatorType(Interpolator.Type.IDW);
+                return true;
+            case R.id.action_interpolator_rbf:
+                setInterpolatorType(Interpolator.Type.RBF);
+                return true;
+            case R.id.action_interpolator_kriging:
+                setInterpolatorType(Interpolator.Type.KRIGING);
+                return true;
+            case R.id.action_access_point:
+                if (service != null) showAccessPointPicker(service);
+                return true;
+            case R.id.action_new_survey:
+                if (service != null) service.startNewSurvey();
+                return true;
+            case R.id.action_export_binary:
+                exportSurvey(SurveyWriter.Format.BINARY);
+                return true;
+            case R.id.action_export_csv:
+                exportSurvey(SurveyWriter.Format.CSV);
+                return true;
+            case R.id.action_export_geojson:
+                exportSurvey(SurveyWriter.Format.GEOJSON);
+                return true;
+            case R.id.action_import:
+                Intent intent = new Intent(Intent.ACTION_GET_CONTENT).setType("*/*")
+                                                                     .addCategory(Intent.CATEGORY_OPENABLE);
+                startActivityForResult(Intent.createChooser(intent, getString(R.string.action_import)),
+                                       REQUEST_IMPORT);
+                return true;
+            case R.id.action_debug_panel:
+                mDebugPanelShown = !mDebugPanelShown;
+                updateDebugPanel();
+                return true;
+            case R.id.action_dump_metrics:
+                if (service != null) new DumpMetricsTask(service).execute();
+                return true;
+            default:
+                return super.onOptionsItemSelected(item);
+        }
+    }
+
+    @Override
+    protected void onActivityResult(int requestCode, int resultCode, Intent data) {
+        super.onActivityResult(requestCode, resultCode, data);
+
+        if (requestCode == REQUEST_IMPORT && resultCode == RESULT_OK && data != null
+                && data.getData() != null) {
+            new ImportSurveyTask(data.getData()).execute();
+        }
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+
+        mRasterizer.shutdown();
+        // Bitmaps are released on render thread, so running render does not write to recycled one.
+        mRenderExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                mHeatmapBitmap.release();
+                mBitmapPool.clear();
+            }
+        });
+        mRenderExecutor.shutdown();
+    }
+
     @Override
     public void onStart() {
         super.onStart();
@@ -90,6 +347,11 @@ public class MainActivity extends AppCompatActivity {
         startService(new Intent(this, SurveyingService.class));
         // ....and bound to it for getting events.
         mSurveyingServiceConnection.bound(this);
+
+        // Render heatmap cancelled in onStop.
+        mRenderScheduler.resume();
+        startRender();
+        updateDebugPanel();
     }
 
     @Override
@@ -101,10 +363,15 @@ public class MainActivity extends AppCompatActivity {
         // Stop service only if app is terminated.
         if (isFinishing()) stopService(new Intent(this, SurveyingService.class));
 
+        mRenderScheduler.pause();
+        mHandler.removeCallbacks(mStartRender);
+        mHandler.removeCallbacks(mUpdateDebugPanel);
         if (mBitmapTask != null) {
             mBitmapTask.cancel(true);
             mBitmapTask = null;
+            mRenderScheduler.onRenderCancelled();
         }
+        Log.d(TAG, mRenderScheduler.toString());
     }
 
     /**
@@ -133,83 +400,177 @@ public class MainActivity extends AppCompatActivity {
     /**
      * Draw heatmap on map.
      *
-     * @param heatmapData Data for drawing heatmap. RSSI on location.
-     */
-    private void repaintMap(Map<Location, Integer> heatmapData) {
-        // Return if nothing to draw or drawing is in progress.
-        if (heatmapData.isEmpty()) return;
-
-        if (mBitmapTask == null) mBitmapTask = new HeatmapToBitmapTask(heatmapData).execute();
-
-        // Mark position where RSSI was measured.
-        for (Map.Entry<Location, Integer> entry : heatmapData.entrySet()) {
-            if (mLocToCircleMap.get(entry.getKey()) == null) {
-                LatLng latLng = locationToLatLng(entry.getKey());
-                int color = ColorUtils.setAlphaComponent(Color.BLACK, 128);
-                CircleOptions circleOptions = new CircleOptions().center(latLng)
-                                                                 .radius(0.1)
-                                                                 .strokeWidth(0)
-                                                                 .fillColor(color);
-                if (mMap != null) {
-                    Circle circle = mMap.addCircle(circleOptions);
-                    mLocToCircleMap.put(entry.getKey(), circle);
-                }
+     * @param delta Changes of data for drawing heatmap. RSSI on location.
+     */
+    private void repaintMap(SampleStore.Delta delta) {
+        mLatestHeatmapData = delta.getSamples();
+
+        // Mark position where RSSI was measured. Map requests again only tiles with new samples.
+        if (mMarkerProvider.setData(delta) && mMarkerOverlay != null) {
+            mMarkerOverlay.clearTileCache();
+        }
+
+        // Return if nothing to draw.
+        if (mLatestHeatmapData.isEmpty()) return;
+
+        if (mTileProvider != null) {
+            // Map request again only changed tiles, others are in cache of provider.
+            if (mTileProvider.setData(delta)) {
+                if (mTileOverlay != null) mTileOverlay.clearTileCache();
+                repaintLegend(mTileProvider.getMinRssi(), mTileProvider.getMaxRssi());
             }
+        } else {
+            addDirtySamples(delta);
+            mRenderScheduler.request();
+            startRender();
         }
     }
 
     /**
-     * Estimate RSSI on (x, y) coordinates from known points.
-     * <p/>
-     * http://homel.vsb.cz/~hom50/SLBGEOST/LOD/GS09.HTM<br/>
-     * https://en.wikipedia.org/wiki/Inverse_distance_weighting
-     *
-     * @param knownPoints Map of known points with RSSI value.
-     * @param x           X coord of estimating point.
-     * @param y           Y coord of estimating point.
-     * @return Estimated RSSI.
+     * Start rendering of latest heatmap data if scheduler allows it. Else render is started later
+     * with all data delivered until then.
      */
-    private int estimateRssi(Map<Point, Integer> knownPoints, int x, int y) {
-        double sum1 = 0, sum2 = 0;
-        for (Map.Entry<Point, Integer> entry : knownPoints.entrySet()) {
-            // Get int immediately for a little better performance.
-            Point knownPoint = entry.getKey();
-            int knownRssi = entry.getValue().intValue();
+    private void startRender() {
+        mHandler.removeCallbacks(mStartRender);
+        long now = SystemClock.uptimeMillis();
+        long delay = mRenderScheduler.getDelay(now);
+        if (delay == RenderScheduler.NO_RENDER) return;
+        if (delay > 0) {
+            mHandler.postDelayed(mStartRender, delay);
+            return;
+        }
 
-            double distance = Math.sqrt(Math.pow(x - knownPoint.x, 2) + Math.pow(y - knownPoint.y, 2));
+        MetricsRegistry metrics = getMetrics();
+        if (metrics != null) {
+            // All requests except last one are served by this render.
+            metrics.counter(MetricsRegistry.RENDER_DROPPED).add(Math.max(mRenderScheduler.getQueueDepth() - 1, 0));
+        }
+        mRenderScheduler.onRenderStarted(now);
+        mBitmapTask = new HeatmapToBitmapTask(mLatestHeatmapData).executeOnExecutor(mRenderExecutor);
+    }
+
+    /**
+     * Change interpolator of heatmap and render heatmap again by it.
+     */
+    private void setInterpolatorType(Interpolator.Type type) {
+        if (type == mInterpolatorType) return;
+        mInterpolatorType = type;
 
-            if (distance == 0) return knownRssi;
+        if (mTileProvider != null) {
+            if (mTileProvider.setInterpolatorType(type) && mTileOverlay != null) {
+                mTileOverlay.clearTileCache();
+            }
+        } else if (mLatestHeatmapData != null && !mLatestHeatmapData.isEmpty()) {
+            // Renderer renders all pixels by new interpolator.
+            mRenderScheduler.request();
+            startRender();
+        }
+    }
 
-            double w = 1 / Math.pow(distance, P_EXPONENT);
-            sum1 += w * knownRssi;
-            sum2 += w;
+    /**
+     * Show list of access points of surveyed SSID. Selected access point is shown in heatmap
+     * instead of all access points.
+     */
+    private void showAccessPointPicker(final SurveyingService service) {
+        final List<String> bssids = service.getRecordedBssids();
+        String[] items = new String[bssids.size() + 1];
+        items[0] = getString(R.string.all_access_points);
+        for (int i = 0; i < bssids.size(); i++) {
+            items[i + 1] = bssids.get(i);
         }
 
-        return Double.isNaN(sum1 / sum2) ? Integer.MIN_VALUE : (int) (sum1 / sum2);
+        new AlertDialog.Builder(this)
+                .setTitle(R.string.action_access_point)
+                .setItems(items, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        service.surveyAccessPoint(which == 0 ? null : bssids.get(which - 1));
+                    }
+                })
+                .show();
     }
 
     /**
-     * Compute and show color legend for drawed data.
-     * Collected RSSI range is divided on n part and each part have color corresponding to RSSI value.
+     * Export shown heatmap data to file in background.
      *
-     * @param rssis Collection of RSSIs.
+     * @param format Format of exported file.
      */
-    private void repaintLegend(Collection<Integer> rssis) {
-        View legendLayout = findViewById(R.id.legend_layout);
+    private void exportSurvey(SurveyWriter.Format format) {
+        if (mLatestHeatmapData == null || mLatestHeatmapData.isEmpty()) return;
+
+        String ssid = mImportedSsid;
+        if (mImportedSurvey == null) {
+            SurveyingService service = mSurveyingServiceConnection.getService();
+            ssid = service != null ? service.getSurveySsid() : null;
+        }
+        new ExportSurveyTask(mLatestHeatmapData, ssid != null ? ssid : "", format).execute();
+    }
+
+    /**
+     * @return Metrics of service or null if service is not connected.
+     */
+    @Nullable
+    private MetricsRegistry getMetrics() {
+        SurveyingService service = mSurveyingServiceConnection.getService();
+        return service != null ? service.getMetrics() : null;
+    }
 
-        // Count only with valid RSSI values.
-        Collection<Integer> values = new ArrayList<>(rssis);
-        values.removeAll(Collections.singleton(Integer.MIN_VALUE));
-        if (values.isEmpty()) {
-            // Hide legend of no data available.
-            if (legendLayout != null) {
-                legendLayout.setVisibility(View.GONE);
+    /**
+     * Show metrics in debug panel and refresh them periodically while panel is shown.
+     */
+    private void updateDebugPanel() {
+        mHandler.removeCallbacks(mUpdateDebugPanel);
+        TextView panel = (TextView) findViewById(R.id.debug_panel);
+        panel.setVisibility(mDebugPanelShown ? View.VISIBLE : View.GONE);
+        if (!mDebugPanelShown) return;
+
+        MetricsRegistry metrics = getMetrics();
+        if (metrics != null) {
+            StringWriter writer = new StringWriter();
+            try {
+                metrics.dump(writer);
+            } catch (IOException e) {
+                // String writer does not throw.
             }
+            panel.setText(writer.toString().trim() + "\n" + mRenderScheduler);
+        }
+        mHandler.postDelayed(mUpdateDebugPanel, DEBUG_PANEL_INTERVAL);
+    }
+
+    /**
+     * Remember changed samples for rendering only pixels around them.
+     *
+     * @param delta Changes of heatmap data.
+     */
+    private void addDirtySamples(SampleStore.Delta delta) {
+        if (delta.isFull() || mDirtySamplesCount + delta.getChangedCount() > MAX_DIRTY_SAMPLES) {
+            mFullRepaint = true;
+        }
+        if (mFullRepaint) {
+            mDirtySamplesCount = 0;
             return;
         }
 
-        int maxRssi = Collections.max(values);
-        int minRssi = Collections.min(values);
+        if (mDirtySamples.length < mDirtySamplesCount + delta.getChangedCount()) {
+            int[] dirtySamples = new int[Math.max(mDirtySamples.length * 2,
+                                                  mDirtySamplesCount + delta.getChangedCount())];
+            System.arraycopy(mDirtySamples, 0, dirtySamples, 0, mDirtySamplesCount);
+            mDirtySamples = dirtySamples;
+        }
+        for (int i = 0; i < delta.getChangedCount(); i++) {
+            mDirtySamples[mDirtySamplesCount++] = delta.getChangedIndex(i);
+        }
+    }
+
+    /**
+     * Compute and show color legend for drawed data.
+     * Collected RSSI range is divided on n part and each part have color corresponding to RSSI value.
+     *
+     * @param minRssi Weakest collected RSSI.
+     * @param maxRssi Strongest collected RSSI.
+     */
+    private void repaintLegend(int minRssi, int maxRssi) {
+        View legendLayout = findViewById(R.id.legend_layout);
 
         double legendCount = LEGEND_LABEL_VIEWS.length;
         if (legendLayout != null) {
@@ -217,7 +578,7 @@ public class MainActivity extends AppCompatActivity {
             for (int i = 0; i < legendCount; i++) {
                 // Divide RSSI range to parts and get color for this parts.
                 int signalStrength = (int) ((minRssi - maxRssi) * i / (legendCount - 1)) + maxRssi;
-                int color = generateColor(i / (legendCount - 1));
+                int color = HeatmapColors.generateColor(i / (legendCount - 1));
 
                 View labelTv = legendLayout.findViewById(LEGEND_LABEL_VIEWS[i]);
                 if (labelTv instanceof TextView) {
@@ -254,20 +615,6 @@ public class MainActivity extends AppCompatActivity {
         }
     }
 
-    private int generateColor(double relativeSignal) {
-        int red = 0xFF;
-        int green = 0xFF;
-        if (relativeSignal >= 0.5) {
-            // From half substract red from green to make full green.
-            red = (int) ((1 - relativeSignal) * 0xFF / 0.5);
-        } else {
-            // To half of range add green to red to make orange.
-            green = (int) ((relativeSignal) * 0xFF / 0.5);
-        }
-
-        return Color.rgb(red, green, 0);
-    }
-
     /**
      * Helper to transform {@link Location} to {@link LatLng}.
      *
@@ -281,12 +628,13 @@ public class MainActivity extends AppCompatActivity {
 
     private class SurveyingServiceListener implements SurveyingService.ServiceListener {
         @Override
-        public void onWiFiScanCompleted(List<ScanResult> scanResults) {
+        public void onWiFiScanCompleted(WifiScan scan) {
         }
 
         @Override
-        public void onHeatmapDataUpdated(Map<Location, Integer> heatmapData) {
-            repaintMap(heatmapData);
+        public void onHeatmapDataUpdated(SampleStore.Delta delta) {
+            // Imported survey is shown until network for surveying is selected.
+            if (mImportedSurvey == null) repaintMap(delta);
         }
 
         @Override
@@ -307,8 +655,15 @@ public class MainActivity extends AppCompatActivity {
         @Override
         public void onSsidSelected(String ssid) {
             // Start surveying selected network.
-            if (mSurveyingServiceConnection.getService() != null) {
-                mSurveyingServiceConnection.getService().surveySsid(ssid);
+            SurveyingService service = mSurveyingServiceConnection.getService();
+            if (service != null) {
+                if (mImportedSurvey != null) {
+                    // Show again data of service instead of imported survey. Service rebuilds
+                    // heatmap of selected SSID, so all its data are delivered to listener.
+                    mImportedSurvey = null;
+                    mImportedSsid = null;
+                }
+                service.surveySsid(ssid);
             }
         }
     }
@@ -321,111 +676,85 @@ public class MainActivity extends AppCompatActivity {
             showLastLocation();
 
             mMap.setMyLocationEnabled(true);
+
+            if (mTileProvider != null) {
+                mTileOverlay = mMap.addTileOverlay(new TileOverlayOptions().tileProvider(mTileProvider)
+                                                                           .zIndex(10));
+            }
+            mMarkerOverlay = mMap.addTileOverlay(new TileOverlayOptions().tileProvider(mMarkerProvider)
+                                                                         .zIndex(20)
+                                                                         .fadeIn(false));
         }
     }
 
     /**
      * Task for asynchronous creating bitmap from heatmap data.
+     * <p/>
+     * Heatmap is rendered by {@link HeatmapRenderer}, task only copies changed pixels to bitmap
+     * and shows it on map.
      */
     private class HeatmapToBitmapTask extends AsyncTask<Void, Void, Bitmap> {
 
-        private final Map<Location, Integer> mHeatmapData;
+        private final SampleStore.Snapshot mHeatmapData;
+        /**
+         * Changed samples or null for full render.
+         */
+        private final int[] mDirtySamples;
+        private final Interpolator.Type mInterpolatorType;
         private LatLngBounds mAreaBounds;
+        private int mMinRssi;
+        private int mMaxRssi;
+        private long mFitNanos;
+        private long mPixelNanos;
 
-        public HeatmapToBitmapTask(Map<Location, Integer> heatmapData) {
+        public HeatmapToBitmapTask(SampleStore.Snapshot heatmapData) {
             mHeatmapData = heatmapData;
-        }
+            mInterpolatorType = MainActivity.this.mInterpolatorType;
 
-        @Override
-        protected Bitmap doInBackground(Void... params) {
-            // Create bounds around surveyed area.
-            LatLngBounds.Builder boundsBuilder = LatLngBounds.builder();
-            for (Map.Entry<Location, Integer> entry : mHeatmapData.entrySet()) {
-                boundsBuilder.include(locationToLatLng(entry.getKey()));
-            }
-            mAreaBounds = boundsBuilder.build();
-
-            // Expand bounds for showing heatmap around boundary points.
-            mAreaBounds = new LatLngBounds(new LatLng(mAreaBounds.southwest.latitude - 0.0001,
-                                                      mAreaBounds.southwest.longitude - 0.0002),
-                                           new LatLng(mAreaBounds.northeast.latitude + 0.0001,
-                                                      mAreaBounds.northeast.longitude + 0.0002));
-
-            // Dimensions of surveyed area in meters.
-            float areaWidth
-                    = (float) SphericalUtil.computeDistanceBetween(new LatLng(mAreaBounds.southwest.latitude,
-                                                                              mAreaBounds.southwest.longitude),
-                                                                   new LatLng(mAreaBounds.southwest.latitude,
-                                                                              mAreaBounds.northeast.longitude));
-            float areaHeight
-                    = (float) SphericalUtil.computeDistanceBetween(new LatLng(mAreaBounds.southwest.latitude,
-                                                                              mAreaBounds.southwest.longitude),
-                                                                   new LatLng(mAreaBounds.northeast.latitude,
-                                                                              mAreaBounds.southwest.longitude));
-
-            // Calculate bitmap dimensions by size of area.
-            int bitmapWidth;
-            int bitmapHeight;
-            if (areaWidth > areaHeight) {
-                bitmapWidth = MAX_BITMAP_DIMEN;
-                bitmapHeight = (int) (bitmapWidth * (areaHeight / areaWidth));
-                // Overlay bitmap dimens should be powers of two.
-                if (Integer.highestOneBit(bitmapHeight) != bitmapHeight) {
-                    bitmapHeight = Integer.highestOneBit(bitmapHeight) << 1;
-                }
+            // Take changed samples, new changes are collected for next task.
+            if (mFullRepaint) {
+                mDirtySamples = null;
             } else {
-                bitmapHeight = MAX_BITMAP_DIMEN;
-                bitmapWidth = (int) (bitmapHeight * (areaWidth / areaHeight));
-                // Overlay bitmap dimens should be powers of two.
-                if (Integer.highestOneBit(bitmapWidth) != bitmapWidth) {
-                    bitmapWidth = Integer.highestOneBit(bitmapWidth) << 1;
-                }
-            }
-
-            // Convert locations to points in bitmap.
-            // Bitmap have origin in top left, location in bottom left.
-            Map<Point, Integer> knownPoints = new HashMap<>(mHeatmapData.size());
-            for (Map.Entry<Location, Integer> entry : mHeatmapData.entrySet()) {
-                LatLng latLng = locationToLatLng(entry.getKey());
-                double x = bitmapWidth * (latLng.longitude - mAreaBounds.southwest.longitude)
-                        / (mAreaBounds.northeast.longitude - mAreaBounds.southwest.longitude);
-                double y = bitmapHeight * (1 - (latLng.latitude - mAreaBounds.southwest.latitude)
-                        / (mAreaBounds.northeast.latitude - mAreaBounds.southwest.latitude));
-                knownPoints.put(new Point((int) x, (int) y), entry.getValue());
+                mDirtySamples = new int[mDirtySamplesCount];
+                System.arraycopy(MainActivity.this.mDirtySamples, 0, mDirtySamples, 0,
+                                 mDirtySamplesCount);
             }
+            mFullRepaint = false;
+            mDirtySamplesCount = 0;
+        }
 
-            int maxRssi = Collections.max(mHeatmapData.values());
-            int minRssi = Collections.min(mHeatmapData.values());
-
-            // Bitmap dimension cannot be zero.
-            Bitmap bitmap = Bitmap.createBitmap(Math.max(bitmapWidth, 1),
-                                                Math.max(bitmapHeight, 1),
-                                                Bitmap.Config.ARGB_8888);
+        @Override
+        protected Bitmap doInBackground(Void... params) {
             long startMillis = System.currentTimeMillis();
-            for (int x = 0; x < bitmap.getWidth(); x++) {
-                for (int y = 0; y < bitmap.getHeight(); y++) {
-                    int rssi = estimateRssi(knownPoints, x, y);
-
-                    if (rssi == Integer.MIN_VALUE) continue;
-
-                    // Signal strenght relative to range of currently collected RSSIs.
-                    // 0 = strongest signal
-                    // 1 = weakest signal
-                    double relativeSignalStrenght;
-                    if (minRssi - maxRssi == 0) {
-                        relativeSignalStrenght = 0.5;
-                    } else {
-                        relativeSignalStrenght = (rssi - maxRssi) / (double) (minRssi - maxRssi);
-                    }
-
-                    int color = ColorUtils.setAlphaComponent(generateColor(relativeSignalStrenght),
-                                                             128);
-                    bitmap.setPixel(x, y, color);
-                }
-
-                if (isCancelled()) return bitmap;
+            HeatmapRenderer renderer = mRenderer;
+            if (renderer.getInterpolator().getType() != mInterpolatorType) {
+                renderer.setInterpolator(Interpolator.create(mInterpolatorType, P_EXPONENT,
+                                                             IDW_NEIGHBOURS, MIN_SEARCH_RADIUS_PX));
             }
-            Log.d(TAG, "bitmap created in " + (System.currentTimeMillis() - startMillis) + "ms");
+            boolean completed = renderer.render(mHeatmapData, mDirtySamples,
+                                                new HeatmapRasterizer.Cancellation() {
+                                                    @Override
+                                                    public boolean isCancelled() {
+                                                        return HeatmapToBitmapTask.this.isCancelled();
+                                                    }
+                                                });
+            if (!completed) return null;
+
+            // Shown bitmap is not changed, changed pixels are copied to back bitmap.
+            DirtyRegion region = renderer.getRegion();
+            Bitmap bitmap = mHeatmapBitmap.update(renderer.getPixels(), renderer.getWidth(),
+                                                  renderer.getHeight(), region);
+
+            mAreaBounds = new LatLngBounds(new LatLng(renderer.getSouth(), renderer.getWest()),
+                                           new LatLng(renderer.getNorth(), renderer.getEast()));
+            mMinRssi = renderer.getMinRssi();
+            mMaxRssi = renderer.getMaxRssi();
+            mFitNanos = renderer.getFitNanos();
+            mPixelNanos = renderer.getPixelNanos();
+            Log.d(TAG, "bitmap " + (renderer.isFullRender() ? "rendered" : "updated") + " in "
+                    + (System.currentTimeMillis() - startMillis) + "ms, "
+                    + region.getArea() + " pixels, " + mInterpolatorType + " fitted in "
+                    + mFitNanos / 1000 + "us, " + mPixelNanos + "ns per pixel");
 
             return bitmap;
         }
@@ -445,17 +774,159 @@ public class MainActivity extends AppCompatActivity {
                 mGroundOverlay.setPositionFromBounds(mAreaBounds);
                 mGroundOverlay.setImage(BitmapDescriptorFactory.fromBitmap(bitmap));
             }
+            mHeatmapBitmap.swap();
 
-            repaintLegend(mHeatmapData.values());
+            repaintLegend(mMinRssi, mMaxRssi);
 
             mBitmapTask = null;
-            // Start generating new bitmap if data changed from last bitmap. Else wait for new data.
-            if (mSurveyingServiceConnection.getService() != null) {
-                Map<Location, Integer> heatmapData = mSurveyingServiceConnection.getService().getHeatmapData();
-                if (heatmapData.size() != mHeatmapData.size()) {
-                    mBitmapTask = new HeatmapToBitmapTask(heatmapData).execute();
+            long renderTime = mRenderScheduler.onRenderFinished(SystemClock.uptimeMillis());
+            MetricsRegistry metrics = getMetrics();
+            if (metrics != null) {
+                metrics.histogram(MetricsRegistry.RENDER_TIME).record(renderTime);
+                int bitmapBytes = mHeatmapBitmap.getByteCount() + mBitmapPool.getByteCount();
+                metrics.gauge(MetricsRegistry.BITMAP_BYTES).set(bitmapBytes);
+                // Fit is reused if samples did not change.
+                if (mFitNanos > 0) metrics.histogram(MetricsRegistry.RENDER_FIT).record(mFitNanos / 1000);
+                metrics.histogram(MetricsRegistry.RENDER_PIXEL).record(mPixelNanos);
+            }
+            // Data delivered during rendering are rendered in next frame.
+            startRender();
+        }
+
+        @Override
+        protected void onCancelled(Bitmap bitmap) {
+            // Changed samples of this task were not rendered.
+            mFullRepaint = true;
+        }
+    }
+
+    /**
+     * Task for writing survey to file in external app files.
+     */
+    private class ExportSurveyTask extends AsyncTask<Void, Void, File> {
+        private final SampleStore.Snapshot mSamples;
+        private final String mSsid;
+        private final SurveyWriter.Format mFormat;
+
+        ExportSurveyTask(SampleStore.Snapshot samples, String ssid, SurveyWriter.Format format) {
+            mSamples = samples;
+            mSsid = ssid;
+            mFormat = format;
+        }
+
+        @Override
+        protected File doInBackground(Void... params) {
+            File dir = getExternalFilesDir(EXPORTS_DIR);
+            if (dir == null) return null;
+
+            File file = new File(dir, "survey_" + System.currentTimeMillis() + "."
+                    + mFormat.getExtension());
+            try {
+                SurveyWriter writer = SurveyWriter.create(mFormat, new FileOutputStream(file),
+                                                          mSsid);
+                try {
+                    writer.writeAll(mSamples);
+                } finally {
+                    writer.close();
+                }
+                return file;
+            } catch (IOException e) {
+                Log.e(TAG, "Cannot export survey to " + file, e);
+                file.delete();
+                return null;
+            }
+        }
+
+        @Override
+        protected void onPostExecute(File file) {
+            if (file == null) {
+                Toast.makeText(MainActivity.this, R.string.export_failed, Toast.LENGTH_LONG).show();
+            } else {
+                Toast.makeText(MainActivity.this, getString(R.string.export_done, file.getPath()),
+                               Toast.LENGTH_LONG).show();
+            }
+        }
+    }
+
+    /**
+     * Task for writing metrics of service to file in external app files.
+     */
+    private class DumpMetricsTask extends AsyncTask<Void, Void, File> {
+        private final SurveyingService mService;
+
+        DumpMetricsTask(SurveyingService service) {
+            mService = service;
+        }
+
+        @Override
+        protected File doInBackground(Void... params) {
+            try {
+                return mService.dumpMetrics();
+            } catch (IOException e) {
+                Log.e(TAG, "Cannot dump metrics", e);
+                return null;
+            }
+        }
+
+        @Override
+        protected void onPostExecute(File file) {
+            if (file == null) {
+                Toast.makeText(MainActivity.this, R.string.metrics_dump_failed, Toast.LENGTH_LONG).show();
+            } else {
+                Toast.makeText(MainActivity.this, getString(R.string.metrics_dumped, file.getPath()),
+                               Toast.LENGTH_LONG).show();
+            }
+        }
+    }
+
+    /**
+     * Task for reading survey from file chosen by user.
+     */
+    private class ImportSurveyTask extends AsyncTask<Void, Void, SampleStore> {
+        private final Uri mUri;
+        private String mSsid;
+
+        ImportSurveyTask(Uri uri) {
+            mUri = uri;
+        }
+
+        @Override
+        protected SampleStore doInBackground(Void... params) {
+            SampleStore store = new SampleStore();
+            // Imported samples are binned to same cells as samples of service.
+            SampleGrid grid = new SampleGrid(store, getResources().getInteger(R.integer.diameter));
+            try {
+                InputStream in = getContentResolver().openInputStream(mUri);
+                if (in == null) return null;
+                try {
+                    mSsid = SurveyReader.read(in, grid);
+                } finally {
+                    in.close();
                 }
+            } catch (IOException e) {
+                Log.e(TAG, "Cannot import survey from " + mUri, e);
+                return null;
+            }
+            return store;
+        }
+
+        @Override
+        protected void onPostExecute(SampleStore store) {
+            if (store == null) {
+                Toast.makeText(MainActivity.this, R.string.import_failed, Toast.LENGTH_LONG).show();
+                return;
+            }
+
+            mImportedSurvey = store;
+            mImportedSsid = mSsid;
+            repaintMap(store.deltaSince(0));
+            if (store.size() > 0 && mMap != null) {
+                SampleStore.Snapshot samples = store.snapshot();
+                mMap.moveCamera(CameraUpdateFactory.newLatLng(new LatLng(samples.getLatitude(0),
+                                                                         samples.getLongitude(0))));
             }
+            Toast.makeText(MainActivity.this, getString(R.string.import_done, mSsid),
+                           Toast.LENGTH_LONG).show();
         }
     }
 }
@@ -0,0 +1,129 @@
+package app.wi_fiheatmapper;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Named counters, gauges and histograms for diagnosing performance of survey.
+ * <p/>
+ * Metrics are created on first use and kept until registry is dropped. Hot paths should keep
+ * reference to metric, updating of metric is only atomic operation. All methods can be called
+ * from any thread.
+ */
+public class MetricsRegistry {
+
+    // Names of metrics.
+    public static final String SCAN_RESULTS = "scan.results";
+    public static final String SCAN_STARTED = "scan.started";
+    public static final String SCAN_THROTTLED = "scan.throttled";
+    public static final String SCAN_TIMEOUTS = "scan.timeouts";
+    public static final String SCAN_LATENCY = "scan.latency_ms";
+    public static final String FIXES = "fix.count";
+    public static final String FIXES_REJECTED = "fix.rejected";
+    public static final String FIX_ACCURACY = "fix.accuracy_cm";
+    public static final String SURVEY_FIXES = "survey.fixes";
+    public static final String HEATMAP_SAMPLES = "heatmap.samples";
+    public static final String EVENTS_DROPPED = "listener.dropped_events";
+    public static final String RENDER_TIME = "render.time_ms";
+    public static final String RENDER_DROPPED = "render.dropped_requests";
+    public static final String BITMAP_BYTES = "render.bitmap_bytes";
+    public static final String RENDER_FIT = "render.fit_us";
+    public static final String RENDER_PIXEL = "render.pixel_ns";
+
+    private final ConcurrentMap<String, Counter> mCounters = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Gauge> mGauges = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Histogram> mHistograms = new ConcurrentHashMap<>();
+    private final long mStartNanos = System.nanoTime();
+
+    public Counter counter(String name) {
+        Counter counter = mCounters.get(name);
+        if (counter != null) return counter;
+
+        counter = new Counter();
+        Counter existing = mCounters.putIfAbsent(name, counter);
+        return existing != null ? existing : counter;
+    }
+
+    public Gauge gauge(String name) {
+        Gauge gauge = mGauges.get(name);
+        if (gauge != null) return gauge;
+
+        gauge = new Gauge();
+        Gauge existing = mGauges.putIfAbsent(name, gauge);
+        return existing != null ? existing : gauge;
+    }
+
+    public Histogram histogram(String name) {
+        Histogram histogram = mHistograms.get(name);
+        if (histogram != null) return histogram;
+
+        histogram = new Histogram();
+        Histogram existing = mHistograms.putIfAbsent(name, histogram);
+        return existing != null ? existing : histogram;
+    }
+
+    /**
+     * @return Millis since registry was created.
+     */
+    public long getUptime() {
+        return (System.nanoTime() - mStartNanos) / 1000000;
+    }
+
+    /**
+     * Write all metrics sorted by name, one metric per line. Counters have also rate per minute.
+     */
+    public void dump(Writer writer) throws IOException {
+        long uptime = getUptime();
+        writer.write("uptime " + uptime / 1000 + "s\n");
+        for (Map.Entry<String, Counter> entry : new TreeMap<>(mCounters).entrySet()) {
+            long value = entry.getValue().get();
+            long perMinute = uptime > 0 ? value * 60000 / uptime : 0;
+            writer.write(entry.getKey() + " " + value + " (" + perMinute + "/min)\n");
+        }
+        for (Map.Entry<String, Gauge> entry : new TreeMap<>(mGauges).entrySet()) {
+            writer.write(entry.getKey() + " " + entry.getValue().get() + "\n");
+        }
+        for (Map.Entry<String, Histogram> entry : new TreeMap<>(mHistograms).entrySet()) {
+            writer.write(entry.getKey() + " " + entry.getValue() + "\n");
+        }
+    }
+
+    /**
+     * Monotonic count of events.
+     */
+    public static class Counter {
+        private final AtomicLong mValue = new AtomicLong();
+
+        public void increment() {
+            mValue.incrementAndGet();
+        }
+
+        public void add(long delta) {
+            mValue.addAndGet(delta);
+        }
+
+        public long get() {
+            return mValue.get();
+        }
+    }
+
+    /**
+     * Last value of some quantity.
+     */
+    public static class Gauge {
+        private volatile long mValue;
+
+        public void set(long value) {
+            mValue = value;
+        }
+
+        public long get() {
+            return mValue;
+        }
+    }
+}
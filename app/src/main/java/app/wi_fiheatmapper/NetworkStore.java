@@ -0,0 +1,314 @@
+package app.wi_fiheatmapper;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Store of RSSI of all networks visible on each location fix.
+ * <p/>
+ * Networks are identified by BSSID. BSSIDs and SSIDs are interned to dense int ids, so samples
+ * keep only ids and known network is found by one hash lookup. Location of fix is stored once in
+ * fix columns and each network has own columns of observations (fix index and RSSI), so heatmap of
+ * any network can be built without scanning again.
+ * <p/>
+ * Store is not thread safe, it is used only by thread of service.
+ */
+public class NetworkStore {
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    // Interned identifiers.
+    private final HashMap<String, Integer> mNetworkIds = new HashMap<>();
+    private final HashMap<String, Integer> mSsidIds = new HashMap<>();
+    private String[] mBssids = new String[INITIAL_CAPACITY];
+    private int[] mNetworkSsids = new int[INITIAL_CAPACITY];
+    private String[] mSsids = new String[INITIAL_CAPACITY];
+    private int mNetworkCount;
+    private int mSsidCount;
+
+    // Columns of location fixes.
+    private double[] mLatitudes = new double[INITIAL_CAPACITY];
+    private double[] mLongitudes = new double[INITIAL_CAPACITY];
+    private long[] mTimestamps = new long[INITIAL_CAPACITY];
+    private float[] mAccuracies = new float[INITIAL_CAPACITY];
+    private int mFixCount;
+
+    // Columns of observations of each network.
+    private int[][] mObservationFixes = new int[INITIAL_CAPACITY][];
+    private short[][] mObservationRssis = new short[INITIAL_CAPACITY][];
+    private int[] mObservationCounts = new int[INITIAL_CAPACITY];
+
+    /**
+     * Get id of network, network is added if it is not known yet.
+     *
+     * @param bssid BSSID of network.
+     * @param ssid  SSID of network.
+     * @return Id of network.
+     */
+    public int internNetwork(String bssid, String ssid) {
+        Integer id = mNetworkIds.get(bssid);
+        if (id != null) return id;
+
+        if (mNetworkCount == mBssids.length) {
+            int capacity = mNetworkCount * 2;
+            mBssids = Arrays.copyOf(mBssids, capacity);
+            mNetworkSsids = Arrays.copyOf(mNetworkSsids, capacity);
+            mObservationFixes = Arrays.copyOf(mObservationFixes, capacity);
+            mObservationRssis = Arrays.copyOf(mObservationRssis, capacity);
+            mObservationCounts = Arrays.copyOf(mObservationCounts, capacity);
+        }
+
+        int network = mNetworkCount++;
+        mBssids[network] = bssid;
+        mNetworkSsids[network] = internSsid(ssid);
+        mObservationFixes[network] = new int[INITIAL_CAPACITY];
+        mObservationRssis[network] = new short[INITIAL_CAPACITY];
+        mNetworkIds.put(bssid, network);
+        return network;
+    }
+
+    /**
+     * @param bssid BSSID of network.
+     * @return Id of network or -1 if network is not known.
+     */
+    public int findNetwork(String bssid) {
+        Integer id = mNetworkIds.get(bssid);
+        return id != null ? id : -1;
+    }
+
+    /**
+     * @param ssid SSID of networks.
+     * @return Id of SSID or -1 if SSID is not known.
+     */
+    public int findSsid(String ssid) {
+        Integer id = mSsidIds.get(ssid);
+        return id != null ? id : -1;
+    }
+
+    public int getNetworkCount() {
+        return mNetworkCount;
+    }
+
+    public String getBssid(int network) {
+        checkNetwork(network);
+        return mBssids[network];
+    }
+
+    /**
+     * @param network Id of network.
+     * @return Id of SSID of network.
+     */
+    public int getSsidId(int network) {
+        checkNetwork(network);
+        return mNetworkSsids[network];
+    }
+
+    public int getSsidCount() {
+        return mSsidCount;
+    }
+
+    public String getSsid(int ssidId) {
+        if (ssidId < 0 || ssidId >= mSsidCount) {
+            throw new IndexOutOfBoundsException("SSID: " + ssidId + ", count: " + mSsidCount);
+        }
+        return mSsids[ssidId];
+    }
+
+    /**
+     * Add location fix. Networks visible on this fix are added by {@link #addObservation}.
+     *
+     * @param latitude  Latitude of fix.
+     * @param longitude Longitude of fix.
+     * @param timestamp Time of fix in millis.
+     * @param accuracy  Accuracy of location in meters.
+     * @return Index of fix.
+     */
+    public int addFix(double latitude, double longitude, long timestamp, float accuracy) {
+        if (mFixCount == mLatitudes.length) {
+            int capacity = mFixCount * 2;
+            mLatitudes = Arrays.copyOf(mLatitudes, capacity);
+            mLongitudes = Arrays.copyOf(mLongitudes, capacity);
+            mTimestamps = Arrays.copyOf(mTimestamps, capacity);
+            mAccuracies = Arrays.copyOf(mAccuracies, capacity);
+        }
+
+        mLatitudes[mFixCount] = latitude;
+        mLongitudes[mFixCount] = longitude;
+        mTimestamps[mFixCount] = timestamp;
+        mAccuracies[mFixCount] = accuracy;
+        return mFixCount++;
+    }
+
+    /**
+     * Add RSSI of network on last fix.
+     *
+     * @param network Id of network.
+     * @param rssi    Signal strength in dBm.
+     */
+    public void addObservation(int network, int rssi) {
+        checkNetwork(network);
+        if (mFixCount == 0) throw new IllegalStateException("No fix for observation");
+
+        int count = mObservationCounts[network];
+        if (count == mObservationFixes[network].length) {
+            mObservationFixes[network] = Arrays.copyOf(mObservationFixes[network], count * 2);
+            mObservationRssis[network] = Arrays.copyOf(mObservationRssis[network], count * 2);
+        }
+        mObservationFixes[network][count] = mFixCount - 1;
+        mObservationRssis[network][count] = (short) rssi;
+        mObservationCounts[network] = count + 1;
+    }
+
+    public int getFixCount() {
+        return mFixCount;
+    }
+
+    public double getLatitude(int fix) {
+        checkFix(fix);
+        return mLatitudes[fix];
+    }
+
+    public double getLongitude(int fix) {
+        checkFix(fix);
+        return mLongitudes[fix];
+    }
+
+    public long getTimestamp(int fix) {
+        checkFix(fix);
+        return mTimestamps[fix];
+    }
+
+    public float getAccuracy(int fix) {
+        checkFix(fix);
+        return mAccuracies[fix];
+    }
+
+    /**
+     * @param network Id of network.
+     * @return Count of fixes on which network was visible.
+     */
+    public int getObservationCount(int network) {
+        checkNetwork(network);
+        return mObservationCounts[network];
+    }
+
+    /**
+     * @param network     Id of network.
+     * @param observation Index of observation of network, observations are ordered by fix.
+     * @return Index of fix of observation.
+     */
+    public int getObservationFix(int network, int observation) {
+        checkObservation(network, observation);
+        return mObservationFixes[network][observation];
+    }
+
+    public int getObservationRssi(int network, int observation) {
+        checkObservation(network, observation);
+        return mObservationRssis[network][observation];
+    }
+
+    /**
+     * Append heatmap samples of SSID to store. Access points of SSID visible on each fix are
+     * reduced to one RSSI by reducer.
+     *
+     * @param ssidId  Id of SSID.
+     * @param reducer Reducer of access points visible on fix, it gets fixes in order.
+     * @param store   Store for heatmap samples.
+     */
+    public void copySsidTo(int ssidId, RssiReducer reducer, SampleSink store) {
+        int[] networks = new int[mNetworkCount];
+        int networkCount = 0;
+        for (int network = 0; network < mNetworkCount; network++) {
+            if (mNetworkSsids[network] == ssidId) networks[networkCount++] = network;
+        }
+
+        // Observations of each network are ordered by fix, so fixes are merged by cursors.
+        int[] cursors = new int[networkCount];
+        int[] visibleNetworks = new int[networkCount];
+        int[] visibleRssis = new int[networkCount];
+        for (int fix = 0; fix < mFixCount; fix++) {
+            int visibleCount = 0;
+            for (int i = 0; i < networkCount; i++) {
+                int network = networks[i];
+                int cursor = cursors[i];
+                if (cursor < mObservationCounts[network]
+                        && mObservationFixes[network][cursor] == fix) {
+                    visibleNetworks[visibleCount] = network;
+                    visibleRssis[visibleCount++] = mObservationRssis[network][cursor];
+                    cursors[i] = cursor + 1;
+                }
+            }
+            if (visibleCount == 0) continue;
+
+            int rssi = reducer.reduce(visibleNetworks, visibleRssis, visibleCount);
+            if (rssi != Integer.MIN_VALUE) appendFix(fix, rssi, store);
+        }
+    }
+
+    /**
+     * Append heatmap samples of one access point to store.
+     *
+     * @param network Id of network.
+     * @param store   Store for heatmap samples.
+     */
+    public void copyNetworkTo(int network, SampleSink store) {
+        checkNetwork(network);
+        for (int i = 0; i < mObservationCounts[network]; i++) {
+            appendFix(mObservationFixes[network][i], mObservationRssis[network][i], store);
+        }
+    }
+
+    private void appendFix(int fix, int rssi, SampleSink store) {
+        store.append(mLatitudes[fix], mLongitudes[fix], rssi, mTimestamps[fix], mAccuracies[fix]);
+    }
+
+    /**
+     * Remove all fixes and networks.
+     */
+    public void clear() {
+        mNetworkIds.clear();
+        mSsidIds.clear();
+        for (int i = 0; i < mNetworkCount; i++) {
+            mBssids[i] = null;
+            mObservationFixes[i] = null;
+            mObservationRssis[i] = null;
+            mObservationCounts[i] = 0;
+        }
+        for (int i = 0; i < mSsidCount; i++) {
+            mSsids[i] = null;
+        }
+        mNetworkCount = 0;
+        mSsidCount = 0;
+        mFixCount = 0;
+    }
+
+    private int internSsid(String ssid) {
+        Integer id = mSsidIds.get(ssid);
+        if (id != null) return id;
+
+        if (mSsidCount == mSsids.length) mSsids = Arrays.copyOf(mSsids, mSsidCount * 2);
+        mSsids[mSsidCount] = ssid;
+        mSsidIds.put(ssid, mSsidCount);
+        return mSsidCount++;
+    }
+
+    private void checkNetwork(int network) {
+        if (network < 0 || network >= mNetworkCount) {
+            throw new IndexOutOfBoundsException("Network: " + network + ", count: " + mNetworkCount);
+        }
+    }
+
+    private void checkFix(int fix) {
+        if (fix < 0 || fix >= mFixCount) {
+            throw new IndexOutOfBoundsException("Fix: " + fix + ", count: " + mFixCount);
+        }
+    }
+
+    private void checkObservation(int network, int observation) {
+        checkNetwork(network);
+        if (observation < 0 || observation >= mObservationCounts[network]) {
+            throw new IndexOutOfBoundsException("Observation: " + observation + ", count: "
+                                                        + mObservationCounts[network]);
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package app.wi_fiheatmapper;
+
+/**
+ * Decides when next heatmap should be rendered.
+ * <p/>
+ * Requests are coalesced, all requests made while heatmap is rendered or waiting for next frame
+ * are served by one render of latest data. Only one render runs at time and renders are started at
+ * most once per frame interval, so fast stream of new samples does not pile up stale renders.
+ * Paused scheduler starts no render, request made or cancelled render is started after resume.
+ * <p/>
+ * Scheduler also collects statistics of renders. It has no own clock, all times are in millis of
+ * same monotonic clock. Scheduler is not thread safe, it is used only by main thread.
+ */
+public class RenderScheduler {
+
+    /**
+     * Delay returned if there is no render to start.
+     */
+    public static final long NO_RENDER = -1;
+
+    private static final long NEVER = Long.MIN_VALUE / 2;
+
+    private final long mFrameInterval;
+
+    private boolean mRequested;
+    private boolean mRunning;
+    private boolean mPaused;
+    private long mLastStartTime = NEVER;
+    /**
+     * Count of requests waiting for next render.
+     */
+    private int mQueueDepth;
+
+    // Statistics.
+    private int mRequestCount;
+    private int mRenderCount;
+    private int mCancelledCount;
+    private int mMaxQueueDepth;
+    private long mRenderTimeSum;
+    private long mMaxRenderTime;
+
+    /**
+     * @param maxFrameRate Max count of renders started in second.
+     */
+    public RenderScheduler(int maxFrameRate) {
+        if (maxFrameRate <= 0) throw new IllegalArgumentException("Wrong frame rate " + maxFrameRate);
+        mFrameInterval = 1000 / maxFrameRate;
+    }
+
+    /**
+     * Request render of latest data.
+     */
+    public void request() {
+        mRequested = true;
+        mRequestCount++;
+        mQueueDepth++;
+        mMaxQueueDepth = Math.max(mMaxQueueDepth, mQueueDepth);
+    }
+
+    /**
+     * @return Millis until requested render should be started or {@link #NO_RENDER} if no render
+     * is requested, render is running or scheduler is paused.
+     */
+    public long getDelay(long now) {
+        if (!mRequested || mRunning || mPaused) return NO_RENDER;
+
+        return Math.max(mLastStartTime + mFrameInterval - now, 0);
+    }
+
+    /**
+     * Render is started. All requests are served by it.
+     */
+    public void onRenderStarted(long now) {
+        mRunning = true;
+        mRequested = false;
+        mQueueDepth = 0;
+        mLastStartTime = now;
+    }
+
+    /**
+     * Render is finished and its result is shown.
+     *
+     * @return Time of render in millis.
+     */
+    public long onRenderFinished(long now) {
+        mRunning = false;
+        long renderTime = now - mLastStartTime;
+        mRenderCount++;
+        mRenderTimeSum += renderTime;
+        mMaxRenderTime = Math.max(mMaxRenderTime, renderTime);
+        return renderTime;
+    }
+
+    /**
+     * Running render is cancelled. Its data were not rendered, so render is requested again.
+     */
+    public void onRenderCancelled() {
+        if (!mRunning) return;
+
+        mRunning = false;
+        mRequested = true;
+        mCancelledCount++;
+    }
+
+    public void pause() {
+        mPaused = true;
+    }
+
+    public void resume() {
+        mPaused = false;
+    }
+
+    public boolean isRunning() {
+        return mRunning;
+    }
+
+    public long getFrameInterval() {
+        return mFrameInterval;
+    }
+
+    /**
+     * @return Count of requests waiting for next render.
+     */
+    public int getQueueDepth() {
+        return mQueueDepth;
+    }
+
+    public int getMaxQueueDepth() {
+        return mMaxQueueDepth;
+    }
+
+    public int getRequestCount() {
+        return mRequestCount;
+    }
+
+    public int getRenderCount() {
+        return mRenderCount;
+    }
+
+    public int getCancelledCount() {
+        return mCancelledCount;
+    }
+
+    /**
+     * @return Mean time from start of render to shown result in millis.
+     */
+    public long getMeanRenderTime() {
+        return mRenderCount > 0 ? mRenderTimeSum / mRenderCount : 0;
+    }
+
+    public long getMaxRenderTime() {
+        return mMaxRenderTime;
+    }
+
+    @Override
+    public String toString() {
+        return "renders " + mRenderCount + " of " + mRequestCount + " requests, cancelled "
+                + mCancelledCount + ", max queue " + mMaxQueueDepth + ", time mean "
+                + getMeanRenderTime() + "ms, max " + mMaxRenderTime + "ms";
+    }
+}
@@ -0,0 +1,242 @@
+package app.wi_fiheatmapper;
+
+import java.util.Arrays;
+
+/**
+ * Smooth RSSI of each network over consecutive scans. Single scan is noisy by several dB, filter
+ * keeps state of each network by its id from {@link NetworkStore}.
+ * <p/>
+ * Filter must get scans in order of time and must be reset if ids of networks are reused.
+ */
+public abstract class RssiFilter {
+
+    public enum Type {
+        /**
+         * RSSI of scan is used as is.
+         */
+        NONE,
+        /**
+         * Exponentially weighted moving average with time constant {@link #EWMA_TIME_CONSTANT}.
+         */
+        EWMA,
+        /**
+         * Median of last {@link #MEDIAN_SIZE} scans. Drops single outliers.
+         */
+        MEDIAN,
+        /**
+         * One dimensional Kalman filter with constant signal model.
+         */
+        KALMAN
+    }
+
+    /**
+     * Time constant of EWMA in millis.
+     */
+    static final long EWMA_TIME_CONSTANT = 3000;
+    /**
+     * Count of scans for median.
+     */
+    static final int MEDIAN_SIZE = 5;
+    /**
+     * Older state of network is forgotten, network was out of range.
+     */
+    static final long MAX_GAP = 10000;
+    /**
+     * Variance of RSSI of one scan in dB^2.
+     */
+    static final double MEASUREMENT_VARIANCE = 16;
+    /**
+     * Growth of variance of real signal in dB^2 per second, surveyor is walking.
+     */
+    static final double PROCESS_VARIANCE = 4;
+
+    private static final int INITIAL_CAPACITY = 16;
+    private static final long NO_TIME = Long.MIN_VALUE;
+
+    /**
+     * Time of last scan of each network, {@link #NO_TIME} if network has no state.
+     */
+    private long[] mLastTimes = new long[INITIAL_CAPACITY];
+
+    protected RssiFilter() {
+        Arrays.fill(mLastTimes, NO_TIME);
+    }
+
+    public static RssiFilter create(Type type) {
+        switch (type) {
+            case NONE:
+                return new NoneFilter();
+            case EWMA:
+                return new EwmaFilter();
+            case MEDIAN:
+                return new MedianFilter();
+            case KALMAN:
+                return new KalmanFilter();
+            default:
+                throw new IllegalArgumentException("Unknown filter " + type);
+        }
+    }
+
+    public abstract Type getType();
+
+    /**
+     * Filter RSSI of network from scan.
+     *
+     * @param network Id of network.
+     * @param time    Time of scan in millis.
+     * @param rssi    RSSI of network in scan.
+     * @return Filtered RSSI.
+     */
+    public double filter(int network, long time, int rssi) {
+        if (network >= mLastTimes.length) {
+            int capacity = Math.max(mLastTimes.length * 2, network + 1);
+            int oldCapacity = mLastTimes.length;
+            mLastTimes = Arrays.copyOf(mLastTimes, capacity);
+            Arrays.fill(mLastTimes, oldCapacity, capacity, NO_TIME);
+            grow(capacity);
+        }
+
+        long lastTime = mLastTimes[network];
+        mLastTimes[network] = time;
+        if (lastTime == NO_TIME || time - lastTime > MAX_GAP) {
+            return restart(network, time, rssi);
+        }
+        return update(network, Math.max(time - lastTime, 0), rssi);
+    }
+
+    /**
+     * Forget state of all networks.
+     */
+    public void reset() {
+        Arrays.fill(mLastTimes, NO_TIME);
+    }
+
+    /**
+     * Grow state arrays to capacity of networks.
+     */
+    protected abstract void grow(int capacity);
+
+    /**
+     * Start state of network from first RSSI.
+     */
+    protected abstract double restart(int network, long time, int rssi);
+
+    /**
+     * Update state of network by RSSI scanned elapsed millis after previous one.
+     */
+    protected abstract double update(int network, long elapsed, int rssi);
+
+    private static class NoneFilter extends RssiFilter {
+        @Override
+        public Type getType() {
+            return Type.NONE;
+        }
+
+        @Override
+        protected void grow(int capacity) {
+        }
+
+        @Override
+        protected double restart(int network, long time, int rssi) {
+            return rssi;
+        }
+
+        @Override
+        protected double update(int network, long elapsed, int rssi) {
+            return rssi;
+        }
+    }
+
+    private static class EwmaFilter extends RssiFilter {
+        private double[] mAverages = new double[INITIAL_CAPACITY];
+
+        @Override
+        public Type getType() {
+            return Type.EWMA;
+        }
+
+        @Override
+        protected void grow(int capacity) {
+            mAverages = Arrays.copyOf(mAverages, capacity);
+        }
+
+        @Override
+        protected double restart(int network, long time, int rssi) {
+            return mAverages[network] = rssi;
+        }
+
+        @Override
+        protected double update(int network, long elapsed, int rssi) {
+            // Scans are not periodic, so weight depends on elapsed time.
+            double alpha = 1 - Math.exp(-(double) elapsed / EWMA_TIME_CONSTANT);
+            return mAverages[network] += alpha * (rssi - mAverages[network]);
+        }
+    }
+
+    private static class MedianFilter extends RssiFilter {
+        private int[][] mWindows = new int[INITIAL_CAPACITY][];
+        private int[] mCounts = new int[INITIAL_CAPACITY];
+        private final int[] mSorted = new int[MEDIAN_SIZE];
+
+        @Override
+        public Type getType() {
+            return Type.MEDIAN;
+        }
+
+        @Override
+        protected void grow(int capacity) {
+            mWindows = Arrays.copyOf(mWindows, capacity);
+            mCounts = Arrays.copyOf(mCounts, capacity);
+        }
+
+        @Override
+        protected double restart(int network, long time, int rssi) {
+            if (mWindows[network] == null) mWindows[network] = new int[MEDIAN_SIZE];
+            mCounts[network] = 0;
+            return update(network, 0, rssi);
+        }
+
+        @Override
+        protected double update(int network, long elapsed, int rssi) {
+            int[] window = mWindows[network];
+            int count = mCounts[network]++;
+            window[count % MEDIAN_SIZE] = rssi;
+
+            int size = Math.min(count + 1, MEDIAN_SIZE);
+            System.arraycopy(window, 0, mSorted, 0, size);
+            Arrays.sort(mSorted, 0, size);
+            return size % 2 == 1 ? mSorted[size / 2]
+                                 : (mSorted[size / 2 - 1] + mSorted[size / 2]) / 2.0;
+        }
+    }
+
+    private static class KalmanFilter extends RssiFilter {
+        private double[] mEstimates = new double[INITIAL_CAPACITY];
+        private double[] mVariances = new double[INITIAL_CAPACITY];
+
+        @Override
+        public Type getType() {
+            return Type.KALMAN;
+        }
+
+        @Override
+        protected void grow(int capacity) {
+            mEstimates = Arrays.copyOf(mEstimates, capacity);
+            mVariances = Arrays.copyOf(mVariances, capacity);
+        }
+
+        @Override
+        protected double restart(int network, long time, int rssi) {
+            mVariances[network] = MEASUREMENT_VARIANCE;
+            return mEstimates[network] = rssi;
+        }
+
+        @Override
+        protected double update(int network, long elapsed, int rssi) {
+            double variance = mVariances[network] + PROCESS_VARIANCE * elapsed / 1000;
+            double gain = variance / (variance + MEASUREMENT_VARIANCE);
+            mVariances[network] = (1 - gain) * variance;
+            return mEstimates[network] += gain * (rssi - mEstimates[network]);
+        }
+    }
+}
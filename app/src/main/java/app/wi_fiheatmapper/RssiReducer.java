@@ -0,0 +1,128 @@
+package app.wi_fiheatmapper;
+
+/**
+ * Reduce RSSI of all access points of SSID visible on one fix to one RSSI of heatmap.
+ * <p/>
+ * Reducer can keep state between fixes, so it must get fixes in order and must be reset before
+ * heatmap is built again from start.
+ */
+public abstract class RssiReducer {
+
+    public enum Type {
+        /**
+         * Strongest access point on each fix. Shows best possible coverage.
+         */
+        MAX,
+        /**
+         * Mean of power of all access points in mW.
+         */
+        MEAN_POWER,
+        /**
+         * Access point used by roaming client. Client stays on its access point until other is
+         * stronger by roaming margin.
+         */
+        ROAMING
+    }
+
+    /**
+     * Other access point must be stronger by this margin in dB for roaming to it.
+     */
+    static final int ROAMING_MARGIN = 6;
+
+    public static RssiReducer create(Type type) {
+        switch (type) {
+            case MAX:
+                return new MaxReducer();
+            case MEAN_POWER:
+                return new MeanPowerReducer();
+            case ROAMING:
+                return new RoamingReducer();
+            default:
+                throw new IllegalArgumentException("Unknown reducer " + type);
+        }
+    }
+
+    public abstract Type getType();
+
+    /**
+     * Reduce access points visible on fix.
+     *
+     * @param networks Ids of visible access points of SSID.
+     * @param rssis    RSSI of visible access points.
+     * @param count    Count of visible access points in arrays.
+     * @return RSSI of fix or {@link Integer#MIN_VALUE} if no access point is visible.
+     */
+    public abstract int reduce(int[] networks, int[] rssis, int count);
+
+    /**
+     * Forget state of previous fixes.
+     */
+    public void reset() {
+    }
+
+    private static class MaxReducer extends RssiReducer {
+        @Override
+        public Type getType() {
+            return Type.MAX;
+        }
+
+        @Override
+        public int reduce(int[] networks, int[] rssis, int count) {
+            int rssi = Integer.MIN_VALUE;
+            for (int i = 0; i < count; i++) {
+                rssi = Math.max(rssi, rssis[i]);
+            }
+            return rssi;
+        }
+    }
+
+    private static class MeanPowerReducer extends RssiReducer {
+        @Override
+        public Type getType() {
+            return Type.MEAN_POWER;
+        }
+
+        @Override
+        public int reduce(int[] networks, int[] rssis, int count) {
+            if (count == 0) return Integer.MIN_VALUE;
+
+            // dBm are logarithmic, so power is averaged in mW.
+            double power = 0;
+            for (int i = 0; i < count; i++) {
+                power += Math.pow(10, rssis[i] / 10.0);
+            }
+            return (int) Math.round(10 * Math.log10(power / count));
+        }
+    }
+
+    private static class RoamingReducer extends RssiReducer {
+        private int mNetwork = -1;
+
+        @Override
+        public Type getType() {
+            return Type.ROAMING;
+        }
+
+        @Override
+        public int reduce(int[] networks, int[] rssis, int count) {
+            int current = -1;
+            int strongest = -1;
+            for (int i = 0; i < count; i++) {
+                if (networks[i] == mNetwork) current = i;
+                if (strongest < 0 || rssis[i] > rssis[strongest]) strongest = i;
+            }
+            if (strongest < 0) return Integer.MIN_VALUE;
+
+            if (current < 0 || rssis[strongest] >= rssis[current] + ROAMING_MARGIN) {
+                current = strongest;
+                mNetwork = networks[strongest];
+            }
+            return rssis[current];
+        }
+
+        @Override
+        public void reset() {
+            mNetwork = -1;
+        }
+    }
+}
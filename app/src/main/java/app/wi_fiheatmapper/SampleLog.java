@@ -0,0 +1,414 @@
+package app.wi_fiheatmapper;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.zip.CRC32;
+
+/**
+ * Append only binary log of one survey, so survey is not lost with process.
+ * <p/>
+ * File has fixed size header followed by fixed size records:
+ * <pre>
+ * header:       int magic, short format, short record size, long created millis,
+ *               long count of synced records
+ * record:       28 bytes of data, byte type, byte flags, short checksum
+ * fix:          double latitude, double longitude, long timestamp, float accuracy
+ * observations: up to 9 of (short network, byte RSSI), byte count
+ * network:      up to 26 bytes of "BSSID\nSSID" in UTF-8, byte length, flags of last part
+ * </pre>
+ * Networks are numbered by order of network records. Fix record is followed by observation
+ * records of networks visible on fix. Network is written before its first observation, longer
+ * network is split to more records.
+ * <p/>
+ * Each record is written to file immediately, so it survives death of process. Writes are synced
+ * to storage in batches, so device crash loses only last few records. Count of synced records in
+ * header is updated after each sync, records after it are checked by checksum when log is opened
+ * and torn records at end of file are truncated.
+ * <p/>
+ * Log is not thread safe.
+ */
+public class SampleLog implements Closeable {
+
+    public static final String EXTENSION = ".samples";
+
+    private static final int MAGIC = 0x57484D4C; // "WHML"
+    private static final short FORMAT = 2;
+    private static final int HEADER_SIZE = 64;
+    private static final int RECORD_SIZE = 32;
+    private static final int SYNCED_COUNT_OFFSET = 16;
+
+    private static final int TYPE_OFFSET = 28;
+    private static final int FLAGS_OFFSET = 29;
+    // Checksum covers whole record except checksum itself.
+    private static final int CHECKSUM_OFFSET = 30;
+
+    private static final byte TYPE_FIX = 1;
+    private static final byte TYPE_OBSERVATIONS = 2;
+    private static final byte TYPE_NETWORK = 3;
+
+    private static final int OBSERVATIONS_PER_RECORD = 9;
+    private static final int OBSERVATION_COUNT_OFFSET = 27;
+    private static final int NETWORK_BYTES_PER_RECORD = 26;
+    private static final int NETWORK_LENGTH_OFFSET = 26;
+    private static final byte FLAG_LAST_PART = 1;
+    private static final int MAX_NETWORKS = 0xFFFF;
+
+    /**
+     * Records are synced after this count of records or this time since last sync.
+     */
+    private static final int SYNC_RECORDS = 64;
+    private static final long SYNC_INTERVAL_MILLIS = 10000;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final File mFile;
+    private final RandomAccessFile mRandomAccessFile;
+    private final FileChannel mChannel;
+    private final long mCreatedTime;
+    private final ByteBuffer mRecord = ByteBuffer.allocate(RECORD_SIZE);
+    private final ByteBuffer mSyncedCount = ByteBuffer.allocate(8);
+    private final CRC32 mCrc = new CRC32();
+    private int mSize;
+    private int mSyncedSize;
+    private int mNetworkCount;
+    private long mLastSyncMillis;
+
+    private SampleLog(File file, RandomAccessFile randomAccessFile, long createdTime, int size,
+                      int networkCount) {
+        mFile = file;
+        mRandomAccessFile = randomAccessFile;
+        mChannel = randomAccessFile.getChannel();
+        mCreatedTime = createdTime;
+        mSize = size;
+        mSyncedSize = size;
+        mNetworkCount = networkCount;
+        mLastSyncMillis = System.currentTimeMillis();
+    }
+
+    /**
+     * Create new empty log. Existing file is overwritten.
+     *
+     * @param file        File of log.
+     * @param createdTime Time of start of survey in millis.
+     * @return Log opened for appending.
+     * @throws IOException If file cannot be written.
+     */
+    public static SampleLog create(File file, long createdTime) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC)
+              .putShort(FORMAT)
+              .putShort((short) RECORD_SIZE)
+              .putLong(createdTime)
+              .putLong(0);
+        header.clear();
+
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        try {
+            FileChannel channel = randomAccessFile.getChannel();
+            channel.truncate(0);
+            writeFully(channel, header, 0);
+            channel.force(true);
+        } catch (IOException e) {
+            randomAccessFile.close();
+            throw e;
+        }
+        return new SampleLog(file, randomAccessFile, createdTime, 0, 0);
+    }
+
+    /**
+     * Open existing log for appending. Records torn by crash are removed from end of file.
+     *
+     * @param file File of log.
+     * @return Log opened for appending.
+     * @throws IOException If file cannot be read or is not sample log.
+     */
+    public static SampleLog open(File file) throws IOException {
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        try {
+            FileChannel channel = randomAccessFile.getChannel();
+            long length = channel.size();
+            if (length < HEADER_SIZE) throw new IOException("Missing header of " + file);
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            readFully(channel, header, 0);
+            header.flip();
+            if (header.getInt() != MAGIC || header.getShort() != FORMAT
+                    || header.getShort() != RECORD_SIZE) {
+                throw new IOException("Unknown format of " + file);
+            }
+            long createdTime = header.getLong();
+            long syncedCount = header.getLong();
+
+            long count = (length - HEADER_SIZE) / RECORD_SIZE;
+            if (count > Integer.MAX_VALUE / RECORD_SIZE) {
+                throw new IOException("Too many records in " + file);
+            }
+            MappedByteBuffer records = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_SIZE,
+                                                   count * RECORD_SIZE);
+
+            // Synced records are trusted, records written after last sync are checked. Log must
+            // not end in middle of network.
+            int size = (int) Math.min(Math.max(syncedCount, 0), count);
+            CRC32 crc = new CRC32();
+            int end = size;
+            while (end < count && isValid(records, end * RECORD_SIZE, crc)) {
+                end++;
+                if (!isPartOfNetwork(records, (end - 1) * RECORD_SIZE)) size = end;
+            }
+            channel.truncate(HEADER_SIZE + (long) size * RECORD_SIZE);
+
+            int networkCount = 0;
+            for (int i = 0; i < size; i++) {
+                int offset = i * RECORD_SIZE;
+                if (records.get(offset + TYPE_OFFSET) == TYPE_NETWORK
+                        && (records.get(offset + FLAGS_OFFSET) & FLAG_LAST_PART) != 0) {
+                    networkCount++;
+                }
+            }
+
+            return new SampleLog(file, randomAccessFile, createdTime, size, networkCount);
+        } catch (IOException e) {
+            randomAccessFile.close();
+            throw e;
+        }
+    }
+
+    public File getFile() {
+        return mFile;
+    }
+
+    /**
+     * @return Time of start of survey in millis.
+     */
+    public long getCreatedTime() {
+        return mCreatedTime;
+    }
+
+    /**
+     * @return Count of records in log.
+     */
+    public int size() {
+        return mSize;
+    }
+
+    /**
+     * @return Count of networks in log. Next network written to log gets this id.
+     */
+    public int getNetworkCount() {
+        return mNetworkCount;
+    }
+
+    /**
+     * Load all fixes and networks of log to empty store. File is memory mapped, so records are not
+     * copied through intermediate buffers.
+     *
+     * @param store Empty store for loaded data.
+     * @throws IOException If file cannot be read.
+     */
+    public void loadInto(NetworkStore store) throws IOException {
+        if (store.getNetworkCount() != 0 || store.getFixCount() != 0) {
+            throw new IllegalArgumentException("Store is not empty");
+        }
+        if (mSize == 0) return;
+
+        MappedByteBuffer records = mChannel.map(FileChannel.MapMode.READ_ONLY, HEADER_SIZE,
+                                                (long) mSize * RECORD_SIZE);
+        byte[] network = new byte[NETWORK_BYTES_PER_RECORD * 4];
+        int networkLength = 0;
+        for (int i = 0; i < mSize; i++) {
+            int offset = i * RECORD_SIZE;
+            switch (records.get(offset + TYPE_OFFSET)) {
+                case TYPE_FIX:
+                    store.addFix(records.getDouble(offset), records.getDouble(offset + 8),
+                                 records.getLong(offset + 16), records.getFloat(offset + 24));
+                    break;
+                case TYPE_OBSERVATIONS:
+                    int count = records.get(offset + OBSERVATION_COUNT_OFFSET);
+                    for (int j = 0; j < count && store.getFixCount() > 0; j++) {
+                        int id = records.getShort(offset + j * 3) & 0xFFFF;
+                        int rssi = records.get(offset + j * 3 + 2);
+                        if (id < store.getNetworkCount()) store.addObservation(id, rssi);
+                    }
+                    break;
+                case TYPE_NETWORK:
+                    int length = records.get(offset + NETWORK_LENGTH_OFFSET);
+                    if (networkLength + length > network.length) {
+                        throw new IOException("Corrupted network in " + mFile);
+                    }
+                    for (int j = 0; j < length; j++) {
+                        network[networkLength++] = records.get(offset + j);
+                    }
+                    if ((records.get(offset + FLAGS_OFFSET) & FLAG_LAST_PART) != 0) {
+                        String value = new String(network, 0, networkLength, UTF_8);
+                        int separator = value.indexOf('\n');
+                        if (separator < 0) throw new IOException("Corrupted network in " + mFile);
+                        store.internNetwork(value.substring(0, separator),
+                                            value.substring(separator + 1));
+                        networkLength = 0;
+                    }
+                    break;
+                default:
+                    throw new IOException("Unknown record in " + mFile);
+            }
+        }
+    }
+
+    /**
+     * Append network to log. Network gets id {@link #getNetworkCount()}.
+     *
+     * @param bssid BSSID of network.
+     * @param ssid  SSID of network.
+     * @throws IOException If network cannot be written.
+     */
+    public void appendNetwork(String bssid, String ssid) throws IOException {
+        if (mNetworkCount == MAX_NETWORKS) throw new IOException("Too many networks in log");
+
+        byte[] value = (bssid + '\n' + ssid).getBytes(UTF_8);
+        if (value.length > NETWORK_BYTES_PER_RECORD * 4) {
+            throw new IllegalArgumentException("Network is too long");
+        }
+        for (int offset = 0; offset < value.length; offset += NETWORK_BYTES_PER_RECORD) {
+            int length = Math.min(value.length - offset, NETWORK_BYTES_PER_RECORD);
+            ByteBuffer record = clearRecord();
+            record.put(value, offset, length);
+            record.put(NETWORK_LENGTH_OFFSET, (byte) length);
+            boolean last = offset + length == value.length;
+            writeRecord(TYPE_NETWORK, last ? FLAG_LAST_PART : 0);
+        }
+        mNetworkCount++;
+    }
+
+    /**
+     * Append fix and networks visible on it. Log is synced if there is enough of not synced
+     * records.
+     *
+     * @param latitude  Latitude of fix.
+     * @param longitude Longitude of fix.
+     * @param timestamp Time of fix in millis.
+     * @param accuracy  Accuracy of location in meters.
+     * @param networks  Ids of visible networks, already written to log.
+     * @param rssis     Signal strength of visible networks in dBm.
+     * @param count     Count of visible networks in arrays.
+     * @throws IOException If records cannot be written.
+     */
+    public void appendFix(double latitude, double longitude, long timestamp, float accuracy,
+                          int[] networks, int[] rssis, int count) throws IOException {
+        clearRecord().putDouble(latitude)
+                     .putDouble(longitude)
+                     .putLong(timestamp)
+                     .putFloat(accuracy);
+        writeRecord(TYPE_FIX, 0);
+
+        for (int i = 0; i < count; i += OBSERVATIONS_PER_RECORD) {
+            int recordCount = Math.min(count - i, OBSERVATIONS_PER_RECORD);
+            ByteBuffer record = clearRecord();
+            for (int j = i; j < i + recordCount; j++) {
+                if (networks[j] >= mNetworkCount) {
+                    throw new IllegalArgumentException("Network " + networks[j] + " is not in log");
+                }
+                record.putShort((short) networks[j]);
+                record.put((byte) Math.max(Math.min(rssis[j], Byte.MAX_VALUE), Byte.MIN_VALUE));
+            }
+            record.put(OBSERVATION_COUNT_OFFSET, (byte) recordCount);
+            writeRecord(TYPE_OBSERVATIONS, 0);
+        }
+
+        if (mSize - mSyncedSize >= SYNC_RECORDS
+                || System.currentTimeMillis() - mLastSyncMillis >= SYNC_INTERVAL_MILLIS) {
+            sync();
+        }
+    }
+
+    /**
+     * Write all appended records to storage and update count of synced records in header.
+     *
+     * @throws IOException If log cannot be synced.
+     */
+    public void sync() throws IOException {
+        mLastSyncMillis = System.currentTimeMillis();
+        if (mSyncedSize == mSize) return;
+
+        // Records must be on storage before header counts them.
+        mChannel.force(false);
+        mSyncedCount.clear();
+        mSyncedCount.putLong(mSize);
+        mSyncedCount.clear();
+        writeFully(mChannel, mSyncedCount, SYNCED_COUNT_OFFSET);
+        mSyncedSize = mSize;
+    }
+
+    /**
+     * Sync and close log.
+     *
+     * @throws IOException If log cannot be synced.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            sync();
+            mChannel.force(true);
+        } finally {
+            mRandomAccessFile.close();
+        }
+    }
+
+    private ByteBuffer clearRecord() {
+        byte[] bytes = mRecord.array();
+        for (int i = 0; i < RECORD_SIZE; i++) {
+            bytes[i] = 0;
+        }
+        mRecord.clear();
+        return mRecord;
+    }
+
+    private void writeRecord(byte type, int flags) throws IOException {
+        ByteBuffer record = mRecord;
+        record.put(TYPE_OFFSET, type);
+        record.put(FLAGS_OFFSET, (byte) flags);
+        record.putShort(CHECKSUM_OFFSET, checksum(record.array(), mCrc));
+        record.clear();
+        writeFully(mChannel, record, HEADER_SIZE + (long) mSize * RECORD_SIZE);
+        mSize++;
+    }
+
+    private static boolean isPartOfNetwork(ByteBuffer records, int offset) {
+        return records.get(offset + TYPE_OFFSET) == TYPE_NETWORK
+                && (records.get(offset + FLAGS_OFFSET) & FLAG_LAST_PART) == 0;
+    }
+
+    private static boolean isValid(ByteBuffer records, int offset, CRC32 crc) {
+        byte[] record = new byte[RECORD_SIZE];
+        for (int i = 0; i < RECORD_SIZE; i++) {
+            record[i] = records.get(offset + i);
+        }
+        return checksum(record, crc) == records.getShort(offset + CHECKSUM_OFFSET);
+    }
+
+    private static short checksum(byte[] record, CRC32 crc) {
+        crc.reset();
+        crc.update(record, 0, CHECKSUM_OFFSET);
+        return (short) crc.getValue();
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position)
+            throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position)
+            throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) throw new IOException("Unexpected end of file");
+            position += read;
+        }
+    }
+}
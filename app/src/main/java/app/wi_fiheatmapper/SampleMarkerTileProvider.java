@@ -0,0 +1,199 @@
+package app.wi_fiheatmapper;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.util.LruCache;
+
+import com.google.android.gms.maps.model.Tile;
+import com.google.android.gms.maps.model.TileProvider;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Provider of tiles with markers of samples for {@link com.google.android.gms.maps.model.TileOverlay}.
+ * <p/>
+ * All markers are one overlay layer instead of one map object per sample. Map requests only tiles
+ * visible at current zoom and renders them on its background threads, markers of tile are drawn
+ * in one batch. Samples never move, so only tiles with new samples are rendered again, other tiles
+ * are in memory cache.
+ * <p/>
+ * Data are set from main thread, tiles are requested by map on its background threads.
+ */
+public class SampleMarkerTileProvider implements TileProvider {
+
+    /**
+     * Markers are not shown when zoomed out, they would cover whole heatmap.
+     */
+    public static final int MIN_ZOOM = 16;
+
+    private static final int TILE_SIZE = 256;
+    private static final float MARKER_SIZE = 3f;
+    private static final int MARKER_COLOR = Color.argb(128, 0, 0, 0);
+    private static final int MEMORY_CACHE_SIZE = 1024 * 1024;
+
+    /**
+     * PNG data of tiles. Empty array for tile without markers.
+     */
+    private final LruCache<String, byte[]> mMemoryCache;
+    /**
+     * Version of data in which sample was added to tile. Key is from
+     * {@link HeatmapTileProvider#tileKey}.
+     */
+    private final Map<Long, Long> mTileVersions = new ConcurrentHashMap<>();
+    /**
+     * Version of data in which all tiles changed.
+     */
+    private volatile long mMinTileVersion;
+    private volatile SampleStore.Snapshot mSamples;
+
+    public SampleMarkerTileProvider() {
+        mMemoryCache = new LruCache<String, byte[]>(MEMORY_CACHE_SIZE) {
+            @Override
+            protected int sizeOf(String key, byte[] value) {
+                return value.length + 1;
+            }
+        };
+    }
+
+    /**
+     * Update samples. Must be called from main thread. Work is proportional to count of new samples,
+     * samples with changed RSSI do not change markers.
+     *
+     * @param delta Changes of heatmap data.
+     * @return True if some tiles changed and tile overlay should be refreshed.
+     */
+    public boolean setData(SampleStore.Delta delta) {
+        SampleStore.Snapshot samples = delta.getSamples();
+        SampleStore.Snapshot lastSamples = mSamples;
+        // Full delta can be of other store with same version, so it is never ignored.
+        if (!delta.isFull() && lastSamples != null && lastSamples.hasSameSamples(samples)) {
+            return false;
+        }
+
+        boolean changed = false;
+        if (delta.isFull() || lastSamples == null) {
+            mTileVersions.clear();
+            mMinTileVersion = samples.getVersion();
+            mMemoryCache.evictAll();
+            changed = true;
+        } else {
+            int knownSize = lastSamples.size();
+            for (int i = 0; i < delta.getChangedCount(); i++) {
+                int index = delta.getChangedIndex(i);
+                if (index < knownSize) continue;
+                invalidateTiles(samples.getLatitude(index), samples.getLongitude(index),
+                                samples.getVersion());
+                changed = true;
+            }
+        }
+
+        // Publish data after tile versions, so tile threads see versions of this data.
+        mSamples = samples;
+        return changed;
+    }
+
+    @Override
+    public Tile getTile(int x, int y, int zoom) {
+        SampleStore.Snapshot samples = mSamples;
+        if (samples == null || samples.isEmpty() || zoom < MIN_ZOOM) return NO_TILE;
+
+        long version = getTileVersion(x, y, zoom);
+        String key = zoom + "_" + x + "_" + y + "_" + version;
+        byte[] data = mMemoryCache.get(key);
+        if (data == null) {
+            data = renderTile(samples, x, y, zoom);
+            // Tile can be already changed by newer samples or samples can be replaced by other
+            // store. Cache only valid tile.
+            if (version <= samples.getVersion() && samples == mSamples) mMemoryCache.put(key, data);
+        }
+
+        return data.length == 0 ? NO_TILE : new Tile(TILE_SIZE, TILE_SIZE, data);
+    }
+
+    private long getTileVersion(int x, int y, int zoom) {
+        Long version = mTileVersions.get(HeatmapTileProvider.tileKey(x, y, zoom));
+        return version == null ? mMinTileVersion : Math.max(version, mMinTileVersion);
+    }
+
+    /**
+     * Mark tiles covered by marker of sample as changed on all zoom levels.
+     */
+    private void invalidateTiles(double latitude, double longitude, long version) {
+        float radius = MARKER_SIZE / 2;
+        for (int zoom = MIN_ZOOM; zoom <= HeatmapTileProvider.MAX_ZOOM; zoom++) {
+            double worldX = worldX(longitude, zoom);
+            double worldY = worldY(latitude, zoom);
+            int minX = (int) Math.floor(worldX - radius) / TILE_SIZE;
+            int maxX = (int) Math.floor(worldX + radius) / TILE_SIZE;
+            int minY = (int) Math.floor(worldY - radius) / TILE_SIZE;
+            int maxY = (int) Math.floor(worldY + radius) / TILE_SIZE;
+            for (int x = minX; x <= maxX; x++) {
+                for (int y = minY; y <= maxY; y++) {
+                    mTileVersions.put(HeatmapTileProvider.tileKey(x, y, zoom), version);
+                }
+            }
+        }
+    }
+
+    /**
+     * Render markers of samples in tile to PNG.
+     *
+     * @return PNG data or empty array if there is no marker in tile.
+     */
+    private byte[] renderTile(SampleStore.Snapshot samples, int x, int y, int zoom) {
+        float radius = MARKER_SIZE / 2;
+        double left = x * TILE_SIZE - radius;
+        double top = y * TILE_SIZE - radius;
+        double right = (x + 1) * TILE_SIZE + radius;
+        double bottom = (y + 1) * TILE_SIZE + radius;
+
+        float[] points = new float[32];
+        int count = 0;
+        for (int i = 0; i < samples.size(); i++) {
+            double worldX = worldX(samples.getLongitude(i), zoom);
+            double worldY = worldY(samples.getLatitude(i), zoom);
+            if (worldX < left || worldX >= right || worldY < top || worldY >= bottom) continue;
+
+            if (count + 2 > points.length) {
+                float[] newPoints = new float[points.length * 2];
+                System.arraycopy(points, 0, newPoints, 0, count);
+                points = newPoints;
+            }
+            points[count++] = (float) (worldX - x * TILE_SIZE);
+            points[count++] = (float) (worldY - y * TILE_SIZE);
+        }
+        if (count == 0) return new byte[0];
+
+        Paint paint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        paint.setColor(MARKER_COLOR);
+        paint.setStrokeWidth(MARKER_SIZE);
+        paint.setStrokeCap(Paint.Cap.ROUND);
+        Bitmap bitmap = Bitmap.createBitmap(TILE_SIZE, TILE_SIZE, Bitmap.Config.ARGB_8888);
+        new Canvas(bitmap).drawPoints(points, 0, count, paint);
+
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        bitmap.compress(Bitmap.CompressFormat.PNG, 100, stream);
+        bitmap.recycle();
+        return stream.toByteArray();
+    }
+
+    /**
+     * @return X coord of longitude in pixels of all tiles of zoom level.
+     */
+    private static double worldX(double longitude, int zoom) {
+        return (longitude + 180) / 360 * ((long) TILE_SIZE << zoom);
+    }
+
+    /**
+     * @return Y coord of latitude in pixels of all tiles of zoom level.
+     */
+    private static double worldY(double latitude, int zoom) {
+        double latRad = Math.toRadians(latitude);
+        double mercatorY = Math.log(Math.tan(latRad) + 1 / Math.cos(latRad));
+        return (1 - mercatorY / Math.PI) / 2 * ((long) TILE_SIZE << zoom);
+    }
+}
@@ -0,0 +1,323 @@
+package app.wi_fiheatmapper;
+
+import java.util.Arrays;
+
+/**
+ * Streaming fusion of Wi-Fi scans and location fixes.
+ * <p/>
+ * Scans and fixes come independently, scan takes few seconds and fix comes every second. Last
+ * scans and fixes waiting for next scan are kept in ring buffers. RSSI of each network on fix is
+ * interpolated between filtered RSSI of scan before and scan after time of fix. Fix is resolved
+ * without scan after it if no scan comes in {@link #getMaxScanAge()}. Fixes with poor accuracy
+ * are rejected before they are buffered.
+ * <p/>
+ * Times of scans and fixes must be on same monotonic clock, e.g.
+ * {@link android.os.SystemClock#elapsedRealtime()}, else fixes are not fused with their scans.
+ * <p/>
+ * Networks are identified by ids from {@link NetworkStore}. Fusion is not thread safe.
+ */
+public class ScanFusion {
+
+    /**
+     * Default count of last scans kept for interpolation.
+     */
+    public static final int DEFAULT_SCAN_CAPACITY = 8;
+    /**
+     * Count of fixes waiting for next scan, oldest fix is resolved if buffer is full.
+     */
+    private static final int FIX_CAPACITY = 16;
+    private static final int INITIAL_NETWORKS = 64;
+
+    /**
+     * Receiver of fixes with RSSI of networks fused from scans.
+     */
+    public interface Listener {
+        /**
+         * Called for each fix with at least one network. Arrays are reused for next fix.
+         *
+         * @param count Count of networks visible on fix.
+         */
+        void onFusedFix(double latitude, double longitude, long timestamp, float accuracy,
+                        int[] networks, int[] rssis, int count);
+    }
+
+    private final Listener mListener;
+    private final long mMaxScanAge;
+    private float mMaxAccuracy;
+    private RssiFilter mFilter = RssiFilter.create(RssiFilter.Type.NONE);
+
+    // Ring buffer of scans ordered by time. Arrays of slots are reused.
+    private final long[] mScanTimes;
+    private final int[][] mScanNetworks;
+    private final float[][] mScanRssis;
+    private final int[] mScanCounts;
+    private int mScanStart;
+    private int mScanCount;
+
+    // Ring buffer of fixes waiting for next scan.
+    private final double[] mFixLatitudes = new double[FIX_CAPACITY];
+    private final double[] mFixLongitudes = new double[FIX_CAPACITY];
+    private final long[] mFixTimes = new long[FIX_CAPACITY];
+    private final float[] mFixAccuracies = new float[FIX_CAPACITY];
+    private int mFixStart;
+    private int mFixCount;
+
+    /**
+     * Newest time of scan or fix, fusion has no own clock.
+     */
+    private long mNow = Long.MIN_VALUE;
+
+    // Buffers of fused fix and index of networks of scan after fix.
+    private int[] mFusedNetworks = new int[INITIAL_NETWORKS];
+    private int[] mFusedRssis = new int[INITIAL_NETWORKS];
+    private int[] mMarks = new int[INITIAL_NETWORKS];
+    private int[] mMarkIndexes = new int[INITIAL_NETWORKS];
+    private int mMark;
+
+    /**
+     * @param listener     Receiver of fused fixes.
+     * @param scanCapacity Count of last scans kept for interpolation.
+     * @param maxScanAge   Scan older than this millis from fix is not used for fix.
+     * @param maxAccuracy  Fixes with worse accuracy in meters are rejected.
+     */
+    public ScanFusion(Listener listener, int scanCapacity, long maxScanAge, float maxAccuracy) {
+        if (scanCapacity < 2) throw new IllegalArgumentException("Capacity of scans must be at least 2");
+        mListener = listener;
+        mMaxScanAge = maxScanAge;
+        mMaxAccuracy = maxAccuracy;
+        mScanTimes = new long[scanCapacity];
+        mScanNetworks = new int[scanCapacity][INITIAL_NETWORKS];
+        mScanRssis = new float[scanCapacity][INITIAL_NETWORKS];
+        mScanCounts = new int[scanCapacity];
+    }
+
+    public long getMaxScanAge() {
+        return mMaxScanAge;
+    }
+
+    public void setMaxAccuracy(float maxAccuracy) {
+        mMaxAccuracy = maxAccuracy;
+    }
+
+    /**
+     * Set filter of RSSI. Filter gets only scans added after it is set.
+     */
+    public void setFilter(RssiFilter filter) {
+        mFilter = filter;
+    }
+
+    public RssiFilter getFilter() {
+        return mFilter;
+    }
+
+    /**
+     * Add result of scan. Waiting fixes before this scan are resolved.
+     *
+     * @param time     Time of scan in millis. Scans are kept in order of time, so scan older than
+     *                 previous scan is dropped.
+     * @param networks Ids of visible networks.
+     * @param rssis    RSSI of visible networks.
+     * @param count    Count of visible networks in arrays.
+     * @return False if scan is dropped for being older than previous scan.
+     */
+    public boolean addScan(long time, int[] networks, int[] rssis, int count) {
+        if (mScanCount > 0 && time < mScanTimes[scanSlot(mScanCount - 1)]) return false;
+
+        int slot;
+        if (mScanCount == mScanTimes.length) {
+            slot = mScanStart;
+            mScanStart = (mScanStart + 1) % mScanTimes.length;
+        } else {
+            slot = scanSlot(mScanCount++);
+        }
+        if (mScanNetworks[slot].length < count) {
+            mScanNetworks[slot] = new int[count];
+            mScanRssis[slot] = new float[count];
+        }
+        for (int i = 0; i < count; i++) {
+            mScanNetworks[slot][i] = networks[i];
+            mScanRssis[slot][i] = (float) mFilter.filter(networks[i], time, rssis[i]);
+        }
+        mScanTimes[slot] = time;
+        mScanCounts[slot] = count;
+
+        mNow = Math.max(mNow, time);
+        resolveFixes(false);
+        return true;
+    }
+
+    /**
+     * Add location fix. Fix is fused when next scan comes or when it is too old for next scan.
+     *
+     * @param timestamp Time of fix in millis on clock of scans.
+     * @return False if fix is rejected for poor accuracy.
+     */
+    public boolean addFix(double latitude, double longitude, long timestamp, float accuracy) {
+        if (accuracy > mMaxAccuracy) return false;
+
+        if (mFixCount == FIX_CAPACITY) resolveFix();
+        int slot = (mFixStart + mFixCount++) % FIX_CAPACITY;
+        mFixLatitudes[slot] = latitude;
+        mFixLongitudes[slot] = longitude;
+        mFixTimes[slot] = timestamp;
+        mFixAccuracies[slot] = accuracy;
+
+        mNow = Math.max(mNow, timestamp);
+        resolveFixes(false);
+        return true;
+    }
+
+    /**
+     * Resolve all waiting fixes by scans already known.
+     */
+    public void flush() {
+        resolveFixes(true);
+    }
+
+    /**
+     * @return Count of fixes waiting for next scan.
+     */
+    public int getPendingFixCount() {
+        return mFixCount;
+    }
+
+    /**
+     * Drop all scans and waiting fixes and reset filter. Must be called if ids of networks are
+     * reused.
+     */
+    public void clear() {
+        mScanStart = 0;
+        mScanCount = 0;
+        mFixStart = 0;
+        mFixCount = 0;
+        mNow = Long.MIN_VALUE;
+        mFilter.reset();
+    }
+
+    private void resolveFixes(boolean force) {
+        while (mFixCount > 0) {
+            long time = mFixTimes[mFixStart];
+            boolean scanAfter = mScanCount > 0 && mScanTimes[scanSlot(mScanCount - 1)] >= time;
+            if (!force && !scanAfter && mNow - time <= mMaxScanAge) return;
+            resolveFix();
+        }
+    }
+
+    /**
+     * Fuse oldest waiting fix with scans around it and pass it to listener.
+     */
+    private void resolveFix() {
+        int fix = mFixStart;
+        mFixStart = (mFixStart + 1) % FIX_CAPACITY;
+        mFixCount--;
+        long time = mFixTimes[fix];
+
+        // Find last scan before fix and first scan after it, scans are ordered by time.
+        int before = -1, after = -1;
+        for (int i = 0; i < mScanCount; i++) {
+            int slot = scanSlot(i);
+            if (mScanTimes[slot] <= time) {
+                before = slot;
+            } else {
+                after = slot;
+                break;
+            }
+        }
+        if (before >= 0 && time - mScanTimes[before] > mMaxScanAge) before = -1;
+        if (after >= 0 && mScanTimes[after] - time > mMaxScanAge) after = -1;
+        if (before < 0 && after < 0) return;
+
+        int count;
+        if (before < 0 || after < 0) {
+            count = copyScan(before >= 0 ? before : after);
+        } else {
+            count = interpolateScans(before, after, time);
+        }
+        if (count == 0) return;
+
+        mListener.onFusedFix(mFixLatitudes[fix], mFixLongitudes[fix], time, mFixAccuracies[fix],
+                             mFusedNetworks, mFusedRssis, count);
+    }
+
+    private int copyScan(int slot) {
+        int count = mScanCounts[slot];
+        ensureFused(count);
+        for (int i = 0; i < count; i++) {
+            mFusedNetworks[i] = mScanNetworks[slot][i];
+            mFusedRssis[i] = Math.round(mScanRssis[slot][i]);
+        }
+        return count;
+    }
+
+    /**
+     * Interpolate RSSI of networks visible in both scans linearly by time. Network visible only in
+     * one scan is used if this scan is nearer to fix.
+     */
+    private int interpolateScans(int before, int after, long time) {
+        long beforeTime = mScanTimes[before];
+        float weight = (float) (time - beforeTime) / (mScanTimes[after] - beforeTime);
+        int[] beforeNetworks = mScanNetworks[before];
+        int[] afterNetworks = mScanNetworks[after];
+        int beforeCount = mScanCounts[before];
+        int afterCount = mScanCounts[after];
+        ensureFused(beforeCount + afterCount);
+
+        // Networks of scan after fix are marked by index, so each network is found without search.
+        int mark = nextMark();
+        for (int i = 0; i < afterCount; i++) {
+            int network = afterNetworks[i];
+            ensureMarks(network);
+            mMarks[network] = mark;
+            mMarkIndexes[network] = i;
+        }
+
+        int count = 0;
+        for (int i = 0; i < beforeCount; i++) {
+            int network = beforeNetworks[i];
+            float rssi = mScanRssis[before][i];
+            if (network < mMarks.length && mMarks[network] == mark) {
+                float afterRssi = mScanRssis[after][mMarkIndexes[network]];
+                rssi += weight * (afterRssi - rssi);
+                mMarkIndexes[network] = -1;
+            } else if (weight > 0.5f) {
+                continue;
+            }
+            mFusedNetworks[count] = network;
+            mFusedRssis[count++] = Math.round(rssi);
+        }
+        if (weight >= 0.5f) {
+            for (int i = 0; i < afterCount; i++) {
+                int network = afterNetworks[i];
+                if (mMarkIndexes[network] < 0) continue;
+                mFusedNetworks[count] = network;
+                mFusedRssis[count++] = Math.round(mScanRssis[after][i]);
+            }
+        }
+        return count;
+    }
+
+    private int nextMark() {
+        if (++mMark == Integer.MAX_VALUE) {
+            Arrays.fill(mMarks, 0);
+            mMark = 1;
+        }
+        return mMark;
+    }
+
+    private void ensureMarks(int network) {
+        if (network < mMarks.length) return;
+        int capacity = Math.max(mMarks.length * 2, network + 1);
+        mMarks = Arrays.copyOf(mMarks, capacity);
+        mMarkIndexes = Arrays.copyOf(mMarkIndexes, capacity);
+    }
+
+    private void ensureFused(int count) {
+        if (mFusedNetworks.length >= count) return;
+        mFusedNetworks = new int[count];
+        mFusedRssis = new int[count];
+    }
+
+    private int scanSlot(int index) {
+        return (mScanStart + index) % mScanTimes.length;
+    }
+}
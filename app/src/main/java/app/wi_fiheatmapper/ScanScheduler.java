@@ -0,0 +1,197 @@
+package app.wi_fiheatmapper;
+
+/**
+ * Decides when next Wi-Fi scan should be started.
+ * <p/>
+ * Interval between scans is time in which surveyor walks across one cell of heatmap, limited by
+ * min and max interval. Surveyor without location fix for {@link #STALE_SPEED_TIME} is stationary
+ * and scans are started only after max interval. Results of scans started by other apps are used
+ * as own scan, so scans are coalesced. Start of scan refused by system (throttled) is tried again
+ * after max interval.
+ * <p/>
+ * Scheduler also collects statistics of scans. It has no own clock, all times are in millis of
+ * same monotonic clock. Scheduler is not thread safe.
+ */
+public class ScanScheduler {
+
+    /**
+     * Scan without results in this time is considered lost.
+     */
+    static final long SCAN_TIMEOUT = 15000;
+    /**
+     * Speed older than this time is not valid. Location updates stop if surveyor is not moving.
+     */
+    static final long STALE_SPEED_TIME = 5000;
+    /**
+     * Surveyor slower than this speed in m/s is stationary.
+     */
+    static final float STATIONARY_SPEED = 0.2f;
+
+    private static final long NEVER = Long.MIN_VALUE / 2;
+
+    private final long mMinInterval;
+    private final long mMaxInterval;
+    private final float mCellSize;
+
+    private float mSpeed;
+    private long mSpeedTime = NEVER;
+
+    private long mLastResultsTime = NEVER;
+    private long mLastStartTime = NEVER;
+    private boolean mLastStartRefused;
+    /**
+     * Start time of scan waiting for results or {@link #NEVER} if no scan is waiting.
+     */
+    private long mPendingStartTime = NEVER;
+
+    // Statistics.
+    private int mStartedCount;
+    private int mThrottledCount;
+    private int mTimeoutCount;
+    private int mCompletedCount;
+    private int mPassiveCount;
+    private long mLatencySum;
+    private long mMaxLatency;
+
+    /**
+     * @param minInterval Min interval between scans in millis.
+     * @param maxInterval Max interval between scans in millis, used if surveyor is stationary.
+     * @param cellSize    Surveyor should be scanned once in each cell of this size in meters.
+     */
+    public ScanScheduler(long minInterval, long maxInterval, float cellSize) {
+        if (minInterval <= 0 || maxInterval < minInterval) {
+            throw new IllegalArgumentException("Wrong intervals " + minInterval + ", " + maxInterval);
+        }
+        mMinInterval = minInterval;
+        mMaxInterval = maxInterval;
+        mCellSize = cellSize;
+    }
+
+    /**
+     * Set speed of surveyor from location fix.
+     *
+     * @param now   Current time.
+     * @param speed Speed in m/s.
+     */
+    public void setSpeed(long now, float speed) {
+        mSpeed = speed;
+        mSpeedTime = now;
+    }
+
+    /**
+     * @return Interval between scans for current speed of surveyor.
+     */
+    public long getInterval(long now) {
+        // Unknown speed, e.g. before first fix, gets fastest scans.
+        if (mSpeedTime == NEVER) return mMinInterval;
+        if (now - mSpeedTime > STALE_SPEED_TIME || mSpeed < STATIONARY_SPEED) return mMaxInterval;
+
+        long interval = (long) (mCellSize / mSpeed * 1000);
+        return Math.max(mMinInterval, Math.min(interval, mMaxInterval));
+    }
+
+    /**
+     * @return Millis until next scan should be started. If scan is waiting for results, millis
+     * until its timeout.
+     */
+    public long getDelay(long now) {
+        if (mPendingStartTime != NEVER) return Math.max(mPendingStartTime + SCAN_TIMEOUT - now, 0);
+
+        long next = mLastResultsTime + getInterval(now);
+        if (mLastStartRefused) next = Math.max(next, mLastStartTime + mMaxInterval);
+        return Math.max(next - now, 0);
+    }
+
+    /**
+     * @return True if scan should be started now. Lost scan is counted as timeout.
+     */
+    public boolean shouldStart(long now) {
+        if (getDelay(now) > 0) return false;
+
+        if (mPendingStartTime != NEVER) {
+            mTimeoutCount++;
+            mPendingStartTime = NEVER;
+            return getDelay(now) == 0;
+        }
+        return true;
+    }
+
+    /**
+     * @param now     Time of start.
+     * @param started False if system refused to start scan.
+     */
+    public void onScanStarted(long now, boolean started) {
+        mLastStartTime = now;
+        mLastStartRefused = !started;
+        if (started) {
+            mStartedCount++;
+            mPendingStartTime = now;
+        } else {
+            mThrottledCount++;
+        }
+    }
+
+    /**
+     * Results of scan are available. Scan can be started by other app.
+     *
+     * @return Time from start of scan to its results or -1 if scan was not started by scheduler.
+     */
+    public long onScanResults(long now) {
+        mLastResultsTime = now;
+        if (mPendingStartTime == NEVER) {
+            mPassiveCount++;
+            return -1;
+        }
+
+        long latency = now - mPendingStartTime;
+        mCompletedCount++;
+        mLatencySum += latency;
+        mMaxLatency = Math.max(mMaxLatency, latency);
+        mPendingStartTime = NEVER;
+        return latency;
+    }
+
+    public int getStartedCount() {
+        return mStartedCount;
+    }
+
+    /**
+     * @return Count of starts refused by system.
+     */
+    public int getThrottledCount() {
+        return mThrottledCount;
+    }
+
+    public int getTimeoutCount() {
+        return mTimeoutCount;
+    }
+
+    public int getCompletedCount() {
+        return mCompletedCount;
+    }
+
+    /**
+     * @return Count of results of scans not started by scheduler.
+     */
+    public int getPassiveCount() {
+        return mPassiveCount;
+    }
+
+    /**
+     * @return Mean time from start of scan to its results in millis.
+     */
+    public long getMeanLatency() {
+        return mCompletedCount > 0 ? mLatencySum / mCompletedCount : 0;
+    }
+
+    public long getMaxLatency() {
+        return mMaxLatency;
+    }
+
+    @Override
+    public String toString() {
+        return "scans started " + mStartedCount + ", completed " + mCompletedCount + ", passive "
+                + mPassiveCount + ", throttled " + mThrottledCount + ", timeouts " + mTimeoutCount
+                + ", latency mean " + getMeanLatency() + "ms, max " + mMaxLatency + "ms";
+    }
+}
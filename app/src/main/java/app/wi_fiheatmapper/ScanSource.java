@@ -0,0 +1,30 @@
+package app.wi_fiheatmapper;
+
+/**
+ * Source of Wi-Fi scans for {@link SurveyingService}. Source calls callback on thread of service,
+ * which is given to source when it is created.
+ */
+public interface ScanSource {
+
+    /**
+     * Start delivering scans. Scans started by other apps are delivered too.
+     */
+    void start(Callback callback);
+
+    /**
+     * Stop delivering scans. Callback is not called after stop.
+     */
+    void stop();
+
+    /**
+     * Start new scan, its results are delivered to callback.
+     *
+     * @return False if scan was refused.
+     */
+    boolean startScan();
+
+    interface Callback {
+
+        void onScanResults(WifiScan scan);
+    }
+}
@@ -4,17 +4,12 @@ import android.app.Dialog;
 import android.content.Context;
 import android.content.DialogInterface;
 import android.location.Location;
-import android.net.wifi.ScanResult;
 import android.os.Bundle;
 import android.support.annotation.NonNull;
 import android.support.v4.app.DialogFragment;
 import android.support.v7.app.AlertDialog;
-import android.text.TextUtils;
 import android.widget.ArrayAdapter;
 
-import java.util.List;
-import java.util.Map;
-
 /**
  * Dialog for selecting SSID from surrounding networks.
  */
@@ -88,19 +83,36 @@ public class SsidPickerDialog extends DialogFragment {
     private class SurveyingServiceListener implements SurveyingService.ServiceListener {
 
         @Override
-        public void onWiFiScanCompleted(List<ScanResult> scanResults) {
-            // Create adapter of unique SSIDs.
+        public void onWiFiScanCompleted(WifiScan scan) {
+            // Create adapter of unique SSIDs, networks in range are first.
             mSsidAdapter.clear();
-            for (ScanResult scanResult : scanResults) {
-                String ssid = !TextUtils.isEmpty(scanResult.SSID) ? scanResult.SSID : scanResult.BSSID;
+            for (int i = 0; i < scan.size(); i++) {
+                String ssid = scan.getSsid(i);
                 if (mSsidAdapter.getPosition(ssid) < 0) {
                     mSsidAdapter.add(ssid);
                 }
             }
+            addRecordedSsids();
         }
 
         @Override
-        public void onHeatmapDataUpdated(Map<Location, Integer> heatmapData) {
+        public void onHeatmapDataUpdated(SampleStore.Delta delta) {
+            // Called also after bound to service, so recorded networks are shown before next scan.
+            addRecordedSsids();
+        }
+
+        /**
+         * Add networks recorded in survey, so they can be selected even if they are not in range.
+         */
+        private void addRecordedSsids() {
+            SurveyingService service = mSurveyingServiceConnection.getService();
+            if (service == null) return;
+
+            for (String ssid : service.getRecordedSsids()) {
+                if (mSsidAdapter.getPosition(ssid) < 0) {
+                    mSsidAdapter.add(ssid);
+                }
+            }
         }
 
         @Override
@@ -0,0 +1,142 @@
+package app.wi_fiheatmapper;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+
+/**
+ * Streaming reader of surveys written by {@link SurveyWriter} in binary or CSV format. Samples are
+ * appended to store block by block, so survey is not buffered in memory twice.
+ */
+public final class SurveyReader {
+
+    /**
+     * SSID of Wi-Fi network has at most 32 bytes. Longer SSID means corrupted or foreign file.
+     */
+    private static final int MAX_SSID_BYTES = 32;
+
+    private SurveyReader() {
+    }
+
+    /**
+     * Read survey and append its samples to store. Format is detected from content of stream.
+     *
+     * @param in    Stream of survey. It is not closed.
+     * @param store Store for samples of survey.
+     * @return SSID of surveyed network.
+     * @throws IOException If stream cannot be read or it is not survey.
+     */
+    public static String read(InputStream in, SampleSink store) throws IOException {
+        BufferedInputStream buffered = new BufferedInputStream(in);
+        buffered.mark(4);
+        DataInputStream data = new DataInputStream(buffered);
+        int magic;
+        try {
+            magic = data.readInt();
+        } catch (EOFException e) {
+            throw new IOException("Survey is empty");
+        }
+        if (magic == SurveyWriter.MAGIC) return readBinary(data, store);
+
+        buffered.reset();
+        return readCsv(new BufferedReader(new InputStreamReader(buffered, SurveyWriter.UTF_8)),
+                       store);
+    }
+
+    private static String readBinary(DataInputStream in, SampleSink store) throws IOException {
+        int version = in.readUnsignedByte();
+        if (version != SurveyWriter.VERSION) {
+            throw new IOException("Unsupported version of survey " + version);
+        }
+        long ssidLength = readVarint(in);
+        if (ssidLength < 0 || ssidLength > MAX_SSID_BYTES) throw new IOException("Corrupted survey");
+        byte[] ssidBytes = new byte[(int) ssidLength];
+        in.readFully(ssidBytes);
+
+        long[] latitudes = new long[SurveyWriter.BLOCK_SIZE];
+        long[] longitudes = new long[SurveyWriter.BLOCK_SIZE];
+        long[] timestamps = new long[SurveyWriter.BLOCK_SIZE];
+        int[] rssis = new int[SurveyWriter.BLOCK_SIZE];
+        float[] accuracies = new float[SurveyWriter.BLOCK_SIZE];
+        long lastLatitude = 0, lastLongitude = 0, lastTimestamp = 0;
+        int count;
+        while ((count = (int) readVarint(in)) != 0) {
+            if (count < 0 || count > SurveyWriter.BLOCK_SIZE) {
+                throw new IOException("Corrupted block of survey");
+            }
+
+            for (int i = 0; i < count; i++) {
+                latitudes[i] = lastLatitude += unzigzag(readVarint(in));
+            }
+            for (int i = 0; i < count; i++) {
+                longitudes[i] = lastLongitude += unzigzag(readVarint(in));
+            }
+            for (int i = 0; i < count; i++) {
+                rssis[i] = (int) unzigzag(readVarint(in));
+            }
+            for (int i = 0; i < count; i++) {
+                timestamps[i] = lastTimestamp += unzigzag(readVarint(in));
+            }
+            for (int i = 0; i < count; i++) {
+                accuracies[i] = readVarint(in) / SurveyWriter.ACCURACY_SCALE;
+            }
+
+            for (int i = 0; i < count; i++) {
+                store.append(latitudes[i] / SurveyWriter.COORD_SCALE,
+                             longitudes[i] / SurveyWriter.COORD_SCALE, rssis[i], timestamps[i],
+                             accuracies[i]);
+            }
+        }
+
+        return new String(ssidBytes, SurveyWriter.UTF_8);
+    }
+
+    private static String readCsv(BufferedReader in, SampleSink store) throws IOException {
+        String line = in.readLine();
+        if (line == null || !line.startsWith("ssid,")) throw new IOException("Unknown format of survey");
+
+        String ssid = "";
+        int lineNumber = 1;
+        while ((line = in.readLine()) != null) {
+            lineNumber++;
+            if (line.isEmpty()) continue;
+
+            // SSID is quoted, other columns are numbers.
+            int ssidEnd = line.lastIndexOf('"');
+            if (!line.startsWith("\"") || ssidEnd <= 0) {
+                throw new IOException("Missing SSID on line " + lineNumber);
+            }
+            ssid = line.substring(1, ssidEnd).replace("\"\"", "\"");
+            String[] columns = line.substring(ssidEnd + 1).split(",");
+            if (columns.length != 6) throw new IOException("Wrong columns on line " + lineNumber);
+
+            try {
+                store.append(Double.parseDouble(columns[1]), Double.parseDouble(columns[2]),
+                             Integer.parseInt(columns[3]), Long.parseLong(columns[4]),
+                             Float.parseFloat(columns[5]));
+            } catch (NumberFormatException e) {
+                throw new IOException("Wrong number on line " + lineNumber);
+            }
+        }
+        return ssid;
+    }
+
+    private static long readVarint(InputStream in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.read();
+            if (b < 0) throw new EOFException("Unexpected end of survey");
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return value;
+        }
+        throw new IOException("Corrupted varint in survey");
+    }
+
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
@@ -0,0 +1,294 @@
+package app.wi_fiheatmapper;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.Locale;
+
+/**
+ * Streaming writer of survey for export from device. Samples are written one by one, so whole
+ * survey is never copied in memory.
+ * <p/>
+ * Compact binary format is readable by {@link SurveyReader}. CSV and GeoJSON are for tools which
+ * do not know binary format.
+ */
+public abstract class SurveyWriter implements Closeable {
+
+    public enum Format {
+        BINARY("whs"),
+        CSV("csv"),
+        GEOJSON("geojson");
+
+        private final String mExtension;
+
+        Format(String extension) {
+            mExtension = extension;
+        }
+
+        /**
+         * @return Extension of file without dot.
+         */
+        public String getExtension() {
+            return mExtension;
+        }
+    }
+
+    static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    // Binary format:
+    // header:  int magic, byte format version, varint SSID length, SSID in UTF-8
+    // blocks:  varint count of samples in block, then columns of block one after other
+    // end:     block with zero samples
+    // Coordinates are in 1e-7 degrees and timestamps are zigzag varint deltas from previous
+    // sample, RSSI is zigzag varint and accuracy is varint in decimeters.
+    static final int MAGIC = 0x57485358; // "WHSX"
+    static final int VERSION = 1;
+    static final int BLOCK_SIZE = 1024;
+    static final double COORD_SCALE = 1e7;
+    static final float ACCURACY_SCALE = 10f;
+
+    /**
+     * Create writer of survey and write header of survey.
+     *
+     * @param format Format of file.
+     * @param out    Stream for survey, it is closed with writer.
+     * @param ssid   SSID of surveyed network.
+     * @return Writer for samples of survey.
+     * @throws IOException If header cannot be written.
+     */
+    public static SurveyWriter create(Format format, OutputStream out, String ssid)
+            throws IOException {
+        switch (format) {
+            case BINARY:
+                return new BinaryWriter(out, ssid);
+            case CSV:
+                return new CsvWriter(out, ssid);
+            case GEOJSON:
+                return new GeoJsonWriter(out, ssid);
+            default:
+                throw new IllegalArgumentException("Unknown format " + format);
+        }
+    }
+
+    /**
+     * Write sample to survey.
+     *
+     * @param latitude  Latitude of sample.
+     * @param longitude Longitude of sample.
+     * @param rssi      Signal strength in dBm.
+     * @param timestamp Time of sample in millis.
+     * @param accuracy  Accuracy of location in meters.
+     * @throws IOException If sample cannot be written.
+     */
+    public abstract void write(double latitude, double longitude, int rssi, long timestamp,
+                               float accuracy) throws IOException;
+
+    /**
+     * Write all samples of snapshot to survey.
+     *
+     * @param samples Samples to write.
+     * @throws IOException If samples cannot be written.
+     */
+    public void writeAll(SampleStore.Snapshot samples) throws IOException {
+        for (int i = 0; i < samples.size(); i++) {
+            write(samples.getLatitude(i), samples.getLongitude(i), samples.getRssi(i),
+                  samples.getTimestamp(i), samples.getAccuracy(i));
+        }
+    }
+
+    /**
+     * Finish survey and close stream.
+     *
+     * @throws IOException If end of survey cannot be written.
+     */
+    @Override
+    public abstract void close() throws IOException;
+
+    /**
+     * Binary columnar format. Samples are buffered only to end of block, then columns of block are
+     * written and buffers are reused for next block.
+     */
+    private static class BinaryWriter extends SurveyWriter {
+        private final DataOutputStream mOut;
+        private final VarintBuffer mLatitudes = new VarintBuffer();
+        private final VarintBuffer mLongitudes = new VarintBuffer();
+        private final VarintBuffer mRssis = new VarintBuffer();
+        private final VarintBuffer mTimestamps = new VarintBuffer();
+        private final VarintBuffer mAccuracies = new VarintBuffer();
+        private int mBlockCount;
+        // Previous values for delta encoding, continue across blocks.
+        private long mLastLatitude;
+        private long mLastLongitude;
+        private long mLastTimestamp;
+
+        BinaryWriter(OutputStream out, String ssid) throws IOException {
+            mOut = new DataOutputStream(new BufferedOutputStream(out));
+            byte[] ssidBytes = ssid.getBytes(UTF_8);
+            mOut.writeInt(MAGIC);
+            mOut.writeByte(VERSION);
+            writeVarint(mOut, ssidBytes.length);
+            mOut.write(ssidBytes);
+        }
+
+        @Override
+        public void write(double latitude, double longitude, int rssi, long timestamp,
+                          float accuracy) throws IOException {
+            long lat = Math.round(latitude * COORD_SCALE);
+            long lon = Math.round(longitude * COORD_SCALE);
+            mLatitudes.putSigned(lat - mLastLatitude);
+            mLongitudes.putSigned(lon - mLastLongitude);
+            mRssis.putSigned(rssi);
+            mTimestamps.putSigned(timestamp - mLastTimestamp);
+            mAccuracies.put(Math.max(Math.round(accuracy * ACCURACY_SCALE), 0));
+            mLastLatitude = lat;
+            mLastLongitude = lon;
+            mLastTimestamp = timestamp;
+
+            if (++mBlockCount == BLOCK_SIZE) writeBlock();
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                if (mBlockCount > 0) writeBlock();
+                writeVarint(mOut, 0);
+                mOut.flush();
+            } finally {
+                mOut.close();
+            }
+        }
+
+        private void writeBlock() throws IOException {
+            writeVarint(mOut, mBlockCount);
+            mLatitudes.writeTo(mOut);
+            mLongitudes.writeTo(mOut);
+            mRssis.writeTo(mOut);
+            mTimestamps.writeTo(mOut);
+            mAccuracies.writeTo(mOut);
+            mBlockCount = 0;
+        }
+    }
+
+    private static class CsvWriter extends SurveyWriter {
+        private final Writer mOut;
+        private final String mSsid;
+
+        CsvWriter(OutputStream out, String ssid) throws IOException {
+            mOut = new BufferedWriter(new OutputStreamWriter(out, UTF_8));
+            // SSID can contain separator or quotes.
+            mSsid = '"' + ssid.replace("\"", "\"\"") + '"';
+            mOut.write("ssid,latitude,longitude,rssi,timestamp,accuracy\n");
+        }
+
+        @Override
+        public void write(double latitude, double longitude, int rssi, long timestamp,
+                          float accuracy) throws IOException {
+            mOut.write(mSsid);
+            mOut.write(String.format(Locale.US, ",%.7f,%.7f,%d,%d,%.1f\n", latitude, longitude,
+                                     rssi, timestamp, accuracy));
+        }
+
+        @Override
+        public void close() throws IOException {
+            mOut.close();
+        }
+    }
+
+    private static class GeoJsonWriter extends SurveyWriter {
+        private final Writer mOut;
+        private boolean mFirst = true;
+
+        GeoJsonWriter(OutputStream out, String ssid) throws IOException {
+            mOut = new BufferedWriter(new OutputStreamWriter(out, UTF_8));
+            mOut.write("{\"type\":\"FeatureCollection\",\"properties\":{\"ssid\":");
+            writeJsonString(ssid);
+            mOut.write("},\"features\":[");
+        }
+
+        @Override
+        public void write(double latitude, double longitude, int rssi, long timestamp,
+                          float accuracy) throws IOException {
+            if (!mFirst) mOut.write(',');
+            mFirst = false;
+            // GeoJSON positions are longitude first.
+            mOut.write(String.format(Locale.US,
+                                     "\n{\"type\":\"Feature\",\"geometry\":{\"type\":\"Point\","
+                                             + "\"coordinates\":[%.7f,%.7f]},\"properties\":"
+                                             + "{\"rssi\":%d,\"timestamp\":%d,\"accuracy\":%.1f}}",
+                                     longitude, latitude, rssi, timestamp, accuracy));
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                mOut.write("\n]}\n");
+            } finally {
+                mOut.close();
+            }
+        }
+
+        private void writeJsonString(String value) throws IOException {
+            mOut.write('"');
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                if (c == '"' || c == '\\') {
+                    mOut.write('\\');
+                    mOut.write(c);
+                } else if (c < 0x20) {
+                    mOut.write(String.format(Locale.US, "\\u%04x", (int) c));
+                } else {
+                    mOut.write(c);
+                }
+            }
+            mOut.write('"');
+        }
+    }
+
+    static void writeVarint(OutputStream out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    /**
+     * Growable buffer of varints of one column in block.
+     */
+    private static class VarintBuffer {
+        private byte[] mBytes = new byte[256];
+        private int mSize;
+
+        void putSigned(long value) {
+            put(zigzag(value));
+        }
+
+        void put(long value) {
+            if (mSize + 10 > mBytes.length) {
+                byte[] bytes = new byte[mBytes.length * 2];
+                System.arraycopy(mBytes, 0, bytes, 0, mSize);
+                mBytes = bytes;
+            }
+            while ((value & ~0x7FL) != 0) {
+                mBytes[mSize++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            mBytes[mSize++] = (byte) value;
+        }
+
+        void writeTo(OutputStream out) throws IOException {
+            out.write(mBytes, 0, mSize);
+            mSize = 0;
+        }
+    }
+}
@@ -1,57 +1,154 @@
 package app.wi_fiheatmapper;
 
 import android.app.Service;
-import android.content.BroadcastReceiver;
 import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
-import android.content.IntentFilter;
 import android.content.ServiceConnection;
 import android.location.Location;
-import android.net.wifi.ScanResult;
-import android.net.wifi.WifiManager;
 import android.os.Binder;
-import android.os.Bundle;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
 import android.os.IBinder;
+import android.os.Looper;
+import android.os.Process;
+import android.os.SystemClock;
 import android.support.annotation.Nullable;
-import android.text.TextUtils;
-
-import com.google.android.gms.common.api.GoogleApiClient;
-import com.google.android.gms.location.LocationRequest;
-import com.google.android.gms.location.LocationServices;
+import android.util.Log;
 
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Collections;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
 
 /**
  * Service collect location and network data for create signal heatmap.
+ * <p/>
+ * Scans, location fixes and heatmap data are processed on own worker thread, so main thread is
+ * never blocked by survey. Public methods can be called from main thread, changes of survey are
+ * posted to worker thread. Each listener gets events on its own looper by {@link ListenerChannel}.
  */
 public class SurveyingService extends Service {
 
-    // Setting for location Google location provider.
-    private static final int LOCAION_INTERVAL = 1000;
-    private static final int LOCATION_FASTEST_INTERVAL = 500;
+    private static final String TAG = SurveyingService.class.getSimpleName();
+
+    /**
+     * Directory in app files with sample log of each survey.
+     */
+    private static final String SURVEYS_DIR = "surveys";
+    /**
+     * Directory in external app files with dumps of metrics.
+     */
+    private static final String METRICS_DIR = "metrics";
+
+    /**
+     * Seed of synthetic survey, same survey is played on each start.
+     */
+    private static final long SYNTHETIC_SEED = 1;
+    /**
+     * Scan older than this millis from fix is not used for fix.
+     */
+    private static final long MAX_SCAN_AGE = 5000;
+    /**
+     * Statistics of scans are logged after this count of results.
+     */
+    private static final int SCAN_STATS_LOG_INTERVAL = 50;
 
     private final IBinder mBinder = new LocalBinder();
-    private final List<ServiceListener> mServiceListeners = new ArrayList<>();
-    private final LocationListener mLocationListener = new LocationListener();
+    /**
+     * Listeners are added and removed rarely, so events are dispatched without any lock.
+     */
+    private final List<ListenerChannel> mServiceListeners = new CopyOnWriteArrayList<>();
+    private final ScanCallback mScanCallback = new ScanCallback();
+    private final LocationCallback mLocationCallback = new LocationCallback();
 
     /**
-     * Heatmap data consist of geolocation and signal strenght for that location.
-     * Signal strenght can be updated for last stored location because location provider can send
-     * new location only after device move by some distance from previous location.
+     * RSSI of all networks visible on each location fix of current survey.
+     */
+    private final NetworkStore mNetworks = new NetworkStore();
+    /**
+     * Heatmap data of surveyed SSID consist of geolocation and signal strenght for that location.
+     * Each sample is one cell of {@link #mHeatmapGrid}.
+     */
+    private final SampleStore mHeatmapData = new SampleStore();
+    /**
+     * Bins samples of heatmap to cells of diameter size, created with service.
+     */
+    private SampleGrid mHeatmapGrid;
+    /**
+     * Persistent log of current survey. Null if log failed.
+     */
+    private SampleLog mSampleLog;
+    /**
+     * Fusion of scans and location fixes, created with service.
+     */
+    private ScanFusion mFusion;
+
+    /**
+     * Sources of scans and locations, created with service. Real Wi-Fi and location provider or
+     * synthetic survey for load testing.
+     */
+    private ScanSource mScanSource;
+    private LocationSource mLocationSource;
+
+    /**
+     * Metrics of survey. Metrics used on hot paths are kept in fields.
+     */
+    private final MetricsRegistry mMetrics = new MetricsRegistry();
+    private final MetricsRegistry.Counter mScanResultsCounter = mMetrics.counter(MetricsRegistry.SCAN_RESULTS);
+    private final MetricsRegistry.Counter mScanStartedCounter = mMetrics.counter(MetricsRegistry.SCAN_STARTED);
+    private final MetricsRegistry.Counter mScanThrottledCounter = mMetrics.counter(MetricsRegistry.SCAN_THROTTLED);
+    private final MetricsRegistry.Counter mScanTimeoutsCounter = mMetrics.counter(MetricsRegistry.SCAN_TIMEOUTS);
+    private final Histogram mScanLatency = mMetrics.histogram(MetricsRegistry.SCAN_LATENCY);
+    private final MetricsRegistry.Counter mFixesCounter = mMetrics.counter(MetricsRegistry.FIXES);
+    private final MetricsRegistry.Counter mRejectedFixesCounter = mMetrics.counter(MetricsRegistry.FIXES_REJECTED);
+    private final Histogram mFixAccuracy = mMetrics.histogram(MetricsRegistry.FIX_ACCURACY);
+    private final MetricsRegistry.Gauge mSurveyFixesGauge = mMetrics.gauge(MetricsRegistry.SURVEY_FIXES);
+    private final MetricsRegistry.Gauge mHeatmapSamplesGauge = mMetrics.gauge(MetricsRegistry.HEATMAP_SAMPLES);
+    private final MetricsRegistry.Counter mDroppedEventsCounter = mMetrics.counter(MetricsRegistry.EVENTS_DROPPED);
+    /**
+     * Scheduler of scans by speed of surveyor, created with service.
      */
-    private final Map<Location, Integer> mHeatmapData = new HashMap<>();
+    private ScanScheduler mScanScheduler;
 
-    private WiFiScanReceiver mWiFiScanReceiver;
-    private GoogleApiClient mGoogleApiClient;
+    /**
+     * Thread processing scans and fixes. All survey data are used only by this thread.
+     */
+    private HandlerThread mWorkerThread;
+    private Handler mWorker;
+    private Executor mWorkerExecutor;
 
     /**
-     * SSID selected for surveying.
+     * SSID selected for surveying. Written only by worker thread.
+     */
+    private volatile String mSurveyedSsid;
+    /**
+     * Id of surveyed SSID in {@link #mNetworks} or -1 if SSID was not visible yet.
+     */
+    private int mSurveyedSsidId = -1;
+    /**
+     * BSSID of access point of surveyed SSID shown in heatmap, null for all access points.
      */
-    private String mSurveyedSsid;
+    private volatile String mSurveyedBssid;
+    /**
+     * Id of surveyed access point in {@link #mNetworks} or -1 if it was not visible yet.
+     */
+    private int mSurveyedNetwork = -1;
+    /**
+     * Reducer of access points of surveyed SSID visible on fix to one RSSI.
+     */
+    private volatile RssiReducer mReducer = RssiReducer.create(RssiReducer.Type.MAX);
+    /**
+     * Reducer of same type for live RSSI of last scan. Reducer can keep state, so scans must not
+     * be mixed with fixes.
+     */
+    private RssiReducer mScanReducer = RssiReducer.create(RssiReducer.Type.MAX);
 
     /**
      * Last collected data.
@@ -59,34 +156,112 @@ public class SurveyingService extends Service {
     private Location mLastLocation;
 
     /**
-     * If no signal detected than {@link Integer#MIN_VALUE} is used.
+     * Networks visible in last scan and their RSSI. Arrays are reused by next scans.
+     */
+    private int[] mVisibleNetworks = new int[64];
+    private int[] mVisibleRssis = new int[64];
+    private int mVisibleCount;
+    /**
+     * Visible access points of surveyed SSID, reused for reducing each scan.
+     */
+    private int[] mSurveyedNetworks = new int[64];
+    private int[] mSurveyedRssis = new int[64];
+
+    /**
+     * Recorded SSIDs and BSSIDs of surveyed SSID published by worker thread for main thread.
+     * Lists are not modified, worker publishes new lists when networks are recorded.
+     */
+    private volatile List<String> mRecordedSsids = Collections.emptyList();
+    private volatile List<String> mRecordedBssids = Collections.emptyList();
+    private int mPublishedNetworkCount = -1;
+    private int mPublishedSsidId = -1;
+    /**
+     * Type of filter of {@link #mFusion} for main thread.
      */
-    private int mLastRssi = Integer.MIN_VALUE;
+    private volatile RssiFilter.Type mFilterType = RssiFilter.Type.EWMA;
 
     @Override
     public void onCreate() {
         super.onCreate();
 
-        // Start receiving surrouding Wi-Fi informations.
-        registerReceiver(mWiFiScanReceiver = new WiFiScanReceiver(),
-                         new IntentFilter(WifiManager.SCAN_RESULTS_AVAILABLE_ACTION));
+        mHeatmapGrid = new SampleGrid(mHeatmapData, getResources().getInteger(R.integer.diameter));
+        mFusion = new ScanFusion(new FusionListener(), ScanFusion.DEFAULT_SCAN_CAPACITY,
+                                 MAX_SCAN_AGE, getResources().getInteger(R.integer.max_fix_accuracy));
+        mFusion.setFilter(RssiFilter.create(mFilterType));
+        mScanScheduler = new ScanScheduler(getResources().getInteger(R.integer.scan_min_interval),
+                                           getResources().getInteger(R.integer.scan_max_interval),
+                                           getResources().getInteger(R.integer.diameter));
+
+        mWorkerThread = new HandlerThread(TAG, Process.THREAD_PRIORITY_BACKGROUND);
+        mWorkerThread.start();
+        mWorker = new Handler(mWorkerThread.getLooper());
+        mWorkerExecutor = new HandlerExecutor(mWorker);
+
+        if (getResources().getBoolean(R.bool.synthetic_survey)) {
+            SyntheticSource source = createSyntheticSource();
+            mScanSource = source;
+            mLocationSource = source;
+        } else {
+            mScanSource = new WifiManagerScanSource(this, mWorker);
+            mLocationSource = new FusedLocationSource(this, mWorkerThread.getLooper());
+        }
 
-        mGoogleApiClient = new GoogleApiClient.Builder(this)
-                .addConnectionCallbacks(new GApiClientConnCallback())
-                .addApi(LocationServices.API)
-                .build();
-        mGoogleApiClient.connect();
+        // Start receiving surrouding Wi-Fi informations on worker thread.
+        mWorker.post(new Runnable() {
+            @Override
+            public void run() {
+                resumeLastSurvey();
+                if (mSampleLog == null) createSampleLog();
+                publishRecordedNetworks();
+                mScanCallback.scheduleScan();
+            }
+        });
+        mScanSource.start(mScanCallback);
+        mLocationSource.start(mLocationCallback);
+    }
+
+    /**
+     * Create source of synthetic survey of area starting at configured origin.
+     */
+    private SyntheticSource createSyntheticSource() {
+        SyntheticSurvey survey = new SyntheticSurvey(
+                SYNTHETIC_SEED, SystemClock.elapsedRealtime(),
+                getResources().getInteger(R.integer.synthetic_origin_latitude) / 1e6,
+                getResources().getInteger(R.integer.synthetic_origin_longitude) / 1e6,
+                getResources().getInteger(R.integer.synthetic_area_size),
+                getResources().getInteger(R.integer.synthetic_access_points));
+        survey.setLaneSpacing(getResources().getInteger(R.integer.diameter));
+        Log.d(TAG, "synthetic survey with " + survey.getAccessPointCount() + " access points");
+        return new SyntheticSource(survey,
+                                   getResources().getInteger(R.integer.synthetic_scan_interval),
+                                   getResources().getInteger(R.integer.synthetic_fix_interval),
+                                   getResources().getBoolean(R.bool.synthetic_real_time), mWorker);
     }
 
     @Override
     public void onDestroy() {
         super.onDestroy();
 
-        LocationServices.FusedLocationApi.removeLocationUpdates(mGoogleApiClient, mLocationListener);
-
-        mGoogleApiClient.disconnect();
-
-        unregisterReceiver(mWiFiScanReceiver);
+        mLocationSource.stop();
+        mScanSource.stop();
+        for (ListenerChannel channel : mServiceListeners) {
+            channel.close();
+        }
+        mServiceListeners.clear();
+
+        // Worker finishes work already posted and then quits.
+        mWorker.post(new Runnable() {
+            @Override
+            public void run() {
+                mScanCallback.cancelScan();
+                Log.d(TAG, mScanScheduler.toString());
+
+                // Fixes waiting for next scan are recorded with scans already known.
+                mFusion.flush();
+                closeSampleLog();
+                mWorkerThread.quit();
+            }
+        });
     }
 
     @Nullable
@@ -101,33 +276,90 @@ public class SurveyingService extends Service {
      * @param listener Listener for listening on events from this service.
      */
     public void registerListener(ServiceListener listener) {
-        if (listener == null) return;
+        registerListener(listener, 0);
+    }
 
-        mServiceListeners.add(listener);
+    /**
+     * Register listener for this service and provide heatmap data changed since version already
+     * known by listener. Listener gets events on main thread.
+     *
+     * @param listener     Listener for listening on events from this service.
+     * @param knownVersion Version of heatmap data known by listener, zero for none.
+     */
+    public void registerListener(ServiceListener listener, long knownVersion) {
+        registerListener(listener, knownVersion, Looper.getMainLooper());
+    }
 
-        listener.onHeatmapDataUpdated(getHeatmapData());
+    /**
+     * Register listener for this service and provide heatmap data changed since version already
+     * known by listener.
+     *
+     * @param listener     Listener for listening on events from this service.
+     * @param knownVersion Version of heatmap data known by listener, zero for none.
+     * @param looper       Looper of thread on which listener gets events.
+     */
+    public void registerListener(ServiceListener listener, long knownVersion, Looper looper) {
+        if (listener == null) return;
+
+        final ListenerChannel channel = new ListenerChannel(listener,
+                                                            new HandlerExecutor(new Handler(looper)),
+                                                            mWorkerExecutor, mHeatmapData,
+                                                            knownVersion, mDroppedEventsCounter);
+        mServiceListeners.add(channel);
+        mWorker.post(new Runnable() {
+            @Override
+            public void run() {
+                channel.offerHeatmap();
+            }
+        });
     }
 
-    public void unregisterListener(ServiceListener listener) {
-        mServiceListeners.remove(listener);
+    /**
+     * Unregister listener. Events not delivered yet are dropped.
+     *
+     * @param listener Registered listener.
+     * @return Version of heatmap data delivered to listener, zero if listener was not registered.
+     */
+    public long unregisterListener(ServiceListener listener) {
+        for (ListenerChannel channel : mServiceListeners) {
+            if (channel.getListener() == listener) {
+                channel.close();
+                mServiceListeners.remove(channel);
+                return channel.getDeliveredVersion();
+            }
+        }
+        return 0;
     }
 
     /**
-     * Set for which SSID will be collected heatmap data.
+     * Set for which SSID will be collected heatmap data. RSSI of all networks is recorded, so
+     * heatmap of SSID already visible in survey is shown immediately.
      * This also start receiving location updates.
      *
      * @param ssid SSID of desired network
      */
-    public void surveySsid(String ssid) {
+    public void surveySsid(final String ssid) {
+        mWorker.post(new Runnable() {
+            @Override
+            public void run() {
+                startSurveySsid(ssid);
+            }
+        });
+    }
+
+    private void startSurveySsid(String ssid) {
         mSurveyedSsid = ssid;
+        mSurveyedSsidId = mNetworks.findSsid(ssid);
+        mSurveyedBssid = null;
+        mSurveyedNetwork = -1;
+        if (mSampleLog == null) createSampleLog();
+
+        publishRecordedNetworks();
+        rebuildHeatmap();
+        mScanReducer.reset();
 
         // We want high accuracy with updates every 1.5 meter.
-        LocationRequest locReq = new LocationRequest().setPriority(LocationRequest.PRIORITY_HIGH_ACCURACY)
-                                                      .setInterval(LOCAION_INTERVAL)
-                                                      .setFastestInterval(LOCATION_FASTEST_INTERVAL)
-                                                      .setSmallestDisplacement(getResources().getInteger(R.integer.diameter) / 2f);
-        LocationServices.FusedLocationApi.requestLocationUpdates(mGoogleApiClient, locReq,
-                                                                 mLocationListener);
+        mLocationSource.requestUpdates(getResources().getInteger(R.integer.diameter) / 2f);
     }
 
     /**
@@ -136,39 +368,396 @@ public class SurveyingService extends Service {
      * @return
      */
     public Location getLastLocation() {
-        return LocationServices.FusedLocationApi.getLastLocation(mGoogleApiClient);
+        return mLocationSource.getLastLocation();
+    }
+
+    /**
+     * @return Metrics of survey. Clients can record own metrics to it, e.g. of rendering.
+     */
+    public MetricsRegistry getMetrics() {
+        return mMetrics;
+    }
+
+    /**
+     * Write all metrics to new file in external app files. Must not be called on main thread.
+     *
+     * @return Written file.
+     * @throws IOException if file cannot be written.
+     */
+    public File dumpMetrics() throws IOException {
+        File dir = getExternalFilesDir(METRICS_DIR);
+        if (dir == null) throw new IOException("External storage is not available");
+
+        File file = new File(dir, "metrics_" + System.currentTimeMillis() + ".txt");
+        Writer writer = new FileWriter(file);
+        try {
+            mMetrics.dump(writer);
+        } finally {
+            writer.close();
+        }
+        return file;
+    }
+
+    /**
+     * @return Surveyed SSID or null if no SSID is selected.
+     */
+    public String getSurveySsid() {
+        return mSurveyedSsid;
+    }
+
+    /**
+     * @return SSIDs of all networks recorded in current survey.
+     */
+    public List<String> getRecordedSsids() {
+        return mRecordedSsids;
+    }
+
+    /**
+     * @return BSSIDs of all recorded access points of surveyed SSID.
+     */
+    public List<String> getRecordedBssids() {
+        return mRecordedBssids;
+    }
+
+    /**
+     * Show heatmap of one access point of surveyed SSID.
+     *
+     * @param bssid BSSID of access point or null for all access points of SSID.
+     */
+    public void surveyAccessPoint(final String bssid) {
+        mWorker.post(new Runnable() {
+            @Override
+            public void run() {
+                mSurveyedBssid = bssid;
+                mSurveyedNetwork = bssid != null ? mNetworks.findNetwork(bssid) : -1;
+                rebuildHeatmap();
+                mScanReducer.reset();
+            }
+        });
+    }
+
+    /**
+     * @return BSSID of surveyed access point or null if all access points of SSID are surveyed.
+     */
+    public String getSurveyedBssid() {
+        return mSurveyedBssid;
+    }
+
+    /**
+     * Set how are access points of surveyed SSID visible on fix reduced to RSSI of heatmap.
+     *
+     * @param type Type of reducer.
+     */
+    public void setReducer(final RssiReducer.Type type) {
+        mWorker.post(new Runnable() {
+            @Override
+            public void run() {
+                if (mReducer.getType() == type) return;
+
+                mReducer = RssiReducer.create(type);
+                mScanReducer = RssiReducer.create(type);
+                rebuildHeatmap();
+            }
+        });
+    }
+
+    public RssiReducer.Type getReducerType() {
+        return mReducer.getType();
     }
 
     /**
-     * Get actual heatmap data.
-     * @return Map with heatmap data.
+     * Set filter of RSSI of scans. Only next fixes are filtered by new filter, recorded fixes keep
+     * their RSSI.
+     *
+     * @param type Type of filter.
      */
-    public Map<Location, Integer> getHeatmapData() {
-        return new HashMap<>(mHeatmapData);
+    public void setFilter(final RssiFilter.Type type) {
+        mWorker.post(new Runnable() {
+            @Override
+            public void run() {
+                if (mFusion.getFilter().getType() == type) return;
+
+                mFusion.setFilter(RssiFilter.create(type));
+                mFilterType = type;
+            }
+        });
+    }
+
+    public RssiFilter.Type getFilterType() {
+        return mFilterType;
     }
 
     /**
-     * Update heatmap with lastest data and notify listeners.
+     * Drop all recorded data and start new survey with new log.
+     */
+    public void startNewSurvey() {
+        mWorker.post(new Runnable() {
+            @Override
+            public void run() {
+                clearSurvey();
+            }
+        });
+    }
+
+    private void clearSurvey() {
+        closeSampleLog();
+        mNetworks.clear();
+        // Ids of networks are reused by new survey.
+        mFusion.clear();
+        mVisibleCount = 0;
+        mSurveyedSsidId = -1;
+        mSurveyedNetwork = -1;
+        mScanReducer.reset();
+        createSampleLog();
+
+        publishRecordedNetworks();
+        rebuildHeatmap();
+    }
+
+    /**
+     * Pass location to fusion with scans. Heatmap is updated when fix is fused.
      * @param location
      */
     private void updateHeatmap(Location location) {
-        if (location == null || location == mLastLocation || mLastRssi == Integer.MIN_VALUE) return;
-
-        mHeatmapData.put(location, mLastRssi);
+        if (location == null || location == mLastLocation) return;
+        updateSpeed(location);
         mLastLocation = location;
+        mFixesCounter.increment();
+        mFixAccuracy.record(Math.round(location.getAccuracy() * 100));
+
+        if (!mFusion.addFix(location.getLatitude(), location.getLongitude(),
+                            getElapsedTime(location), location.getAccuracy())) {
+            mRejectedFixesCounter.increment();
+            Log.d(TAG, "fix rejected for accuracy " + location.getAccuracy() + "m");
+        }
+    }
+
+    /**
+     * Pass speed of surveyor to scheduler of scans. Next scan is started sooner if surveyor started
+     * walking.
+     */
+    private void updateSpeed(Location location) {
+        float speed;
+        if (location.hasSpeed()) {
+            speed = location.getSpeed();
+        } else if (mLastLocation != null
+                && getElapsedTime(location) > getElapsedTime(mLastLocation)) {
+            speed = location.distanceTo(mLastLocation) * 1000
+                    / (getElapsedTime(location) - getElapsedTime(mLastLocation));
+        } else {
+            return;
+        }
+        mScanScheduler.setSpeed(SystemClock.elapsedRealtime(), speed);
+        mScanCallback.scheduleScan();
+    }
+
+    /**
+     * Time of fix on clock of scans, which is not changed by changes of wall clock.
+     *
+     * @return Time of fix in millis of {@link SystemClock#elapsedRealtime()}.
+     */
+    private static long getElapsedTime(Location location) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1) {
+            return location.getElapsedRealtimeNanos() / 1000000;
+        }
+        // Older fixes have only wall clock time, it is converted by current offset of clocks.
+        return location.getTime() - System.currentTimeMillis() + SystemClock.elapsedRealtime();
+    }
+
+    /**
+     * Record fused fix with all visible networks and update heatmap.
+     */
+    private void recordFix(double latitude, double longitude, long timestamp, float accuracy,
+                           int[] networks, int[] rssis, int count) {
+        mNetworks.addFix(latitude, longitude, timestamp, accuracy);
+        for (int i = 0; i < count; i++) {
+            mNetworks.addObservation(networks[i], rssis[i]);
+        }
+        logFix(latitude, longitude, timestamp, accuracy, networks, rssis, count);
+        mSurveyFixesGauge.set(mNetworks.getFixCount());
+
+        if (mSurveyedSsidId < 0) return;
+        int rssi = getSurveyedRssi(mReducer, networks, rssis, count);
+        if (rssi == Integer.MIN_VALUE) return;
+
+        mHeatmapGrid.append(latitude, longitude, rssi, timestamp, accuracy);
+        notifyHeatmapDataUpdated();
+    }
+
+    /**
+     * Replace heatmap data by recorded data of surveyed SSID or access point.
+     */
+    private void rebuildHeatmap() {
+        mHeatmapGrid.clear();
+        mReducer.reset();
+        if (mSurveyedBssid != null) {
+            if (mSurveyedNetwork >= 0) mNetworks.copyNetworkTo(mSurveyedNetwork, mHeatmapGrid);
+        } else if (mSurveyedSsidId >= 0) {
+            mNetworks.copySsidTo(mSurveyedSsidId, mReducer, mHeatmapGrid);
+        }
+        notifyHeatmapDataUpdated();
+    }
+
+    /**
+     * Reduce visible access points of surveyed SSID to one RSSI. Access points are matched by
+     * interned ids, so no string is compared.
+     *
+     * @return RSSI of surveyed SSID or access point or {@link Integer#MIN_VALUE} if not visible.
+     */
+    private int getSurveyedRssi(RssiReducer reducer, int[] networks, int[] rssis,
+                                int visibleCount) {
+        if (mSurveyedSsidId < 0) return Integer.MIN_VALUE;
+
+        if (mSurveyedNetworks.length < visibleCount) {
+            mSurveyedNetworks = new int[visibleCount];
+            mSurveyedRssis = new int[visibleCount];
+        }
+        int count = 0;
+        for (int i = 0; i < visibleCount; i++) {
+            int network = networks[i];
+            if (mSurveyedBssid != null) {
+                if (network == mSurveyedNetwork) return rssis[i];
+            } else if (mNetworks.getSsidId(network) == mSurveyedSsidId) {
+                mSurveyedNetworks[count] = network;
+                mSurveyedRssis[count++] = rssis[i];
+            }
+        }
+        if (mSurveyedBssid != null) return Integer.MIN_VALUE;
+
+        return reducer.reduce(mSurveyedNetworks, mSurveyedRssis, count);
+    }
 
-        for (ServiceListener listener : mServiceListeners) {
-            listener.onHeatmapDataUpdated(getHeatmapData());
+    /**
+     * Write last fix to log. New networks are written before it.
+     */
+    private void logFix(double latitude, double longitude, long timestamp, float accuracy,
+                        int[] networks, int[] rssis, int count) {
+        if (mSampleLog == null) return;
+
+        try {
+            while (mSampleLog.getNetworkCount() < mNetworks.getNetworkCount()) {
+                int network = mSampleLog.getNetworkCount();
+                mSampleLog.appendNetwork(mNetworks.getBssid(network),
+                                         mNetworks.getSsid(mNetworks.getSsidId(network)));
+            }
+            mSampleLog.appendFix(latitude, longitude, timestamp, accuracy, networks, rssis, count);
+        } catch (IOException | IllegalArgumentException e) {
+            Log.e(TAG, "Cannot write to sample log, survey continues only in memory", e);
+            closeSampleLog();
         }
     }
 
+    /**
+     * Notify listeners about changed heatmap data. Listener still busy with previous delta gets
+     * all changes in one delta later.
+     */
+    private void notifyHeatmapDataUpdated() {
+        mHeatmapSamplesGauge.set(mHeatmapData.size());
+        for (ListenerChannel channel : mServiceListeners) {
+            channel.offerHeatmap();
+        }
+    }
+
+    /**
+     * Publish lists of recorded networks for main thread if some networks were recorded or other
+     * SSID is surveyed.
+     */
+    private void publishRecordedNetworks() {
+        if (mPublishedNetworkCount == mNetworks.getNetworkCount()
+                && mPublishedSsidId == mSurveyedSsidId) {
+            return;
+        }
+
+        if (mPublishedNetworkCount != mNetworks.getNetworkCount()) {
+            List<String> ssids = new ArrayList<>(mNetworks.getSsidCount());
+            for (int i = 0; i < mNetworks.getSsidCount(); i++) {
+                ssids.add(mNetworks.getSsid(i));
+            }
+            mRecordedSsids = Collections.unmodifiableList(ssids);
+        }
+
+        List<String> bssids = new ArrayList<>();
+        for (int i = 0; i < mNetworks.getNetworkCount(); i++) {
+            if (mSurveyedSsidId >= 0 && mNetworks.getSsidId(i) == mSurveyedSsidId) {
+                bssids.add(mNetworks.getBssid(i));
+            }
+        }
+        mRecordedBssids = Collections.unmodifiableList(bssids);
+
+        mPublishedNetworkCount = mNetworks.getNetworkCount();
+        mPublishedSsidId = mSurveyedSsidId;
+    }
+
+    /**
+     * Load data from log of last survey, so survey survive death of process.
+     */
+    private void resumeLastSurvey() {
+        File[] logs = getSurveysDir().listFiles();
+        if (logs == null) return;
+
+        File lastLog = null;
+        for (File log : logs) {
+            if (log.getName().endsWith(SampleLog.EXTENSION)
+                    && (lastLog == null || log.lastModified() > lastLog.lastModified())) {
+                lastLog = log;
+            }
+        }
+        if (lastLog == null) return;
+
+        long startMillis = System.currentTimeMillis();
+        try {
+            mSampleLog = SampleLog.open(lastLog);
+            mSampleLog.loadInto(mNetworks);
+            Log.d(TAG, "survey resumed with " + mNetworks.getFixCount() + " fixes of "
+                    + mNetworks.getNetworkCount() + " networks in "
+                    + (System.currentTimeMillis() - startMillis) + "ms");
+        } catch (IOException e) {
+            Log.e(TAG, "Cannot resume survey from " + lastLog, e);
+            closeSampleLog();
+            mNetworks.clear();
+        }
+    }
+
+    /**
+     * Create log for current survey. Networks already recorded are written to log with next fix.
+     */
+    private void createSampleLog() {
+        long createdTime = System.currentTimeMillis();
+        File dir = getSurveysDir();
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            Log.e(TAG, "Cannot create " + dir + ", survey is kept only in memory");
+            return;
+        }
+        try {
+            mSampleLog = SampleLog.create(new File(dir, "survey_" + createdTime + SampleLog.EXTENSION),
+                                          createdTime);
+        } catch (IOException e) {
+            Log.e(TAG, "Cannot create sample log, survey is kept only in memory", e);
+        }
+    }
+
+    private void closeSampleLog() {
+        if (mSampleLog == null) return;
+
+        try {
+            mSampleLog.close();
+        } catch (IOException e) {
+            Log.e(TAG, "Cannot close sample log", e);
+        }
+        mSampleLog = null;
+    }
+
+    private File getSurveysDir() {
+        return new File(getFilesDir(), SURVEYS_DIR);
+    }
+
     public interface ServiceListener {
         /**
          * Called if scanning of surrounding network is complete.
          *
-         * @param scanResults Result of scan.
+         * @param scan Result of scan.
          */
-        void onWiFiScanCompleted(List<ScanResult> scanResults);
+        void onWiFiScanCompleted(WifiScan scan);
 
         /**
          * Called if new info about RSSI is available about selected network.
@@ -178,7 +767,13 @@ public class SurveyingService extends Service {
          */
         void onSurveyedWiFiUpdated(String surveyedSsid, int rssi);
 
-        void onHeatmapDataUpdated(Map<Location, Integer> heatmapData);
+        /**
+         * Called if heatmap data changed. Delta contain only samples changed since version already
+         * delivered to listener or all samples if {@link SampleStore.Delta#isFull()}.
+         *
+         * @param delta Changes of heatmap data.
+         */
+        void onHeatmapDataUpdated(SampleStore.Delta delta);
 
         /**
          * Called if last location from provider is updated.
@@ -196,6 +791,11 @@ public class SurveyingService extends Service {
         private final ServiceListener mListener;
         private SurveyingService mService;
         private boolean mBounded;
+        /**
+         * Version of heatmap data delivered to listener before unbound. After bound again listener
+         * gets only data changed since this version.
+         */
+        private long mHeatmapVersion;
 
         public SurveyingServiceConnection(ServiceListener listener) {
             mListener = listener;
@@ -205,13 +805,15 @@ public class SurveyingService extends Service {
         public void onServiceConnected(ComponentName name, IBinder service) {
             mBounded = true;
             mService = ((SurveyingService.LocalBinder) service).getService();
-            mService.registerListener(mListener);
+            mService.registerListener(mListener, mHeatmapVersion);
         }
 
         @Override
         public void onServiceDisconnected(ComponentName name) {
             mBounded = false;
             mService.unregisterListener(mListener);
+            // Service was killed with its data.
+            mHeatmapVersion = 0;
         }
 
         public SurveyingService getService() {
@@ -224,7 +826,7 @@ public class SurveyingService extends Service {
         }
 
         public void unbound(Context context) {
-            if (mService != null) mService.unregisterListener(mListener);
+            if (mService != null) mHeatmapVersion = mService.unregisterListener(mListener);
 
             if (mBounded) {
                 mBounded = false;
@@ -241,76 +843,140 @@ public class SurveyingService extends Service {
     }
 
     /**
-     * Callback for GoogleApiClient. Notify service listeners about last know location after connect.
+     * Callback of location source. Notify service listeners about last know location after connect.
      */
-    private class GApiClientConnCallback implements GoogleApiClient.ConnectionCallbacks {
+    private class LocationCallback implements LocationSource.Callback {
 
         @Override
-        public void onConnected(@Nullable Bundle bundle) {
-            for (ServiceListener listener : mServiceListeners) {
-                listener.onLastLocationUpdated(getLastLocation());
+        public void onConnected() {
+            Location lastLocation = getLastLocation();
+            for (ListenerChannel channel : mServiceListeners) {
+                channel.postLocation(lastLocation);
             }
         }
 
         @Override
-        public void onConnectionSuspended(int i) {
+        public void onLocationChanged(Location location) {
+            updateHeatmap(location);
         }
     }
 
     /**
-     * Listener for location updates from provider.
+     * Receiver of fixes fused with scans.
      */
-    private class LocationListener implements com.google.android.gms.location.LocationListener {
+    private class FusionListener implements ScanFusion.Listener {
 
         @Override
-        public void onLocationChanged(Location location) {
-            updateHeatmap(location);
+        public void onFusedFix(double latitude, double longitude, long timestamp, float accuracy,
+                               int[] networks, int[] rssis, int count) {
+            // Fusion runs on elapsed realtime, recorded fixes have wall clock time.
+            long time = timestamp + System.currentTimeMillis() - SystemClock.elapsedRealtime();
+            recordFix(latitude, longitude, time, accuracy, networks, rssis, count);
+        }
+    }
+
+    /**
+     * Executor running tasks on thread of handler.
+     */
+    private static class HandlerExecutor implements Executor {
+        private final Handler mHandler;
+
+        HandlerExecutor(Handler handler) {
+            mHandler = handler;
+        }
+
+        @Override
+        public void execute(Runnable command) {
+            mHandler.post(command);
         }
     }
 
     /**
      * Receiver of surrounding networks status.
-     * onReceive is called if scan is complate so we can get result by {@link WifiManager#getScanResults}.
-     * Than start new scan.
+     * onScanResults is called on worker thread if scan is complate. Next scan is started when
+     * {@link ScanScheduler} decides.
      */
-    private class WiFiScanReceiver extends BroadcastReceiver {
-        private WifiManager mWifiManager;
+    private class ScanCallback implements ScanSource.Callback {
+        private final Runnable mStartScan = new Runnable() {
+            @Override
+            public void run() {
+                long now = SystemClock.elapsedRealtime();
+                int timeouts = mScanScheduler.getTimeoutCount();
+                if (mScanScheduler.shouldStart(now)) {
+                    boolean started = mScanSource.startScan();
+                    mScanScheduler.onScanStarted(now, started);
+                    if (started) {
+                        mScanStartedCounter.increment();
+                    } else {
+                        mScanThrottledCounter.increment();
+                    }
+                }
+                mScanTimeoutsCounter.add(mScanScheduler.getTimeoutCount() - timeouts);
+                scheduleScan();
+            }
+        };
+
+        /**
+         * Plan next start of scan by scheduler. Previously planned start is cancelled.
+         */
+        public void scheduleScan() {
+            mWorker.removeCallbacks(mStartScan);
+            mWorker.postDelayed(mStartScan, mScanScheduler.getDelay(SystemClock.elapsedRealtime()));
+        }
 
-        public WiFiScanReceiver() {
-            mWifiManager = (WifiManager) getSystemService(Context.WIFI_SERVICE);
-            mWifiManager.setWifiEnabled(true);
-            mWifiManager.startScan();
+        public void cancelScan() {
+            mWorker.removeCallbacks(mStartScan);
         }
 
         @Override
-        public void onReceive(Context c, Intent intent) {
-            for (ServiceListener listener : mServiceListeners) {
-                listener.onWiFiScanCompleted(mWifiManager.getScanResults());
+        public void onScanResults(WifiScan scan) {
+            long latency = mScanScheduler.onScanResults(SystemClock.elapsedRealtime());
+            mScanResultsCounter.increment();
+            if (latency >= 0) mScanLatency.record(latency);
+            int resultsCount = mScanScheduler.getCompletedCount() + mScanScheduler.getPassiveCount();
+            if (resultsCount % SCAN_STATS_LOG_INTERVAL == 0) Log.d(TAG, mScanScheduler.toString());
+            scheduleScan();
+
+            for (ListenerChannel channel : mServiceListeners) {
+                channel.postScanResults(scan);
             }
 
-            if (mSurveyedSsid == null) {
-                // No network selected yet.
-                mWifiManager.startScan();
-                return;
+            // Remember RSSI of all visible networks for next location fix. Known networks are
+            // found by one hash lookup of BSSID, nothing is allocated for them.
+            int count = scan.size();
+            if (mVisibleNetworks.length < count) {
+                mVisibleNetworks = new int[count];
+                mVisibleRssis = new int[count];
+            }
+            mVisibleCount = 0;
+            for (int i = 0; i < count; i++) {
+                mVisibleNetworks[mVisibleCount] = mNetworks.internNetwork(scan.getBssid(i),
+                                                                           scan.getSsid(i));
+                mVisibleRssis[mVisibleCount] = scan.getRssi(i);
+                mVisibleCount++;
+            }
+            if (!mFusion.addScan(scan.getTimestamp(), mVisibleNetworks, mVisibleRssis,
+                                 mVisibleCount)) {
+                Log.w(TAG, "scan older than previous scan dropped");
             }
 
-            // Get RSSI of surveyed network if is in range.
-            int rssi = Integer.MIN_VALUE;
-            for (ScanResult scanResult : mWifiManager.getScanResults()) {
-                String scanedSsid = !TextUtils.isEmpty(scanResult.SSID) ? scanResult.SSID : scanResult.BSSID;
-                if (scanedSsid.equals(mSurveyedSsid)) {
-                    rssi = scanResult.level;
-                    break;
-                }
+            if (mSurveyedSsid != null && mSurveyedSsidId < 0) {
+                mSurveyedSsidId = mNetworks.findSsid(mSurveyedSsid);
             }
+            publishRecordedNetworks();
 
-            mLastRssi = rssi;
+            // No network selected yet.
+            if (mSurveyedSsid == null) return;
 
-            for (ServiceListener listener : mServiceListeners) {
-                listener.onSurveyedWiFiUpdated(mSurveyedSsid, mLastRssi);
+            // Get RSSI of surveyed network if is in range.
+            if (mSurveyedBssid != null && mSurveyedNetwork < 0) {
+                mSurveyedNetwork = mNetworks.findNetwork(mSurveyedBssid);
             }
+            int rssi = getSurveyedRssi(mScanReducer, mVisibleNetworks, mVisibleRssis, mVisibleCount);
 
-            mWifiManager.startScan();
+            for (ListenerChannel channel : mServiceListeners) {
+                channel.postSurveyedRssi(mSurveyedSsid, rssi);
+            }
         }
     }
 }
@@ -0,0 +1,80 @@
+package app.wi_fiheatmapper;
+
+/**
+ * Plays {@link SyntheticSurvey} in real time or as fast as possible. Scans and fixes are delivered
+ * to listener in order of their time on thread which runs player.
+ * <p/>
+ * In fast mode time of survey is simulated and listener is called without any pause, so listener
+ * should block if it cannot keep up.
+ */
+public class SyntheticPlayer implements Runnable {
+
+    private final SyntheticSurvey mSurvey;
+    private final long mScanInterval;
+    private final long mFixInterval;
+    private final long mDuration;
+    private final boolean mRealTime;
+    private final Listener mListener;
+    private volatile boolean mStopped;
+
+    /**
+     * @param scanInterval Time between scans in millis.
+     * @param fixInterval  Time between fixes in millis.
+     * @param duration     Duration of survey in millis or 0 to play until stopped.
+     * @param realTime     True to play in real time, false to play as fast as possible.
+     */
+    public SyntheticPlayer(SyntheticSurvey survey, long scanInterval, long fixInterval,
+                           long duration, boolean realTime, Listener listener) {
+        mSurvey = survey;
+        mScanInterval = scanInterval;
+        mFixInterval = fixInterval;
+        mDuration = duration;
+        mRealTime = realTime;
+        mListener = listener;
+    }
+
+    @Override
+    public void run() {
+        long startTime = mSurvey.getStartTime();
+        long startNanos = System.nanoTime();
+        long nextScan = mScanInterval;
+        long nextFix = 0;
+        while (!mStopped && !Thread.currentThread().isInterrupted()) {
+            long time = Math.min(nextScan, nextFix);
+            if (mDuration > 0 && time > mDuration) break;
+
+            if (mRealTime) {
+                long delay = time - (System.nanoTime() - startNanos) / 1000000;
+                if (delay > 0) {
+                    try {
+                        Thread.sleep(delay);
+                    } catch (InterruptedException e) {
+                        break;
+                    }
+                }
+            }
+
+            if (time == nextFix) {
+                mListener.onFix(mSurvey.getFix(startTime + time));
+                nextFix += mFixInterval;
+            } else {
+                mListener.onScan(mSurvey.getScan(startTime + time));
+                nextScan += mScanInterval;
+            }
+        }
+    }
+
+    /**
+     * Stop playing, listener can be called once more.
+     */
+    public void stop() {
+        mStopped = true;
+    }
+
+    public interface Listener {
+
+        void onScan(WifiScan scan);
+
+        void onFix(SyntheticSurvey.Fix fix);
+    }
+}
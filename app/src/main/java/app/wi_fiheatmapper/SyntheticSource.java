@@ -0,0 +1,157 @@
+package app.wi_fiheatmapper;
+
+import android.location.Location;
+import android.os.Build;
+import android.os.Handler;
+import android.os.SystemClock;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import java.util.concurrent.Semaphore;
+
+/**
+ * Scans and locations of {@link SyntheticSurvey} for load testing of {@link SurveyingService}.
+ * Survey is timed by {@link SystemClock#elapsedRealtime()} like real scans and fixes.
+ * Survey is played on own thread and events are posted to thread of handler. Player waits if too
+ * many events are not processed yet, so service is not flooded when survey is played as fast as
+ * possible.
+ */
+public class SyntheticSource implements ScanSource, LocationSource, SyntheticPlayer.Listener {
+
+    private static final String TAG = SyntheticSource.class.getSimpleName();
+    private static final String PROVIDER = "synthetic";
+    /**
+     * Max count of events posted to handler and not processed yet.
+     */
+    private static final int MAX_PENDING_EVENTS = 16;
+
+    private final SyntheticPlayer mPlayer;
+    private final Handler mHandler;
+    private final Semaphore mPendingEvents = new Semaphore(MAX_PENDING_EVENTS);
+    private Thread mThread;
+
+    private volatile ScanSource.Callback mScanCallback;
+    private volatile LocationSource.Callback mLocationCallback;
+    private volatile boolean mLocationUpdates;
+    private volatile Location mLastLocation;
+
+    /**
+     * @param scanInterval Time between scans in millis.
+     * @param fixInterval  Time between fixes in millis.
+     * @param realTime     True to play in real time, false to play as fast as possible.
+     */
+    public SyntheticSource(SyntheticSurvey survey, long scanInterval, long fixInterval,
+                           boolean realTime, Handler handler) {
+        mPlayer = new SyntheticPlayer(survey, scanInterval, fixInterval, 0, realTime, this);
+        mHandler = handler;
+    }
+
+    @Override
+    public void start(ScanSource.Callback callback) {
+        mScanCallback = callback;
+        startPlayer();
+    }
+
+    @Override
+    public void start(LocationSource.Callback callback) {
+        mLocationCallback = callback;
+        startPlayer();
+        callback.onConnected();
+    }
+
+    private synchronized void startPlayer() {
+        if (mThread != null) return;
+
+        mThread = new Thread(mPlayer, TAG);
+        mThread.start();
+    }
+
+    /**
+     * Stop playing of survey for both scans and locations.
+     */
+    @Override
+    public synchronized void stop() {
+        mScanCallback = null;
+        mLocationCallback = null;
+        if (mThread == null) return;
+
+        mPlayer.stop();
+        mThread.interrupt();
+        mThread = null;
+    }
+
+    /**
+     * Scans are played with constant interval, so scan is never refused.
+     */
+    @Override
+    public boolean startScan() {
+        return true;
+    }
+
+    @Override
+    public void requestUpdates(float smallestDisplacement) {
+        mLocationUpdates = true;
+    }
+
+    @Nullable
+    @Override
+    public Location getLastLocation() {
+        return mLastLocation;
+    }
+
+    @Override
+    public void onScan(final WifiScan scan) {
+        if (mScanCallback == null || !acquireEvent()) return;
+
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                mPendingEvents.release();
+                ScanSource.Callback callback = mScanCallback;
+                if (callback != null) callback.onScanResults(scan);
+            }
+        });
+    }
+
+    @Override
+    public void onFix(SyntheticSurvey.Fix fix) {
+        final Location location = new Location(PROVIDER);
+        location.setLatitude(fix.getLatitude());
+        location.setLongitude(fix.getLongitude());
+        // Wall clock time of fix by current offset of clocks.
+        location.setTime(fix.getTimestamp() + System.currentTimeMillis()
+                                 - SystemClock.elapsedRealtime());
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1) {
+            location.setElapsedRealtimeNanos(fix.getTimestamp() * 1000000);
+        }
+        location.setAccuracy(fix.getAccuracy());
+        location.setSpeed(fix.getSpeed());
+        mLastLocation = location;
+        if (!mLocationUpdates || mLocationCallback == null || !acquireEvent()) return;
+
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                mPendingEvents.release();
+                LocationSource.Callback callback = mLocationCallback;
+                if (callback != null) callback.onLocationChanged(location);
+            }
+        });
+    }
+
+    /**
+     * Wait until handler processes some of pending events.
+     *
+     * @return False if player was interrupted.
+     */
+    private boolean acquireEvent() {
+        try {
+            mPendingEvents.acquire();
+            return true;
+        } catch (InterruptedException e) {
+            Log.d(TAG, "player stopped");
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+}
@@ -0,0 +1,221 @@
+package app.wi_fiheatmapper;
+
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Synthetic survey for load testing without walking a building.
+ * <p/>
+ * Surveyor walks with constant speed along lanes of square area, there and back again. Access points
+ * are placed randomly in area and RSSI of each access point follows log-distance path loss model
+ * with gaussian noise. Access points weaker than {@link #SENSITIVITY} are not visible. Several
+ * access points share one SSID. Same seed gives same survey.
+ * <p/>
+ * Survey is not thread safe.
+ */
+public class SyntheticSurvey {
+
+    /**
+     * RSSI of weakest visible access point.
+     */
+    static final int SENSITIVITY = -95;
+    private static final int ACCESS_POINTS_PER_SSID = 4;
+    /**
+     * Range of RSSI of access points in one meter.
+     */
+    private static final int MIN_TX_RSSI = -40;
+    private static final int MAX_TX_RSSI = -25;
+
+    private final long mStartTime;
+    private final float mAreaSize;
+    private final LocalProjection mProjection;
+    private final Random mRandom;
+
+    private final float[] mAccessPointXs;
+    private final float[] mAccessPointYs;
+    private final int[] mTxRssis;
+    private final String[] mBssids;
+    private final String[] mSsids;
+
+    private float mSpeed = 1.4f;
+    private float mLaneSpacing = 3f;
+    private float mPathLossExponent = 3f;
+    private float mNoise = 4f;
+    private float mFixAccuracy = 5f;
+
+    private final float[] mPosition = new float[2];
+
+    /**
+     * @param seed             Seed of random placement and noise.
+     * @param startTime        Time of start of survey in millis, times of scans and fixes are
+     *                         on same clock.
+     * @param originLatitude   Latitude of south west corner of area.
+     * @param originLongitude  Longitude of south west corner of area.
+     * @param areaSize         Size of square area in meters.
+     * @param accessPointCount Count of access points in area.
+     */
+    public SyntheticSurvey(long seed, long startTime, double originLatitude, double originLongitude,
+                           float areaSize, int accessPointCount) {
+        mStartTime = startTime;
+        mAreaSize = areaSize;
+        mProjection = new LocalProjection(originLatitude, originLongitude);
+        mRandom = new Random(seed);
+
+        mAccessPointXs = new float[accessPointCount];
+        mAccessPointYs = new float[accessPointCount];
+        mTxRssis = new int[accessPointCount];
+        mBssids = new String[accessPointCount];
+        mSsids = new String[accessPointCount];
+        for (int i = 0; i < accessPointCount; i++) {
+            mAccessPointXs[i] = mRandom.nextFloat() * areaSize;
+            mAccessPointYs[i] = mRandom.nextFloat() * areaSize;
+            mTxRssis[i] = MIN_TX_RSSI + mRandom.nextInt(MAX_TX_RSSI - MIN_TX_RSSI + 1);
+            mBssids[i] = String.format(Locale.US, "02:00:00:%02x:%02x:%02x", (i >> 16) & 0xff,
+                                       (i >> 8) & 0xff, i & 0xff);
+            mSsids[i] = "synthetic-" + i / ACCESS_POINTS_PER_SSID;
+        }
+    }
+
+    /**
+     * @param speed Walking speed of surveyor in m/s.
+     */
+    public void setSpeed(float speed) {
+        mSpeed = speed;
+    }
+
+    /**
+     * @param laneSpacing Distance between lanes of path in meters.
+     */
+    public void setLaneSpacing(float laneSpacing) {
+        mLaneSpacing = laneSpacing;
+    }
+
+    /**
+     * @param pathLossExponent Exponent of path loss, 2 for free space, 3 to 4 for buildings.
+     */
+    public void setPathLossExponent(float pathLossExponent) {
+        mPathLossExponent = pathLossExponent;
+    }
+
+    /**
+     * @param noise Standard deviation of RSSI in dB.
+     */
+    public void setNoise(float noise) {
+        mNoise = noise;
+    }
+
+    /**
+     * @param fixAccuracy Accuracy of fixes in meters. Position of fix has gaussian error of half
+     *                    of accuracy.
+     */
+    public void setFixAccuracy(float fixAccuracy) {
+        mFixAccuracy = fixAccuracy;
+    }
+
+    public long getStartTime() {
+        return mStartTime;
+    }
+
+    public int getAccessPointCount() {
+        return mBssids.length;
+    }
+
+    public float getSpeed() {
+        return mSpeed;
+    }
+
+    /**
+     * @return Fix of surveyor position at time.
+     */
+    public Fix getFix(long timestamp) {
+        positionAt(timestamp);
+        float error = mFixAccuracy / 2;
+        float x = mPosition[0] + (float) mRandom.nextGaussian() * error;
+        float y = mPosition[1] + (float) mRandom.nextGaussian() * error;
+        return new Fix(mProjection.toLatitude(y), mProjection.toLongitude(x), timestamp,
+                       mFixAccuracy, mSpeed);
+    }
+
+    /**
+     * @return Access points visible at surveyor position at time.
+     */
+    public WifiScan getScan(long timestamp) {
+        positionAt(timestamp);
+        WifiScan scan = new WifiScan(timestamp, mBssids.length);
+        for (int i = 0; i < mBssids.length; i++) {
+            float dx = mAccessPointXs[i] - mPosition[0];
+            float dy = mAccessPointYs[i] - mPosition[1];
+            double distance = Math.max(Math.sqrt(dx * dx + dy * dy), 1);
+            double rssi = mTxRssis[i] - 10 * mPathLossExponent * Math.log10(distance)
+                    + mRandom.nextGaussian() * mNoise;
+            if (rssi >= SENSITIVITY) scan.add(mBssids[i], mSsids[i], (int) Math.round(rssi));
+        }
+        return scan;
+    }
+
+    /**
+     * Set {@link #mPosition} to position of surveyor in area at time.
+     */
+    private void positionAt(long timestamp) {
+        int lanes = (int) (mAreaSize / mLaneSpacing) + 1;
+        float laneLength = mAreaSize + mLaneSpacing;
+        double pathLength = lanes * mAreaSize + (lanes - 1) * mLaneSpacing;
+
+        // Surveyor walks path there and back again.
+        double distance = mSpeed * (timestamp - mStartTime) / 1000.0 % (2 * pathLength);
+        if (distance > pathLength) distance = 2 * pathLength - distance;
+
+        int lane = Math.min((int) (distance / laneLength), lanes - 1);
+        float along = (float) (distance - lane * laneLength);
+        float y = lane * mLaneSpacing;
+        if (along > mAreaSize) {
+            // Moving to next lane.
+            y += along - mAreaSize;
+            along = mAreaSize;
+        }
+        mPosition[0] = lane % 2 == 0 ? along : mAreaSize - along;
+        mPosition[1] = y;
+    }
+
+    /**
+     * Location fix of synthetic survey.
+     */
+    public static class Fix {
+        private final double mLatitude;
+        private final double mLongitude;
+        private final long mTimestamp;
+        private final float mAccuracy;
+        private final float mSpeed;
+
+        Fix(double latitude, double longitude, long timestamp, float accuracy, float speed) {
+            mLatitude = latitude;
+            mLongitude = longitude;
+            mTimestamp = timestamp;
+            mAccuracy = accuracy;
+            mSpeed = speed;
+        }
+
+        public double getLatitude() {
+            return mLatitude;
+        }
+
+        public double getLongitude() {
+            return mLongitude;
+        }
+
+        public long getTimestamp() {
+            return mTimestamp;
+        }
+
+        public float getAccuracy() {
+            return mAccuracy;
+        }
+
+        /**
+         * @return Speed in m/s.
+         */
+        public float getSpeed() {
+            return mSpeed;
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package app.wi_fiheatmapper;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.net.wifi.ScanResult;
+import android.net.wifi.WifiManager;
+import android.os.Handler;
+import android.os.SystemClock;
+
+import java.util.List;
+
+/**
+ * Scans of surrounding networks from {@link WifiManager}. Receiver of scan results is called on
+ * thread of handler.
+ */
+public class WifiManagerScanSource extends BroadcastReceiver implements ScanSource {
+
+    private final Context mContext;
+    private final Handler mHandler;
+    private final WifiManager mWifiManager;
+    private Callback mCallback;
+
+    public WifiManagerScanSource(Context context, Handler handler) {
+        mContext = context;
+        mHandler = handler;
+        mWifiManager = (WifiManager) context.getSystemService(Context.WIFI_SERVICE);
+    }
+
+    @Override
+    public void start(Callback callback) {
+        mCallback = callback;
+        mWifiManager.setWifiEnabled(true);
+        mContext.registerReceiver(this, new IntentFilter(WifiManager.SCAN_RESULTS_AVAILABLE_ACTION),
+                                  null, mHandler);
+    }
+
+    @Override
+    public void stop() {
+        mContext.unregisterReceiver(this);
+    }
+
+    @Override
+    public boolean startScan() {
+        return mWifiManager.startScan();
+    }
+
+    /**
+     * onReceive is called if scan is complate so we can get result by
+     * {@link WifiManager#getScanResults}.
+     */
+    @Override
+    public void onReceive(Context context, Intent intent) {
+        List<ScanResult> scanResults = mWifiManager.getScanResults();
+        WifiScan scan = new WifiScan(SystemClock.elapsedRealtime(), scanResults.size());
+        for (ScanResult scanResult : scanResults) {
+            scan.add(scanResult.BSSID, scanResult.SSID, scanResult.level);
+        }
+        mCallback.onScanResults(scan);
+    }
+}
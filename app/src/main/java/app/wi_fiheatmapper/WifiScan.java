@@ -0,0 +1,72 @@
+package app.wi_fiheatmapper;
+
+/**
+ * Access points visible in one Wi-Fi scan.
+ * <p/>
+ * Scan is filled by its source and not modified after it is delivered, so it can be read from any
+ * thread. Networks without SSID have BSSID as SSID.
+ */
+public class WifiScan {
+
+    private final long mTimestamp;
+    private String[] mBssids;
+    private String[] mSsids;
+    private int[] mRssis;
+    private int mCount;
+
+    /**
+     * @param timestamp Time of scan in millis of {@link android.os.SystemClock#elapsedRealtime()},
+     *                  so it is not changed by changes of wall clock.
+     * @param capacity  Expected count of access points.
+     */
+    public WifiScan(long timestamp, int capacity) {
+        mTimestamp = timestamp;
+        mBssids = new String[capacity];
+        mSsids = new String[capacity];
+        mRssis = new int[capacity];
+    }
+
+    /**
+     * Add visible access point.
+     *
+     * @param ssid SSID or null or empty for hidden network.
+     */
+    public void add(String bssid, String ssid, int rssi) {
+        if (mCount == mBssids.length) {
+            int capacity = Math.max(mCount * 2, 16);
+            String[] bssids = new String[capacity];
+            String[] ssids = new String[capacity];
+            int[] rssis = new int[capacity];
+            System.arraycopy(mBssids, 0, bssids, 0, mCount);
+            System.arraycopy(mSsids, 0, ssids, 0, mCount);
+            System.arraycopy(mRssis, 0, rssis, 0, mCount);
+            mBssids = bssids;
+            mSsids = ssids;
+            mRssis = rssis;
+        }
+        mBssids[mCount] = bssid;
+        mSsids[mCount] = ssid != null && !ssid.isEmpty() ? ssid : bssid;
+        mRssis[mCount] = rssi;
+        mCount++;
+    }
+
+    public long getTimestamp() {
+        return mTimestamp;
+    }
+
+    public int size() {
+        return mCount;
+    }
+
+    public String getBssid(int index) {
+        return mBssids[index];
+    }
+
+    public String getSsid(int index) {
+        return mSsids[index];
+    }
+
+    public int getRssi(int index) {
+        return mRssis[index];
+    }
+}
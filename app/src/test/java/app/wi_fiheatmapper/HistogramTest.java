@@ -0,0 +1,60 @@
+package app.wi_fiheatmapper;
+
+import org.junit.Test;
+
+import java.io.StringWriter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class HistogramTest {
+
+    @Test
+    public void buckets_coverValuesWithRelativePrecision() throws Exception {
+        int lastIndex = -1;
+        for (long value = 0; value < 100000; value++) {
+            int index = Histogram.indexOf(value);
+            assertTrue(index == lastIndex || index == lastIndex + 1);
+            long highest = Histogram.highestValueOf(index);
+            assertTrue(highest >= value);
+            assertTrue(highest - value <= value / Histogram.SUB_BUCKET_COUNT);
+            lastIndex = index;
+        }
+        assertEquals(Long.MAX_VALUE, Histogram.highestValueOf(Histogram.indexOf(Long.MAX_VALUE)));
+    }
+
+    @Test
+    public void percentiles_ofRecordedValues() throws Exception {
+        Histogram histogram = new Histogram();
+        for (int i = 1; i <= 100; i++) {
+            histogram.record(i * 10);
+        }
+
+        assertEquals(100, histogram.getCount());
+        assertEquals(505, histogram.getMean(), 1e-9);
+        assertEquals(1000, histogram.getMax());
+        long p50 = histogram.getValueAtPercentile(50);
+        assertTrue(p50 >= 500 && p50 <= 500 + 500 / Histogram.SUB_BUCKET_COUNT);
+        assertEquals(1000, histogram.getValueAtPercentile(100));
+
+        histogram.reset();
+        assertEquals(0, histogram.getValueAtPercentile(50));
+    }
+
+    @Test
+    public void registry_dumpsAllMetrics() throws Exception {
+        MetricsRegistry metrics = new MetricsRegistry();
+        metrics.counter(MetricsRegistry.SCAN_RESULTS).add(3);
+        metrics.gauge(MetricsRegistry.HEATMAP_SAMPLES).set(7);
+        metrics.histogram(MetricsRegistry.RENDER_TIME).record(12);
+        assertTrue(metrics.counter(MetricsRegistry.SCAN_RESULTS)
+                           == metrics.counter(MetricsRegistry.SCAN_RESULTS));
+
+        StringWriter writer = new StringWriter();
+        metrics.dump(writer);
+        String dump = writer.toString();
+        assertTrue(dump.contains(MetricsRegistry.SCAN_RESULTS + " 3"));
+        assertTrue(dump.contains(MetricsRegistry.HEATMAP_SAMPLES + " 7"));
+        assertTrue(dump.contains(MetricsRegistry.RENDER_TIME + " count 1"));
+    }
+}
@@ -0,0 +1,120 @@
+package app.wi_fiheatmapper;
+
+import android.location.Location;
+
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ListenerChannelTest {
+
+    @Test
+    public void events_areCoalescedToLatestValue() throws Exception {
+        QueueExecutor ui = new QueueExecutor();
+        RecordingListener listener = new RecordingListener();
+        MetricsRegistry.Counter dropped = new MetricsRegistry.Counter();
+        ListenerChannel channel = new ListenerChannel(listener, ui, new QueueExecutor(),
+                                                      new SampleStore(), 0, dropped);
+
+        channel.postSurveyedRssi("wifi", -70);
+        channel.postSurveyedRssi("wifi", -60);
+        assertEquals(1, ui.size());
+        assertEquals(1, dropped.get());
+
+        ui.runAll();
+        assertEquals(1, listener.mRssis.size());
+        assertEquals(-60, (int) listener.mRssis.get(0));
+    }
+
+    @Test
+    public void heatmap_oneDeltaInFlight() throws Exception {
+        QueueExecutor ui = new QueueExecutor();
+        QueueExecutor service = new QueueExecutor();
+        SampleStore store = new SampleStore();
+        RecordingListener listener = new RecordingListener();
+        ListenerChannel channel = new ListenerChannel(listener, ui, service, store, 0,
+                                                      new MetricsRegistry.Counter());
+
+        store.append(50, 14, -60, 1, 3);
+        channel.offerHeatmap();
+        // Listener is busy, changes wait for delivery of first delta.
+        store.append(50.1, 14, -61, 2, 3);
+        channel.offerHeatmap();
+        store.append(50.2, 14, -62, 3, 3);
+        channel.offerHeatmap();
+
+        ui.runAll();
+        assertEquals(1, listener.mDeltas.size());
+        assertEquals(1, listener.mDeltas.get(0).getSamples().size());
+
+        service.runAll();
+        ui.runAll();
+        assertEquals(2, listener.mDeltas.size());
+        SampleStore.Delta delta = listener.mDeltas.get(1);
+        assertEquals(2, delta.getChangedCount());
+        assertEquals(store.getVersion(), channel.getDeliveredVersion());
+    }
+
+    @Test
+    public void closed_dropsPostedEvents() throws Exception {
+        QueueExecutor ui = new QueueExecutor();
+        RecordingListener listener = new RecordingListener();
+        ListenerChannel channel = new ListenerChannel(listener, ui, new QueueExecutor(),
+                                                      new SampleStore(), 0,
+                                                      new MetricsRegistry.Counter());
+
+        channel.postSurveyedRssi("wifi", -70);
+        channel.close();
+        ui.runAll();
+        assertTrue(listener.mRssis.isEmpty());
+    }
+
+    private static class QueueExecutor implements Executor {
+        private final Queue<Runnable> mTasks = new ArrayDeque<>();
+
+        @Override
+        public void execute(Runnable command) {
+            mTasks.add(command);
+        }
+
+        int size() {
+            return mTasks.size();
+        }
+
+        void runAll() {
+            while (!mTasks.isEmpty()) {
+                mTasks.poll().run();
+            }
+        }
+    }
+
+    private static class RecordingListener implements SurveyingService.ServiceListener {
+        private final List<Integer> mRssis = new ArrayList<>();
+        private final List<SampleStore.Delta> mDeltas = new ArrayList<>();
+
+        @Override
+        public void onWiFiScanCompleted(WifiScan scan) {
+        }
+
+        @Override
+        public void onSurveyedWiFiUpdated(String surveyedSsid, int rssi) {
+            mRssis.add(rssi);
+        }
+
+        @Override
+        public void onHeatmapDataUpdated(SampleStore.Delta delta) {
+            mDeltas.add(delta);
+        }
+
+        @Override
+        public void onLastLocationUpdated(Location lastLocation) {
+        }
+    }
+}
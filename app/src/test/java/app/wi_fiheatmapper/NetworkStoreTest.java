@@ -0,0 +1,48 @@
+package app.wi_fiheatmapper;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class NetworkStoreTest {
+
+    @Test
+    public void internNetwork_sameBssid_returnsSameId() throws Exception {
+        NetworkStore store = new NetworkStore();
+        int office1 = store.internNetwork("00:00:00:00:00:01", "Office");
+        int lab = store.internNetwork("00:00:00:00:00:02", "Lab");
+        int office2 = store.internNetwork("00:00:00:00:00:03", "Office");
+
+        assertEquals(office1, store.internNetwork("00:00:00:00:00:01", "Office"));
+        assertEquals(3, store.getNetworkCount());
+        assertEquals(2, store.getSsidCount());
+        assertEquals(store.getSsidId(office1), store.getSsidId(office2));
+        assertEquals(lab, store.findNetwork("00:00:00:00:00:02"));
+        assertEquals(-1, store.findNetwork("00:00:00:00:00:04"));
+    }
+
+    @Test
+    public void copySsidTo_usesStrongestNetworkOfSsidOnEachFix() throws Exception {
+        NetworkStore store = new NetworkStore();
+        int office1 = store.internNetwork("00:00:00:00:00:01", "Office");
+        int office2 = store.internNetwork("00:00:00:00:00:02", "Office");
+        int lab = store.internNetwork("00:00:00:00:00:03", "Lab");
+
+        for (int i = 0; i < 100; i++) {
+            store.addFix(50 + i * 1e-5, 14, i, 5);
+            store.addObservation(lab, -30);
+            if (i % 2 == 0) store.addObservation(office1, -60);
+            if (i % 3 == 0) store.addObservation(office2, -50);
+        }
+
+        SampleStore samples = new SampleStore();
+        store.copySsidTo(store.findSsid("Office"), RssiReducer.create(RssiReducer.Type.MAX), samples);
+
+        // Fixes where at least one network of SSID is visible.
+        assertEquals(67, samples.size());
+        SampleStore.Snapshot snapshot = samples.snapshot();
+        assertEquals(-50, snapshot.getRssi(0));
+        assertEquals(-60, snapshot.getRssi(1));
+        assertEquals(2, snapshot.getTimestamp(1));
+    }
+}
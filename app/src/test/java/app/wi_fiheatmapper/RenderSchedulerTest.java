@@ -0,0 +1,51 @@
+package app.wi_fiheatmapper;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class RenderSchedulerTest {
+
+    @Test
+    public void requests_areCoalescedToOneRenderPerFrame() throws Exception {
+        RenderScheduler scheduler = new RenderScheduler(4);
+        assertEquals(RenderScheduler.NO_RENDER, scheduler.getDelay(0));
+
+        scheduler.request();
+        assertEquals(0, scheduler.getDelay(0));
+        scheduler.onRenderStarted(0);
+
+        // Requests during render wait for it.
+        scheduler.request();
+        scheduler.request();
+        assertEquals(RenderScheduler.NO_RENDER, scheduler.getDelay(100));
+        assertEquals(2, scheduler.getQueueDepth());
+
+        scheduler.onRenderFinished(100);
+        assertEquals(150, scheduler.getDelay(100));
+        scheduler.onRenderStarted(250);
+        scheduler.onRenderFinished(300);
+        assertEquals(RenderScheduler.NO_RENDER, scheduler.getDelay(300));
+
+        assertEquals(2, scheduler.getRenderCount());
+        assertEquals(3, scheduler.getRequestCount());
+        assertEquals(2, scheduler.getMaxQueueDepth());
+        assertEquals(75, scheduler.getMeanRenderTime());
+        assertEquals(100, scheduler.getMaxRenderTime());
+    }
+
+    @Test
+    public void cancelledRender_isStartedAfterResume() throws Exception {
+        RenderScheduler scheduler = new RenderScheduler(4);
+        scheduler.request();
+        scheduler.onRenderStarted(0);
+
+        scheduler.pause();
+        scheduler.onRenderCancelled();
+        assertEquals(RenderScheduler.NO_RENDER, scheduler.getDelay(1000));
+
+        scheduler.resume();
+        assertEquals(0, scheduler.getDelay(1000));
+        assertEquals(1, scheduler.getCancelledCount());
+    }
+}
@@ -0,0 +1,46 @@
+package app.wi_fiheatmapper;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class RssiFilterTest {
+
+    @Test
+    public void median_dropsSingleOutlier() throws Exception {
+        RssiFilter filter = RssiFilter.create(RssiFilter.Type.MEDIAN);
+        filter.filter(0, 1000, -60);
+        filter.filter(0, 2000, -62);
+
+        assertEquals(-62, filter.filter(0, 3000, -90), 0);
+        // Other network has own window.
+        assertEquals(-40, filter.filter(1, 3000, -40), 0);
+    }
+
+    @Test
+    public void ewma_weightsByElapsedTime() throws Exception {
+        RssiFilter filter = RssiFilter.create(RssiFilter.Type.EWMA);
+        filter.filter(0, 0, -60);
+
+        double soon = filter.filter(0, 100, -80);
+        filter.reset();
+        filter.filter(0, 0, -60);
+        double late = filter.filter(0, 6000, -80);
+
+        assertTrue(soon > -61);
+        assertTrue(late < -77);
+    }
+
+    @Test
+    public void kalman_convergesAndRestartsAfterGap() throws Exception {
+        RssiFilter filter = RssiFilter.create(RssiFilter.Type.KALMAN);
+        double rssi = filter.filter(0, 0, -50);
+        for (int i = 1; i <= 20; i++) {
+            rssi = filter.filter(0, i * 1000, i % 2 == 0 ? -66 : -74);
+        }
+        assertEquals(-70, rssi, 2);
+
+        assertEquals(-40, filter.filter(0, 20000 + RssiFilter.MAX_GAP + 1, -40), 0);
+    }
+}
@@ -0,0 +1,34 @@
+package app.wi_fiheatmapper;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class RssiReducerTest {
+
+    @Test
+    public void meanPower_averagesInMilliwatts() throws Exception {
+        RssiReducer reducer = RssiReducer.create(RssiReducer.Type.MEAN_POWER);
+
+        // -50 dBm has 100 times more power than -70 dBm, so mean is near -53 dBm, not -60 dBm.
+        assertEquals(-53, reducer.reduce(new int[]{0, 1}, new int[]{-50, -70}, 2));
+        assertEquals(Integer.MIN_VALUE, reducer.reduce(new int[0], new int[0], 0));
+    }
+
+    @Test
+    public void roaming_switchesOnlyWhenOtherIsStrongerByMargin() throws Exception {
+        RssiReducer reducer = RssiReducer.create(RssiReducer.Type.ROAMING);
+        int[] networks = {0, 1};
+
+        assertEquals(-50, reducer.reduce(networks, new int[]{-50, -60}, 2));
+        // Access point 1 is stronger, but not by margin.
+        assertEquals(-55, reducer.reduce(networks, new int[]{-55, -50}, 2));
+        assertEquals(-54, reducer.reduce(networks, new int[]{-54, -49}, 2));
+        assertEquals(-45, reducer.reduce(networks, new int[]{-70, -45}, 2));
+        // Access point 1 is not visible.
+        assertEquals(-70, reducer.reduce(new int[]{0}, new int[]{-70}, 1));
+
+        reducer.reset();
+        assertEquals(-50, reducer.reduce(networks, new int[]{-55, -50}, 2));
+    }
+}
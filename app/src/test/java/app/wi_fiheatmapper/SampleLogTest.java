@@ -0,0 +1,118 @@
+package app.wi_fiheatmapper;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+
+import static org.junit.Assert.assertEquals;
+
+public class SampleLogTest {
+
+    private File mFile;
+
+    @Before
+    public void setUp() throws Exception {
+        mFile = File.createTempFile("survey", SampleLog.EXTENSION);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mFile.delete();
+    }
+
+    @Test
+    public void open_afterClose_loadsAllFixesAndNetworks() throws Exception {
+        SampleLog log = SampleLog.create(mFile, 1000);
+        log.appendNetwork("00:11:22:33:44:55", "Office");
+        log.appendNetwork("00:11:22:33:44:66", "Long network name which needs two records");
+        int[] networks = new int[20];
+        int[] rssis = new int[20];
+        for (int i = 0; i < 20; i++) {
+            networks[i] = i % 2;
+            rssis[i] = -40 - i;
+        }
+        for (int i = 0; i < 100; i++) {
+            log.appendFix(50 + i * 1e-6, 14 + i * 1e-6, i * 1000L, i % 10, networks, rssis,
+                          i % 20);
+        }
+        log.close();
+
+        log = SampleLog.open(mFile);
+        NetworkStore store = new NetworkStore();
+        log.loadInto(store);
+        log.close();
+
+        assertEquals(1000, log.getCreatedTime());
+        assertEquals(2, log.getNetworkCount());
+        assertEquals("00:11:22:33:44:66", store.getBssid(1));
+        assertEquals("Long network name which needs two records",
+                     store.getSsid(store.getSsidId(1)));
+        assertEquals(100, store.getFixCount());
+        for (int i = 0; i < 100; i++) {
+            assertEquals(50 + i * 1e-6, store.getLatitude(i), 0);
+            assertEquals(14 + i * 1e-6, store.getLongitude(i), 0);
+            assertEquals(i * 1000L, store.getTimestamp(i));
+            assertEquals(i % 10, store.getAccuracy(i), 0);
+        }
+        int observations = store.getObservationCount(0) + store.getObservationCount(1);
+        int expected = 0;
+        for (int i = 0; i < 100; i++) {
+            expected += i % 20;
+        }
+        assertEquals(expected, observations);
+        assertEquals(-41, store.getObservationRssi(1, 0));
+    }
+
+    @Test
+    public void open_withoutClose_keepsNotSyncedFixes() throws Exception {
+        SampleLog log = SampleLog.create(mFile, 1000);
+        log.appendNetwork("00:11:22:33:44:55", "Office");
+        for (int i = 0; i < 20; i++) {
+            log.appendFix(50, 14, i, 5, new int[]{0}, new int[]{-50}, 1);
+        }
+        // Process died, log was not closed.
+
+        log = SampleLog.open(mFile);
+        NetworkStore store = new NetworkStore();
+        log.loadInto(store);
+        assertEquals(20, store.getFixCount());
+        assertEquals(20, store.getObservationCount(0));
+    }
+
+    @Test
+    public void open_tornRecords_areTruncated() throws Exception {
+        SampleLog log = SampleLog.create(mFile, 1000);
+        log.appendNetwork("00:11:22:33:44:55", "Office");
+        for (int i = 0; i < 20; i++) {
+            log.appendFix(50, 14, i, 5, new int[]{0}, new int[]{-50}, 1);
+        }
+        log.sync();
+        // First part of network is written, crash happens before its second part.
+        log.appendNetwork("00:11:22:33:44:66", "Long network name which needs two records");
+        long length = mFile.length();
+
+        RandomAccessFile file = new RandomAccessFile(mFile, "rw");
+        file.setLength(length - 16);
+        file.seek(length - 16);
+        file.write(new byte[]{1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16});
+        file.close();
+
+        log = SampleLog.open(mFile);
+        assertEquals(1, log.getNetworkCount());
+        assertEquals(41, log.size());
+        log.appendNetwork("00:11:22:33:44:77", "Lab");
+        log.appendFix(51, 15, 100, 5, new int[]{1}, new int[]{-60}, 1);
+        log.close();
+
+        NetworkStore store = new NetworkStore();
+        log = SampleLog.open(mFile);
+        log.loadInto(store);
+        log.close();
+        assertEquals("Lab", store.getSsid(store.getSsidId(1)));
+        assertEquals(21, store.getFixCount());
+        assertEquals(-60, store.getObservationRssi(1, 0));
+    }
+}
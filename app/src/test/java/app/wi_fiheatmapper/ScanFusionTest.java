@@ -0,0 +1,88 @@
+package app.wi_fiheatmapper;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ScanFusionTest {
+
+    private final List<int[]> mFixes = new ArrayList<>();
+    private ScanFusion mFusion;
+
+    @Before
+    public void setUp() throws Exception {
+        mFusion = new ScanFusion(new ScanFusion.Listener() {
+            @Override
+            public void onFusedFix(double latitude, double longitude, long timestamp,
+                                   float accuracy, int[] networks, int[] rssis, int count) {
+                // Fix is stored as time followed by pairs of network and RSSI.
+                int[] fix = new int[1 + count * 2];
+                fix[0] = (int) timestamp;
+                for (int i = 0; i < count; i++) {
+                    fix[1 + i * 2] = networks[i];
+                    fix[2 + i * 2] = rssis[i];
+                }
+                mFixes.add(fix);
+            }
+        }, ScanFusion.DEFAULT_SCAN_CAPACITY, 5000, 15);
+    }
+
+    @Test
+    public void fix_isInterpolatedBetweenScans() throws Exception {
+        mFusion.addScan(1000, new int[]{0, 1}, new int[]{-60, -80}, 2);
+        mFusion.addFix(50, 14, 1500, 5);
+        mFusion.addFix(50, 14, 2500, 5);
+
+        // Fixes wait for next scan.
+        assertEquals(0, mFixes.size());
+        mFusion.addScan(3000, new int[]{0, 2}, new int[]{-40, -70}, 2);
+
+        assertEquals(2, mFixes.size());
+        // Network 1 is only in nearer scan before fix, network 2 only in nearer scan after fix.
+        assertArrayEquals(new int[]{1500, 0, -55, 1, -80}, mFixes.get(0));
+        assertArrayEquals(new int[]{2500, 0, -45, 2, -70}, mFixes.get(1));
+    }
+
+    @Test
+    public void fix_withoutNextScan_usesScanBefore() throws Exception {
+        mFusion.addScan(1000, new int[]{0}, new int[]{-60}, 1);
+        mFusion.addFix(50, 14, 2000, 5);
+        mFusion.addFix(50, 14, 8000, 5);
+
+        assertEquals(1, mFixes.size());
+        assertArrayEquals(new int[]{2000, 0, -60}, mFixes.get(0));
+
+        // Scan is too old for second fix.
+        mFusion.flush();
+        assertEquals(1, mFixes.size());
+        assertEquals(0, mFusion.getPendingFixCount());
+    }
+
+    @Test
+    public void scan_olderThanPreviousScan_isDropped() throws Exception {
+        assertTrue(mFusion.addScan(3000, new int[]{0}, new int[]{-60}, 1));
+        // Scan of clock stepped back must not break fusion.
+        assertFalse(mFusion.addScan(1000, new int[]{0}, new int[]{-80}, 1));
+        mFusion.addFix(50, 14, 3500, 5);
+        mFusion.flush();
+
+        assertEquals(1, mFixes.size());
+        assertArrayEquals(new int[]{3500, 0, -60}, mFixes.get(0));
+    }
+
+    @Test
+    public void fix_withPoorAccuracy_isRejected() throws Exception {
+        mFusion.addScan(1000, new int[]{0}, new int[]{-60}, 1);
+
+        assertFalse(mFusion.addFix(50, 14, 1000, 30));
+        mFusion.flush();
+        assertEquals(0, mFixes.size());
+    }
+}
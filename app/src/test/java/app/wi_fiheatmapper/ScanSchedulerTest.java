@@ -0,0 +1,58 @@
+package app.wi_fiheatmapper;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ScanSchedulerTest {
+
+    @Test
+    public void interval_followsSpeedOfSurveyor() throws Exception {
+        ScanScheduler scheduler = new ScanScheduler(2000, 30000, 3);
+
+        // Unknown speed.
+        assertEquals(2000, scheduler.getInterval(0));
+        scheduler.setSpeed(0, 1);
+        assertEquals(3000, scheduler.getInterval(1000));
+        scheduler.setSpeed(0, 10);
+        assertEquals(2000, scheduler.getInterval(1000));
+        scheduler.setSpeed(0, 0.1f);
+        assertEquals(30000, scheduler.getInterval(1000));
+        // No fix for long time, surveyor is stationary.
+        scheduler.setSpeed(0, 1);
+        assertEquals(30000, scheduler.getInterval(ScanScheduler.STALE_SPEED_TIME + 1));
+    }
+
+    @Test
+    public void scan_waitsForResultsAndCountsLatency() throws Exception {
+        ScanScheduler scheduler = new ScanScheduler(2000, 30000, 3);
+        assertTrue(scheduler.shouldStart(0));
+        scheduler.onScanStarted(0, true);
+
+        assertFalse(scheduler.shouldStart(1000));
+        assertEquals(ScanScheduler.SCAN_TIMEOUT - 1000, scheduler.getDelay(1000));
+        scheduler.onScanResults(1500);
+        assertEquals(2000, scheduler.getDelay(1500));
+        // Results of scan of other app postpone next scan.
+        scheduler.onScanResults(3000);
+        assertEquals(2000, scheduler.getDelay(3000));
+
+        assertEquals(1, scheduler.getCompletedCount());
+        assertEquals(1, scheduler.getPassiveCount());
+        assertEquals(1500, scheduler.getMeanLatency());
+    }
+
+    @Test
+    public void scan_throttledOrLost_isCounted() throws Exception {
+        ScanScheduler scheduler = new ScanScheduler(2000, 30000, 3);
+        scheduler.onScanStarted(0, false);
+        assertEquals(30000, scheduler.getDelay(0));
+        assertEquals(1, scheduler.getThrottledCount());
+
+        scheduler.onScanStarted(30000, true);
+        assertTrue(scheduler.shouldStart(30000 + ScanScheduler.SCAN_TIMEOUT));
+        assertEquals(1, scheduler.getTimeoutCount());
+    }
+}
@@ -0,0 +1,95 @@
+package app.wi_fiheatmapper;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SurveyFormatTest {
+
+    @Test
+    public void binary_roundTrip_keepsSamples() throws Exception {
+        SampleStore store = createStore(3000);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        SurveyWriter writer = SurveyWriter.create(SurveyWriter.Format.BINARY, out,
+                                                  "Caf\u00e9 \"1\"");
+        writer.writeAll(store.snapshot());
+        writer.close();
+
+        // Delta coords and varints need much less than 32 bytes of raw sample.
+        assertTrue(out.size() < 3000 * 12);
+
+        SampleStore imported = new SampleStore();
+        assertEquals("Caf\u00e9 \"1\"", SurveyReader.read(new ByteArrayInputStream(out.toByteArray()),
+                                                      imported));
+        assertSameSamples(store.snapshot(), imported.snapshot());
+    }
+
+    @Test
+    public void csv_roundTrip_keepsSamples() throws Exception {
+        SampleStore store = createStore(50);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        SurveyWriter writer = SurveyWriter.create(SurveyWriter.Format.CSV, out, "Office, 2nd");
+        writer.writeAll(store.snapshot());
+        writer.close();
+
+        SampleStore imported = new SampleStore();
+        assertEquals("Office, 2nd", SurveyReader.read(new ByteArrayInputStream(out.toByteArray()),
+                                                      imported));
+        assertSameSamples(store.snapshot(), imported.snapshot());
+    }
+
+    @Test
+    public void geoJson_writesFeatureOfEachSample() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        SurveyWriter writer = SurveyWriter.create(SurveyWriter.Format.GEOJSON, out, "Office");
+        writer.write(50.1, 14.2, -55, 1000, 4.5f);
+        writer.write(50.2, 14.3, -65, 2000, 3f);
+        writer.close();
+
+        String json = new String(out.toByteArray(), "UTF-8");
+        assertTrue(json.startsWith("{\"type\":\"FeatureCollection\""));
+        assertTrue(json.contains("\"coordinates\":[14.2000000,50.1000000]"));
+        assertTrue(json.contains("\"rssi\":-65"));
+        assertTrue(json.trim().endsWith("]}"));
+    }
+
+    @Test(expected = IOException.class)
+    public void binary_corruptedSsidLength_throwsIOException() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        DataOutputStream data = new DataOutputStream(out);
+        data.writeInt(SurveyWriter.MAGIC);
+        data.writeByte(SurveyWriter.VERSION);
+        // Varint of 2^32 - 1, negative length if cast to int.
+        data.write(new byte[]{(byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x0F});
+        data.close();
+
+        SurveyReader.read(new ByteArrayInputStream(out.toByteArray()), new SampleStore());
+    }
+
+    private static SampleStore createStore(int count) {
+        SampleStore store = new SampleStore();
+        for (int i = 0; i < count; i++) {
+            store.append(50.0875 + i * 2e-6, 14.4213 - i * 1e-6, -40 - i % 50,
+                         1460000000000L + i * 1000L, 3 + i % 10 / 10f);
+        }
+        return store;
+    }
+
+    private static void assertSameSamples(SampleStore.Snapshot expected,
+                                          SampleStore.Snapshot actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.getLatitude(i), actual.getLatitude(i), 1e-7);
+            assertEquals(expected.getLongitude(i), actual.getLongitude(i), 1e-7);
+            assertEquals(expected.getRssi(i), actual.getRssi(i));
+            assertEquals(expected.getTimestamp(i), actual.getTimestamp(i));
+            assertEquals(expected.getAccuracy(i), actual.getAccuracy(i), 0.05);
+        }
+    }
+}
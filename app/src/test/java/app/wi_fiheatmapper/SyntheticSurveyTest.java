@@ -0,0 +1,108 @@
+package app.wi_fiheatmapper;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SyntheticSurveyTest {
+
+    private static final double LATITUDE = 50.0875;
+    private static final double LONGITUDE = 14.421;
+    private static final float AREA_SIZE = 60;
+
+    @Test
+    public void sameSeedGivesSameSurvey() {
+        SyntheticSurvey first = new SyntheticSurvey(7, 0, LATITUDE, LONGITUDE, AREA_SIZE, 120);
+        SyntheticSurvey second = new SyntheticSurvey(7, 0, LATITUDE, LONGITUDE, AREA_SIZE, 120);
+
+        for (long time = 0; time < 60000; time += 2000) {
+            WifiScan a = first.getScan(time);
+            WifiScan b = second.getScan(time);
+            assertEquals(a.size(), b.size());
+            for (int i = 0; i < a.size(); i++) {
+                assertEquals(a.getBssid(i), b.getBssid(i));
+                assertEquals(a.getRssi(i), b.getRssi(i));
+            }
+        }
+    }
+
+    @Test
+    public void scanContainsOnlyVisibleAccessPoints() {
+        SyntheticSurvey survey = new SyntheticSurvey(1, 0, LATITUDE, LONGITUDE, AREA_SIZE, 120);
+
+        WifiScan scan = survey.getScan(10000);
+        assertEquals(10000, scan.getTimestamp());
+        assertTrue(scan.size() > 0);
+        assertTrue(scan.size() <= survey.getAccessPointCount());
+        for (int i = 0; i < scan.size(); i++) {
+            assertTrue(scan.getRssi(i) >= SyntheticSurvey.SENSITIVITY);
+            assertTrue(scan.getSsid(i).startsWith("synthetic-"));
+        }
+    }
+
+    @Test
+    public void accessPointIsWeakerFarAway() {
+        // One access point, surveyor walks along first lane away from it or towards it.
+        SyntheticSurvey survey = new SyntheticSurvey(3, 0, LATITUDE, LONGITUDE, AREA_SIZE, 1);
+        survey.setNoise(0);
+        survey.setPathLossExponent(2);
+        survey.setSpeed(1);
+
+        // RSSI rises until surveyor passes access point and then only falls.
+        boolean passed = false;
+        int lastRssi = survey.getScan(0).getRssi(0);
+        for (long time = 1000; time <= 60000; time += 1000) {
+            int rssi = survey.getScan(time).getRssi(0);
+            if (rssi < lastRssi) passed = true;
+            if (passed) assertTrue(rssi <= lastRssi);
+            lastRssi = rssi;
+        }
+    }
+
+    @Test
+    public void fixesStayInArea() {
+        SyntheticSurvey survey = new SyntheticSurvey(1, 1000, LATITUDE, LONGITUDE, AREA_SIZE, 10);
+        survey.setFixAccuracy(0);
+        LocalProjection projection = new LocalProjection(LATITUDE, LONGITUDE);
+
+        for (long time = 1000; time < 3600000; time += 7000) {
+            SyntheticSurvey.Fix fix = survey.getFix(time);
+            float x = projection.toX(fix.getLongitude());
+            float y = projection.toY(fix.getLatitude());
+            assertTrue(x > -0.01 && x < AREA_SIZE + 0.01);
+            assertTrue(y > -0.01 && y < AREA_SIZE + 0.01);
+            assertEquals(time, fix.getTimestamp());
+        }
+    }
+
+    @Test
+    public void fastPlayerDeliversEventsInOrder() {
+        SyntheticSurvey survey = new SyntheticSurvey(1, 5000, LATITUDE, LONGITUDE, AREA_SIZE, 120);
+        final List<Long> scans = new ArrayList<>();
+        final List<Long> fixes = new ArrayList<>();
+        SyntheticPlayer player = new SyntheticPlayer(survey, 2000, 1000, 600000, false,
+                                                     new SyntheticPlayer.Listener() {
+            @Override
+            public void onScan(WifiScan scan) {
+                scans.add(scan.getTimestamp());
+            }
+
+            @Override
+            public void onFix(SyntheticSurvey.Fix fix) {
+                fixes.add(fix.getTimestamp());
+            }
+        });
+
+        player.run();
+
+        assertEquals(300, scans.size());
+        assertEquals(601, fixes.size());
+        assertEquals(7000, (long) scans.get(0));
+        assertEquals(5000, (long) fixes.get(0));
+        assertEquals(605000, (long) scans.get(scans.size() - 1));
+    }
+}
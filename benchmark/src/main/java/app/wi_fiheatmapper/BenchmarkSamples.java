@@ -0,0 +1,43 @@
+package app.wi_fiheatmapper;
+
+import java.util.Random;
+
+/**
+ * Random samples spread over square raster, same for each run of benchmark.
+ */
+final class BenchmarkSamples {
+
+    final float[] mXs;
+    final float[] mYs;
+    final int[] mRssis;
+
+    BenchmarkSamples(int count, int rasterSize) {
+        Random random = new Random(42);
+        mXs = new float[count];
+        mYs = new float[count];
+        mRssis = new int[count];
+        for (int i = 0; i < count; i++) {
+            mXs[i] = random.nextFloat() * rasterSize;
+            mYs[i] = random.nextFloat() * rasterSize;
+            mRssis[i] = -30 - random.nextInt(60);
+        }
+    }
+
+    /**
+     * Search radius of heatmap like in app, where bitmap of 128 pixels have radius of few pixels.
+     */
+    static float searchRadius(int rasterSize) {
+        return Math.max(rasterSize / 32f, 2f);
+    }
+
+    /**
+     * Integer coords of pixels in row or column of raster.
+     */
+    static float[] pixelCoords(int size) {
+        float[] coords = new float[size];
+        for (int i = 0; i < size; i++) {
+            coords[i] = i;
+        }
+        return coords;
+    }
+}
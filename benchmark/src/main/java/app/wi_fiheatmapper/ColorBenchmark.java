@@ -0,0 +1,65 @@
+package app.wi_fiheatmapper;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of color of one pixel computed from RSSI and looked up in palette.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ColorBenchmark {
+
+    private static final int PIXELS = 4096;
+    private static final int MIN_RSSI = -90;
+    private static final int MAX_RSSI = -30;
+
+    private final HeatmapColors.Palette mPalette = new HeatmapColors.Palette();
+    private int[] mRssis;
+    private int[] mPixels;
+
+    @Setup
+    public void setUp() {
+        mPalette.setRange(MIN_RSSI, MAX_RSSI);
+        Random random = new Random(7);
+        mRssis = new int[PIXELS];
+        for (int i = 0; i < PIXELS; i++) {
+            mRssis[i] = MIN_RSSI + random.nextInt(MAX_RSSI - MIN_RSSI + 1);
+        }
+        mPixels = new int[PIXELS];
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PIXELS)
+    public int[] rssiColor() {
+        for (int i = 0; i < PIXELS; i++) {
+            mPixels[i] = HeatmapColors.rssiColor(mRssis[i], MIN_RSSI, MAX_RSSI);
+        }
+        return mPixels;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PIXELS)
+    public int[] palette() {
+        for (int i = 0; i < PIXELS; i++) {
+            mPixels[i] = mPalette.colorOf(mRssis[i]);
+        }
+        return mPixels;
+    }
+}
@@ -0,0 +1,77 @@
+package app.wi_fiheatmapper;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of fitting interpolator to samples and of estimating RSSI in one pixel by each type of
+ * interpolator.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InterpolationBenchmark {
+
+    private static final int RASTER_SIZE = 512;
+    private static final int QUERIES = 1024;
+
+    @Param({"10", "100", "1000", "10000", "100000"})
+    public int sampleCount;
+
+    @Param({"IDW", "RBF", "KRIGING"})
+    public Interpolator.Type type;
+
+    private BenchmarkSamples mSamples;
+    private Interpolator mInterpolator;
+    private Interpolator.Query mQuery;
+    private float[] mQueryXs;
+    private float[] mQueryYs;
+
+    @Setup
+    public void setUp() {
+        mSamples = new BenchmarkSamples(sampleCount, RASTER_SIZE);
+        mInterpolator = Interpolator.create(type, 3f, 12, BenchmarkSamples.searchRadius(RASTER_SIZE));
+        mInterpolator.setPoints(mSamples.mXs, mSamples.mYs, mSamples.mRssis, sampleCount);
+        mQuery = mInterpolator.newQuery();
+
+        Random random = new Random(7);
+        mQueryXs = new float[QUERIES];
+        mQueryYs = new float[QUERIES];
+        for (int i = 0; i < QUERIES; i++) {
+            mQueryXs[i] = random.nextFloat() * RASTER_SIZE;
+            mQueryYs[i] = random.nextFloat() * RASTER_SIZE;
+        }
+    }
+
+    @Benchmark
+    public int setPoints() {
+        mInterpolator.setPoints(mSamples.mXs, mSamples.mYs, mSamples.mRssis, sampleCount);
+        return mInterpolator.getCount();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(QUERIES)
+    public int estimate() {
+        int sum = 0;
+        for (int i = 0; i < QUERIES; i++) {
+            sum += mQuery.estimate(mQueryXs[i], mQueryYs[i]);
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,72 @@
+package app.wi_fiheatmapper;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of rendering whole heatmap raster like bitmap task of app, without copying to bitmap.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RenderBenchmark {
+
+    @Param({"10", "1000", "100000"})
+    public int sampleCount;
+
+    @Param({"64", "256", "1024", "2048"})
+    public int rasterSize;
+
+    /**
+     * Count of rendering threads, 0 means all cores.
+     */
+    @Param({"1", "0"})
+    public int threads;
+
+    private IdwInterpolator mInterpolator;
+    private HeatmapRasterizer mRasterizer;
+    private final HeatmapColors.Palette mPalette = new HeatmapColors.Palette();
+    private final DirtyRegion mRegion = new DirtyRegion();
+    private float[] mCoords;
+    private int[] mPixels;
+
+    @Setup
+    public void setUp() {
+        BenchmarkSamples samples = new BenchmarkSamples(sampleCount, rasterSize);
+        mInterpolator = new IdwInterpolator(3f, 12, BenchmarkSamples.searchRadius(rasterSize));
+        mInterpolator.setPoints(samples.mXs, samples.mYs, samples.mRssis, sampleCount);
+        mRasterizer = new HeatmapRasterizer(threads > 0 ? threads
+                                                    : Runtime.getRuntime().availableProcessors());
+        mPalette.setRange(-90, -30);
+        mRegion.add(0, 0, rasterSize, rasterSize);
+        mCoords = BenchmarkSamples.pixelCoords(rasterSize);
+        mPixels = new int[rasterSize * rasterSize];
+    }
+
+    @TearDown
+    public void tearDown() {
+        mRasterizer.shutdown();
+    }
+
+    @Benchmark
+    public int[] render() {
+        mRasterizer.render(mInterpolator, mCoords, mCoords, mPalette, mRegion, mPixels, rasterSize,
+                           null);
+        return mPixels;
+    }
+}
@@ -0,0 +1,104 @@
+package app.wi_fiheatmapper;
+
+/**
+ * Set of pixel rectangles which have to be rendered again.
+ * Overlapping rectangles are merged, so every pixel is rendered only once.
+ */
+public class DirtyRegion {
+
+    // Rectangles as [left, top, right, bottom] with exclusive right and bottom.
+    private int[] mRects = new int[4 * 8];
+    private int mCount;
+
+    /**
+     * Add rectangle to region. Rectangle is merged with all rectangles it overlaps.
+     */
+    public void add(int left, int top, int right, int bottom) {
+        if (left >= right || top >= bottom) return;
+
+        // Merge with overlapping rectangles until no rectangle overlaps merged one.
+        boolean merged = true;
+        while (merged) {
+            merged = false;
+            for (int i = 0; i < mCount; i++) {
+                int offset = i * 4;
+                if (left < mRects[offset + 2] && mRects[offset] < right
+                        && top < mRects[offset + 3] && mRects[offset + 1] < bottom) {
+                    left = Math.min(left, mRects[offset]);
+                    top = Math.min(top, mRects[offset + 1]);
+                    right = Math.max(right, mRects[offset + 2]);
+                    bottom = Math.max(bottom, mRects[offset + 3]);
+                    remove(i);
+                    merged = true;
+                    break;
+                }
+            }
+        }
+
+        if (mRects.length == mCount * 4) {
+            int[] rects = new int[mRects.length * 2];
+            System.arraycopy(mRects, 0, rects, 0, mRects.length);
+            mRects = rects;
+        }
+        int offset = mCount * 4;
+        mRects[offset] = left;
+        mRects[offset + 1] = top;
+        mRects[offset + 2] = right;
+        mRects[offset + 3] = bottom;
+        mCount++;
+    }
+
+    public void clear() {
+        mCount = 0;
+    }
+
+    public boolean isEmpty() {
+        return mCount == 0;
+    }
+
+    /**
+     * @return Count of rectangles in region.
+     */
+    public int size() {
+        return mCount;
+    }
+
+    public int getLeft(int i) {
+        return mRects[i * 4];
+    }
+
+    public int getTop(int i) {
+        return mRects[i * 4 + 1];
+    }
+
+    /**
+     * @return Right edge of rectangle, exclusive.
+     */
+    public int getRight(int i) {
+        return mRects[i * 4 + 2];
+    }
+
+    /**
+     * @return Bottom edge of rectangle, exclusive.
+     */
+    public int getBottom(int i) {
+        return mRects[i * 4 + 3];
+    }
+
+    /**
+     * @return Count of pixels in region.
+     */
+    public int getArea() {
+        int area = 0;
+        for (int i = 0; i < mCount; i++) {
+            area += (getRight(i) - getLeft(i)) * (getBottom(i) - getTop(i));
+        }
+        return area;
+    }
+
+    private void remove(int i) {
+        mCount--;
+        // Order of rectangles does not matter, so move last rectangle to removed one.
+        System.arraycopy(mRects, mCount * 4, mRects, i * 4, 4);
+    }
+}
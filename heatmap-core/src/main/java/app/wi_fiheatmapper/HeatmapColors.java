@@ -0,0 +1,96 @@
+package app.wi_fiheatmapper;
+
+/**
+ * Colors used for drawing heatmap. Strongest signal is green, weakest is red.
+ */
+public final class HeatmapColors {
+
+    /**
+     * Alpha of heatmap pixels, so map is visible under heatmap.
+     */
+    public static final int ALPHA = 128;
+
+    private HeatmapColors() {
+    }
+
+    /**
+     * Get opaque color of relative signal strength.
+     *
+     * @param relativeSignal Signal strength relative to range of collected RSSIs.
+     *                       0 = strongest signal, 1 = weakest signal.
+     * @return ARGB color.
+     */
+    public static int generateColor(double relativeSignal) {
+        int red = 0xFF;
+        int green = 0xFF;
+        if (relativeSignal >= 0.5) {
+            // From half substract red from green to make full green.
+            red = (int) ((1 - relativeSignal) * 0xFF / 0.5);
+        } else {
+            // To half of range add green to red to make orange.
+            green = (int) ((relativeSignal) * 0xFF / 0.5);
+        }
+
+        return 0xFF000000 | (red << 16) | (green << 8);
+    }
+
+    /**
+     * Get translucent color of heatmap pixel with RSSI.
+     *
+     * @param rssi    RSSI of pixel.
+     * @param minRssi Weakest collected RSSI.
+     * @param maxRssi Strongest collected RSSI.
+     * @return ARGB color.
+     */
+    public static int rssiColor(int rssi, int minRssi, int maxRssi) {
+        // Signal strenght relative to range of currently collected RSSIs.
+        // 0 = strongest signal
+        // 1 = weakest signal
+        double relativeSignalStrenght;
+        if (minRssi - maxRssi == 0) {
+            relativeSignalStrenght = 0.5;
+        } else {
+            relativeSignalStrenght = (rssi - maxRssi) / (double) (minRssi - maxRssi);
+        }
+
+        return (generateColor(relativeSignalStrenght) & 0x00FFFFFF) | (ALPHA << 24);
+    }
+
+    /**
+     * Lookup table of colors for each RSSI in collected range, so pixel color is only array access.
+     * Palette is not changed during rendering, so it can be shared by rendering threads.
+     */
+    public static final class Palette {
+        private int[] mColors = new int[128];
+        private int mMinRssi = 0;
+        private int mMaxRssi = -1;
+
+        /**
+         * Compute colors for RSSI range. Colors are computed again only if range changed.
+         *
+         * @param minRssi Weakest collected RSSI.
+         * @param maxRssi Strongest collected RSSI.
+         */
+        public void setRange(int minRssi, int maxRssi) {
+            if (minRssi == mMinRssi && maxRssi == mMaxRssi) return;
+
+            int size = maxRssi - minRssi + 1;
+            if (mColors.length < size) mColors = new int[size];
+            for (int i = 0; i < size; i++) {
+                mColors[i] = rssiColor(minRssi + i, minRssi, maxRssi);
+            }
+            mMinRssi = minRssi;
+            mMaxRssi = maxRssi;
+        }
+
+        /**
+         * @param rssi RSSI of pixel, clamped to range of palette.
+         * @return Translucent color of pixel.
+         */
+        public int colorOf(int rssi) {
+            if (rssi < mMinRssi) rssi = mMinRssi;
+            if (rssi > mMaxRssi) rssi = mMaxRssi;
+            return mColors[rssi - mMinRssi];
+        }
+    }
+}
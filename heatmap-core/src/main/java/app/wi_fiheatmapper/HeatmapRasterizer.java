@@ -0,0 +1,226 @@
+package app.wi_fiheatmapper;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Rasterizer of heatmap to ARGB pixels.
+ * <p/>
+ * Rendered region is split to bands of few rows. Bands are taken one by one by worker threads and
+ * calling thread, so all threads have work until whole region is rendered even if some bands are
+ * more expensive. Each thread writes only own rows of shared pixel buffer.
+ */
+public class HeatmapRasterizer {
+
+    /**
+     * Used for cooperative cancellation of rendering. Checked after each row.
+     */
+    public interface Cancellation {
+        boolean isCancelled();
+    }
+
+    private static final int BAND_ROWS = 8;
+
+    private final int mThreads;
+    private final ExecutorService mExecutor;
+
+    /**
+     * @param threads Count of threads rendering in parallel including calling thread. One means
+     *                rendering only on calling thread.
+     */
+    public HeatmapRasterizer(int threads) {
+        mThreads = Math.max(threads, 1);
+        if (mThreads > 1) {
+            mExecutor = new ThreadPoolExecutor(mThreads - 1, mThreads - 1, 30, TimeUnit.SECONDS,
+                                               new LinkedBlockingQueue<Runnable>(),
+                                               new WorkerThreadFactory());
+            ((ThreadPoolExecutor) mExecutor).allowCoreThreadTimeOut(true);
+        } else {
+            mExecutor = null;
+        }
+    }
+
+    /**
+     * Stop worker threads. Rasterizer cannot be used after shutdown.
+     */
+    public void shutdown() {
+        if (mExecutor != null) mExecutor.shutdownNow();
+    }
+
+    /**
+     * Render region of raster. Pixel (column, row) is estimated on (columnXs[column], rowYs[row])
+     * coords of interpolator and written to pixels[row * stride + column]. Pixels without estimated
+     * value are transparent.
+     *
+     * @param interpolator Interpolator of RSSI.
+     * @param columnXs     Interpolator X coord of each column.
+     * @param rowYs        Interpolator Y coord of each row.
+     * @param palette      Colors of RSSIs.
+     * @param region       Region of raster to render.
+     * @param pixels       Buffer for rendered pixels.
+     * @param stride       Count of pixels in row of buffer.
+     * @param cancellation Cancellation of rendering, can be null.
+     * @return False if rendering was cancelled and region is not rendered completely.
+     */
+    public boolean render(Interpolator interpolator, float[] columnXs, float[] rowYs,
+                          HeatmapColors.Palette palette, DirtyRegion region, int[] pixels, int stride,
+                          Cancellation cancellation) {
+        // Split rectangles of region to bands.
+        int bandCount = 0;
+        for (int i = 0; i < region.size(); i++) {
+            bandCount += (region.getBottom(i) - region.getTop(i) + BAND_ROWS - 1) / BAND_ROWS;
+        }
+        if (bandCount == 0) return true;
+        int[] bands = new int[bandCount * 4];
+        int offset = 0;
+        for (int i = 0; i < region.size(); i++) {
+            for (int top = region.getTop(i); top < region.getBottom(i); top += BAND_ROWS) {
+                bands[offset++] = region.getLeft(i);
+                bands[offset++] = top;
+                bands[offset++] = region.getRight(i);
+                bands[offset++] = Math.min(top + BAND_ROWS, region.getBottom(i));
+            }
+        }
+
+        Job job = new Job(interpolator, columnXs, rowYs, palette, bands, pixels, stride,
+                          cancellation);
+
+        int workers = mExecutor == null ? 0 : Math.min(mThreads - 1, bandCount - 1);
+        CountDownLatch done = new CountDownLatch(workers);
+        for (int i = 0; i < workers; i++) {
+            try {
+                mExecutor.execute(new Worker(job, done));
+            } catch (RejectedExecutionException e) {
+                // Rasterizer is shut down, calling thread renders all bands.
+                done.countDown();
+            }
+        }
+        job.run();
+
+        // Wait for workers even if interrupted, so no worker writes to pixels after return.
+        boolean interrupted = false;
+        while (true) {
+            try {
+                done.await();
+                break;
+            } catch (InterruptedException e) {
+                job.mCancelled.set(true);
+                interrupted = true;
+            }
+        }
+        if (interrupted) Thread.currentThread().interrupt();
+
+        Throwable error = job.mError.get();
+        if (error instanceof RuntimeException) throw (RuntimeException) error;
+        if (error instanceof Error) throw (Error) error;
+
+        return !job.mCancelled.get();
+    }
+
+    /**
+     * Rendering shared by all threads.
+     */
+    private static class Job {
+        private final Interpolator mInterpolator;
+        private final float[] mColumnXs;
+        private final float[] mRowYs;
+        private final HeatmapColors.Palette mPalette;
+        private final int[] mBands;
+        private final int[] mPixels;
+        private final int mStride;
+        private final Cancellation mCancellation;
+
+        private final AtomicInteger mNextBand = new AtomicInteger();
+        private final AtomicBoolean mCancelled = new AtomicBoolean();
+        private final AtomicReference<Throwable> mError = new AtomicReference<>();
+
+        Job(Interpolator interpolator, float[] columnXs, float[] rowYs,
+            HeatmapColors.Palette palette, int[] bands, int[] pixels, int stride,
+            Cancellation cancellation) {
+            mInterpolator = interpolator;
+            mColumnXs = columnXs;
+            mRowYs = rowYs;
+            mPalette = palette;
+            mBands = bands;
+            mPixels = pixels;
+            mStride = stride;
+            mCancellation = cancellation;
+        }
+
+        /**
+         * Render bands until all bands are taken.
+         */
+        void run() {
+            try {
+                Interpolator.Query query = mInterpolator.newQuery();
+                int band;
+                while ((band = mNextBand.getAndIncrement()) < mBands.length / 4) {
+                    if (!renderBand(query, band * 4)) return;
+                }
+            } catch (Throwable e) {
+                mError.compareAndSet(null, e);
+                mCancelled.set(true);
+            }
+        }
+
+        private boolean renderBand(Interpolator.Query query, int offset) {
+            int left = mBands[offset];
+            int right = mBands[offset + 2];
+            for (int row = mBands[offset + 1]; row < mBands[offset + 3]; row++) {
+                if (mCancelled.get()) return false;
+                if (mCancellation != null && mCancellation.isCancelled()) {
+                    mCancelled.set(true);
+                    return false;
+                }
+
+                float y = mRowYs[row];
+                int rowOffset = row * mStride;
+                for (int column = left; column < right; column++) {
+                    int rssi = query.estimate(mColumnXs[column], y);
+                    mPixels[rowOffset + column] = rssi == Interpolator.NO_VALUE
+                            ? 0 : mPalette.colorOf(rssi);
+                }
+            }
+            return true;
+        }
+    }
+
+    private static class Worker implements Runnable {
+        private final Job mJob;
+        private final CountDownLatch mDone;
+
+        Worker(Job job, CountDownLatch done) {
+            mJob = job;
+            mDone = done;
+        }
+
+        @Override
+        public void run() {
+            try {
+                mJob.run();
+            } finally {
+                mDone.countDown();
+            }
+        }
+    }
+
+    private static class WorkerThreadFactory implements ThreadFactory {
+        private final AtomicInteger mCount = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "HeatmapRasterizer-" + mCount.incrementAndGet());
+            thread.setDaemon(true);
+            thread.setPriority(Thread.NORM_PRIORITY - 1);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,356 @@
+package app.wi_fiheatmapper;
+
+/**
+ * Renders heatmap of samples to raster of ARGB pixels covering surveyed area.
+ * <p/>
+ * Raster covers bounds of samples expanded by margin. Its longer side has max dimension and
+ * shorter side is power of two. Samples are mapped to pixels from their coords in meters projected
+ * by store, so render does no geographic math per sample.
+ * <p/>
+ * If bounds and range of RSSI are same as in last render, only pixels around changed samples are
+ * rendered again, other pixels are kept from last render. This is done only for
+ * {@link Interpolator#isLocal() local} interpolator, other ones render all pixels after each fit.
+ * Interpolator is fitted again only if samples or raster changed, e.g. render cancelled by new
+ * request is rendered again without fitting.
+ * <p/>
+ * Renderer reuses its buffers for next render, so it is not thread safe and renders must not run
+ * concurrently. Results are valid until next render.
+ */
+public class HeatmapRenderer {
+
+    /**
+     * Min margin around samples in meters, so heatmap is shown also around boundary samples.
+     */
+    private static final float BOUNDS_MARGIN = 10;
+
+    private final HeatmapRasterizer mRasterizer;
+    private final int mMaxDimen;
+    private final float mSearchRadius;
+    private final float mMinSearchRadiusPx;
+    private Interpolator mInterpolator;
+    private final HeatmapColors.Palette mPalette = new HeatmapColors.Palette();
+    private final DirtyRegion mRegion = new DirtyRegion();
+
+    private float[] mXs = new float[0];
+    private float[] mYs = new float[0];
+    private int[] mRssis = new int[0];
+    private float[] mColumnXs = new float[0];
+    private float[] mRowYs = new float[0];
+    private int[] mPixels = new int[0];
+
+    /**
+     * True if pixels contain completely rendered heatmap of last render.
+     */
+    private boolean mValid;
+    private boolean mFullRender;
+    /**
+     * Projection of samples of last render. Bounds are in meters of this projection.
+     */
+    private LocalProjection mProjection;
+    private float mLeft;
+    private float mBottom;
+    private float mRight;
+    private float mTop;
+    private double mSouth;
+    private double mWest;
+    private double mNorth;
+    private double mEast;
+    private int mWidth;
+    private int mHeight;
+    private int mMinRssi;
+    private int mMaxRssi;
+
+    /**
+     * Samples and search radius to which interpolator is fitted, null if it is not fitted.
+     */
+    private SampleStore.Snapshot mFittedSamples;
+    private float mFittedSearchRadius;
+    private long mFitNanos;
+    private long mPixelNanos;
+
+    /**
+     * @param rasterizer        Rasterizer used for rendering.
+     * @param exponent          Power parameter of IDW.
+     * @param maxNeighbours     Count of nearest samples used for estimating RSSI of pixel.
+     * @param searchRadius      Max distance in meters of samples used for estimating RSSI of pixel.
+     * @param minSearchRadiusPx Min search radius in pixels, so heatmap of large area is not only
+     *                          dots around samples.
+     * @param maxDimen          Max dimension of raster in pixels.
+     */
+    public HeatmapRenderer(HeatmapRasterizer rasterizer, float exponent, int maxNeighbours,
+                           float searchRadius, float minSearchRadiusPx, int maxDimen) {
+        this(rasterizer, new IdwInterpolator(exponent, maxNeighbours, minSearchRadiusPx),
+             searchRadius, minSearchRadiusPx, maxDimen);
+    }
+
+    /**
+     * @param rasterizer        Rasterizer used for rendering.
+     * @param interpolator      Interpolator of RSSI, its search radius is set by renderer.
+     * @param searchRadius      Max distance in meters of samples used for estimating RSSI of pixel.
+     * @param minSearchRadiusPx Min search radius in pixels, so heatmap of large area is not only
+     *                          dots around samples.
+     * @param maxDimen          Max dimension of raster in pixels.
+     */
+    public HeatmapRenderer(HeatmapRasterizer rasterizer, Interpolator interpolator,
+                           float searchRadius, float minSearchRadiusPx, int maxDimen) {
+        mRasterizer = rasterizer;
+        mMaxDimen = maxDimen;
+        mSearchRadius = searchRadius;
+        mMinSearchRadiusPx = minSearchRadiusPx;
+        mInterpolator = interpolator;
+    }
+
+    /**
+     * Replace interpolator. Next render is full.
+     */
+    public void setInterpolator(Interpolator interpolator) {
+        mInterpolator = interpolator;
+        mFittedSamples = null;
+        mValid = false;
+    }
+
+    public Interpolator getInterpolator() {
+        return mInterpolator;
+    }
+
+    /**
+     * Render heatmap of samples.
+     *
+     * @param samples      Samples of heatmap, must not be empty.
+     * @param dirtySamples Indexes of samples changed since last render or null if all samples changed.
+     * @param cancellation Cancellation of rendering, can be null.
+     * @return False if rendering was cancelled. Pixels are not valid then and next render is full.
+     */
+    public boolean render(SampleStore.Snapshot samples, int[] dirtySamples,
+                          HeatmapRasterizer.Cancellation cancellation) {
+        // Find range of RSSI, bounds are kept by store.
+        int count = samples.size();
+        int maxRssi = Integer.MIN_VALUE;
+        int minRssi = Integer.MAX_VALUE;
+        for (int i = 0; i < count; i++) {
+            maxRssi = Math.max(maxRssi, samples.getRssi(i));
+            minRssi = Math.min(minRssi, samples.getRssi(i));
+        }
+        float minX = samples.getMinX();
+        float minY = samples.getMinY();
+        float maxX = samples.getMaxX();
+        float maxY = samples.getMaxY();
+
+        // Colors of all pixels depend on RSSI range.
+        boolean fullRender = dirtySamples == null || !mValid
+                || minRssi != mMinRssi || maxRssi != mMaxRssi;
+        mMinRssi = minRssi;
+        mMaxRssi = maxRssi;
+        // Pixels are valid again only after completed render.
+        mValid = false;
+
+        // Bounds are set by first render and expanded if samples are out of them.
+        LocalProjection projection = samples.getProjection();
+        if (mWidth == 0 || projection != mProjection || minX < mLeft || maxX > mRight
+                || minY < mBottom || maxY > mTop) {
+            // Expand bounds for showing heatmap around boundary points. Expand them also by
+            // quarter of area in each direction, so bounds do not change with every new sample
+            // on boundary.
+            float xMargin = BOUNDS_MARGIN + (maxX - minX) / 4;
+            float yMargin = BOUNDS_MARGIN + (maxY - minY) / 4;
+            mProjection = projection;
+            mLeft = minX - xMargin;
+            mBottom = minY - yMargin;
+            mRight = maxX + xMargin;
+            mTop = maxY + yMargin;
+            mSouth = projection.toLatitude(mBottom);
+            mWest = projection.toLongitude(mLeft);
+            mNorth = projection.toLatitude(mTop);
+            mEast = projection.toLongitude(mRight);
+            fullRender = true;
+            mFittedSamples = null;
+        }
+
+        // Dimensions of surveyed area in meters.
+        float areaWidth = mRight - mLeft;
+        float areaHeight = mTop - mBottom;
+
+        // Calculate raster dimensions by size of area.
+        int width;
+        int height;
+        if (areaWidth > areaHeight) {
+            width = mMaxDimen;
+            height = (int) (width * (areaHeight / areaWidth));
+            // Overlay bitmap dimens should be powers of two.
+            if (Integer.highestOneBit(height) != height) height = Integer.highestOneBit(height) << 1;
+        } else {
+            height = mMaxDimen;
+            width = (int) (height * (areaWidth / areaHeight));
+            // Overlay bitmap dimens should be powers of two.
+            if (Integer.highestOneBit(width) != width) width = Integer.highestOneBit(width) << 1;
+        }
+        // Raster dimension cannot be zero.
+        width = Math.max(width, 1);
+        height = Math.max(height, 1);
+        if (width != mWidth || height != mHeight) {
+            fullRender = true;
+            mFittedSamples = null;
+        }
+        mWidth = width;
+        mHeight = height;
+
+        // Pixels per meter, raster is stretched to power of two in shorter side.
+        float scaleX = width / areaWidth;
+        float scaleY = height / areaHeight;
+        float searchRadius = Math.max(mSearchRadius * scaleX, mMinSearchRadiusPx);
+        if (mFittedSamples == null || !mFittedSamples.hasSameSamples(samples)
+                || searchRadius != mFittedSearchRadius) {
+            // Convert coords of samples to points in raster.
+            // Raster have origin in top left, projection in bottom left.
+            ensureSamples(count);
+            for (int i = 0; i < count; i++) {
+                mXs[i] = (samples.getX(i) - mLeft) * scaleX;
+                mYs[i] = (mTop - samples.getY(i)) * scaleY;
+                mRssis[i] = samples.getRssi(i);
+            }
+
+            mInterpolator.setSearchRadius(searchRadius);
+            mInterpolator.setPoints(mXs, mYs, mRssis, count);
+            mFitNanos = mInterpolator.getFitNanos();
+            mFittedSamples = samples;
+            mFittedSearchRadius = searchRadius;
+            // Fit of global interpolator changes pixels far from changed samples.
+            if (!mInterpolator.isLocal()) fullRender = true;
+        } else {
+            mFitNanos = 0;
+        }
+        mFullRender = fullRender;
+        mPalette.setRange(minRssi, maxRssi);
+
+        // Pixels changed by new samples of local interpolator are only pixels in search radius
+        // of them.
+        mRegion.clear();
+        if (fullRender) {
+            mRegion.add(0, 0, width, height);
+        } else {
+            int radius = (int) Math.ceil(searchRadius);
+            for (int index : dirtySamples) {
+                int x = (int) mXs[index];
+                int y = (int) mYs[index];
+                mRegion.add(Math.max(x - radius, 0), Math.max(y - radius, 0),
+                            Math.min(x + radius + 1, width), Math.min(y + radius + 1, height));
+            }
+        }
+
+        // Pixels are estimated on their integer coords.
+        ensureRaster(width, height);
+        if (mRegion.isEmpty()) {
+            // No sample changed, pixels of last render are still valid.
+            mValid = true;
+            mPixelNanos = 0;
+            return true;
+        }
+        long startNanos = System.nanoTime();
+        mValid = mRasterizer.render(mInterpolator, mColumnXs, mRowYs, mPalette, mRegion, mPixels,
+                                    width, cancellation);
+        mPixelNanos = mValid ? (System.nanoTime() - startNanos) / Math.max(mRegion.getArea(), 1) : 0;
+        return mValid;
+    }
+
+    /**
+     * @return Time of fitting interpolator by last render in nanos, zero if fit was reused.
+     */
+    public long getFitNanos() {
+        return mFitNanos;
+    }
+
+    /**
+     * @return Mean time of estimating one pixel by last render in nanos, zero if render was
+     * cancelled.
+     */
+    public long getPixelNanos() {
+        return mPixelNanos;
+    }
+
+    /**
+     * @return True if last render rendered all pixels.
+     */
+    public boolean isFullRender() {
+        return mFullRender;
+    }
+
+    /**
+     * @return Pixels changed by last render.
+     */
+    public DirtyRegion getRegion() {
+        return mRegion;
+    }
+
+    /**
+     * @return Pixels of raster in rows, row has {@link #getWidth()} pixels. Buffer can be longer
+     * than raster.
+     */
+    public int[] getPixels() {
+        return mPixels;
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    // Geographic bounds of raster, converted only when bounds change.
+
+    public double getSouth() {
+        return mSouth;
+    }
+
+    public double getWest() {
+        return mWest;
+    }
+
+    public double getNorth() {
+        return mNorth;
+    }
+
+    public double getEast() {
+        return mEast;
+    }
+
+    public int getMinRssi() {
+        return mMinRssi;
+    }
+
+    public int getMaxRssi() {
+        return mMaxRssi;
+    }
+
+    /**
+     * Grow sample buffers to hold count of samples.
+     */
+    private void ensureSamples(int count) {
+        if (mXs.length >= count) return;
+
+        int capacity = Math.max(count, mXs.length * 2);
+        mXs = new float[capacity];
+        mYs = new float[capacity];
+        mRssis = new int[capacity];
+    }
+
+    /**
+     * Resize raster buffers to dimensions of raster.
+     */
+    private void ensureRaster(int width, int height) {
+        if (mColumnXs.length != width) {
+            mColumnXs = new float[width];
+            for (int x = 0; x < width; x++) {
+                mColumnXs[x] = x;
+            }
+        }
+        if (mRowYs.length != height) {
+            mRowYs = new float[height];
+            for (int y = 0; y < height; y++) {
+                mRowYs[y] = y;
+            }
+        }
+        if (mPixels.length < width * height) mPixels = new int[width * height];
+    }
+}
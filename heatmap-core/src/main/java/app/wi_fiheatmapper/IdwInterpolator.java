@@ -0,0 +1,415 @@
+package app.wi_fiheatmapper;
+
+import java.util.Arrays;
+
+/**
+ * Inverse distance weighting interpolator with uniform grid spatial index.
+ * <p/>
+ * Known points are bucketed into square cells, so estimation visits only cells around estimated
+ * point instead of all known points. Value is estimated from k nearest known points which are not
+ * farther than search radius.
+ * <p/>
+ * Weights are computed from squared distances. Integer exponents up to 4 have own weight functions
+ * without {@link Math#pow}, other exponents use table of weights if search radius is limited.
+ * <p/>
+ * http://homel.vsb.cz/~hom50/SLBGEOST/LOD/GS09.HTM<br/>
+ * https://en.wikipedia.org/wiki/Inverse_distance_weighting
+ */
+public class IdwInterpolator extends Interpolator {
+
+    /**
+     * Average count of known points in one cell of index.
+     */
+    private static final int POINTS_PER_CELL = 4;
+
+    // Weight functions of exponents.
+    private static final int WEIGHT_POW = 0;
+    private static final int WEIGHT_P1 = 1;
+    private static final int WEIGHT_P2 = 2;
+    private static final int WEIGHT_P3 = 3;
+    private static final int WEIGHT_P4 = 4;
+    private static final int WEIGHT_TABLE = 5;
+    /**
+     * Count of entries of weight table. Table covers squared distances up to squared search radius.
+     */
+    static final int WEIGHT_TABLE_SIZE = 1024;
+    /**
+     * Weights of first entries change too fast for linear interpolation, they are computed exactly.
+     */
+    private static final int WEIGHT_TABLE_MIN_INDEX = 32;
+
+    private final float mExponent;
+    private final int mMaxNeighbours;
+    private float mSearchRadius = Float.NaN;
+    /**
+     * Search radius applied by next fit, so running queries never see changed weights.
+     */
+    private float mNextSearchRadius;
+
+    private int mWeightFunction;
+    /**
+     * Weights of squared distances i / mWeightTableScale, used by {@link #WEIGHT_TABLE} function.
+     */
+    private final float[] mWeightTable = new float[WEIGHT_TABLE_SIZE + 1];
+    private float mWeightTableScale;
+
+    // Known points sorted by cell. Points of cell i are in range [mCellStart[i], mCellStart[i + 1]).
+    private float[] mXs = new float[0];
+    private float[] mYs = new float[0];
+    private int[] mValues = new int[0];
+    private int[] mCellStart = new int[]{0, 0};
+    private int mCount;
+
+    // Buffers for sorting points, reused by next sorting.
+    private int[] mPointCells = new int[0];
+    private int[] mNextInCell = new int[1];
+
+    private float mOriginX;
+    private float mOriginY;
+    private float mCellSize = 1;
+    private int mColumns = 1;
+    private int mRows = 1;
+
+    /**
+     * @param exponent      Power parameter of weights. Greater values give greater influence to
+     *                      nearest points.
+     * @param maxNeighbours Max count of nearest points used for estimation. Zero or negative means
+     *                      all points in search radius.
+     * @param searchRadius  Only points in this distance are used for estimation. Use
+     *                      {@link Float#POSITIVE_INFINITY} for no limit.
+     */
+    public IdwInterpolator(float exponent, int maxNeighbours, float searchRadius) {
+        mExponent = exponent;
+        mMaxNeighbours = maxNeighbours;
+        setSearchRadius(searchRadius);
+        applySearchRadius();
+    }
+
+    @Override
+    public Type getType() {
+        return Type.IDW;
+    }
+
+    @Override
+    public void setSearchRadius(float searchRadius) {
+        if (mMaxNeighbours <= 0 && Float.isInfinite(searchRadius)) {
+            throw new IllegalArgumentException("Neighbours count or search radius must be limited");
+        }
+        mNextSearchRadius = searchRadius;
+    }
+
+    /**
+     * Apply search radius set by {@link #setSearchRadius} and choose weight function for it.
+     */
+    private void applySearchRadius() {
+        float searchRadius = mNextSearchRadius;
+        if (searchRadius == mSearchRadius) return;
+
+        mSearchRadius = searchRadius;
+        if (mExponent == 1) {
+            mWeightFunction = WEIGHT_P1;
+        } else if (mExponent == 2) {
+            mWeightFunction = WEIGHT_P2;
+        } else if (mExponent == 3) {
+            mWeightFunction = WEIGHT_P3;
+        } else if (mExponent == 4) {
+            mWeightFunction = WEIGHT_P4;
+        } else if (!Float.isInfinite(searchRadius) && searchRadius > 0) {
+            mWeightFunction = WEIGHT_TABLE;
+            float radius2 = searchRadius * searchRadius;
+            mWeightTableScale = WEIGHT_TABLE_SIZE / radius2;
+            for (int i = 1; i <= WEIGHT_TABLE_SIZE; i++) {
+                mWeightTable[i] = (float) Math.pow(i / mWeightTableScale, -mExponent / 2);
+            }
+        } else {
+            mWeightFunction = WEIGHT_POW;
+        }
+    }
+
+    /**
+     * Replace known points and rebuild index.
+     */
+    @Override
+    protected void fit(float[] xs, float[] ys, int[] values, int count) {
+        applySearchRadius();
+        if (count == 0) {
+            mCount = 0;
+            mColumns = mRows = 1;
+            mCellStart[0] = mCellStart[1] = 0;
+            return;
+        }
+
+        float minX = Float.POSITIVE_INFINITY, minY = Float.POSITIVE_INFINITY;
+        float maxX = Float.NEGATIVE_INFINITY, maxY = Float.NEGATIVE_INFINITY;
+        for (int i = 0; i < count; i++) {
+            minX = Math.min(minX, xs[i]);
+            minY = Math.min(minY, ys[i]);
+            maxX = Math.max(maxX, xs[i]);
+            maxY = Math.max(maxY, ys[i]);
+        }
+
+        // Size cells to have few points in each cell on average.
+        float width = maxX - minX;
+        float height = maxY - minY;
+        float cellSize = (float) Math.sqrt(Math.max(width, 1e-3f) * Math.max(height, 1e-3f)
+                                                   * POINTS_PER_CELL / count);
+        if (!Float.isInfinite(mSearchRadius) && mSearchRadius > 0) {
+            cellSize = Math.min(cellSize, mSearchRadius);
+        }
+        cellSize = Math.max(cellSize, Math.max(width, height) / 1024f);
+        if (cellSize <= 0) cellSize = 1;
+
+        mOriginX = minX;
+        mOriginY = minY;
+        mCellSize = cellSize;
+        mColumns = (int) (width / cellSize) + 1;
+        mRows = (int) (height / cellSize) + 1;
+
+        // Counting sort of points by cell. Buffers are reused if they are large enough.
+        int cellCount = mColumns * mRows;
+        if (mCellStart.length < cellCount + 1) {
+            mCellStart = new int[cellCount + 1];
+            mNextInCell = new int[cellCount];
+        } else {
+            Arrays.fill(mCellStart, 0, cellCount + 1, 0);
+        }
+        if (mXs.length < count) {
+            mXs = new float[count];
+            mYs = new float[count];
+            mValues = new int[count];
+            mPointCells = new int[count];
+        }
+
+        int[] cellStart = mCellStart;
+        int[] cells = mPointCells;
+        for (int i = 0; i < count; i++) {
+            cells[i] = cellOf(xs[i], ys[i]);
+            cellStart[cells[i] + 1]++;
+        }
+        for (int i = 1; i <= cellCount; i++) {
+            cellStart[i] += cellStart[i - 1];
+        }
+
+        int[] next = mNextInCell;
+        System.arraycopy(cellStart, 0, next, 0, cellCount);
+        for (int i = 0; i < count; i++) {
+            int j = next[cells[i]]++;
+            mXs[j] = xs[i];
+            mYs[j] = ys[i];
+            mValues[j] = values[i];
+        }
+
+        mCount = count;
+    }
+
+    @Override
+    public int getCount() {
+        return mCount;
+    }
+
+    @Override
+    public Query newQuery() {
+        return new Query();
+    }
+
+    /**
+     * @param dist2 Squared distance, not zero and not greater than squared search radius.
+     * @return 1 / distance^p computed from squared distance.
+     */
+    double weight(float dist2) {
+        switch (mWeightFunction) {
+            case WEIGHT_P1:
+                return 1 / Math.sqrt(dist2);
+            case WEIGHT_P2:
+                return 1 / dist2;
+            case WEIGHT_P3:
+                return 1 / (dist2 * Math.sqrt(dist2));
+            case WEIGHT_P4:
+                return 1 / ((double) dist2 * dist2);
+            case WEIGHT_TABLE:
+                float position = dist2 * mWeightTableScale;
+                int index = (int) position;
+                if (index >= WEIGHT_TABLE_MIN_INDEX && index < WEIGHT_TABLE_SIZE) {
+                    float fraction = position - index;
+                    return mWeightTable[index]
+                            + fraction * (mWeightTable[index + 1] - mWeightTable[index]);
+                }
+                return Math.pow(dist2, -mExponent / 2);
+            default:
+                return Math.pow(dist2, -mExponent / 2);
+        }
+    }
+
+    private int cellOf(float x, float y) {
+        int column = Math.min((int) ((x - mOriginX) / mCellSize), mColumns - 1);
+        int row = Math.min((int) ((y - mOriginY) / mCellSize), mRows - 1);
+        return row * mColumns + column;
+    }
+
+    /**
+     * Estimation of values on arbitrary coords.
+     */
+    public class Query implements Interpolator.Query {
+        // Max heap of nearest points by squared distance.
+        private final float[] mHeapDist2;
+        private final int[] mHeapValue;
+        private int mHeapSize;
+
+        // State of running estimation.
+        private float mX;
+        private float mY;
+        private double mSum1;
+        private double mSum2;
+        private int mExactValue;
+
+        private Query() {
+            mHeapDist2 = new float[Math.max(mMaxNeighbours, 0)];
+            mHeapValue = new int[Math.max(mMaxNeighbours, 0)];
+        }
+
+        @Override
+        public int estimate(float x, float y) {
+            if (mCount == 0) return NO_VALUE;
+
+            mX = x;
+            mY = y;
+            mSum1 = mSum2 = 0;
+            mHeapSize = 0;
+
+            float radius2 = mSearchRadius * mSearchRadius;
+            boolean nearestOnly = mMaxNeighbours > 0;
+
+            // Cell of estimated point, may be out of grid.
+            int column = (int) Math.floor((x - mOriginX) / mCellSize);
+            int row = (int) Math.floor((y - mOriginY) / mCellSize);
+            // Rings nearer than this have no cell in grid.
+            int minRing = Math.max(Math.max(-column, column - mColumns + 1),
+                                   Math.max(-row, row - mRows + 1));
+            int maxRing = Math.max(Math.max(column, mColumns - 1 - column),
+                                   Math.max(row, mRows - 1 - row));
+
+            // Visit rings of cells around estimated point from nearest.
+            for (int ring = Math.max(minRing, 0); ring <= maxRing; ring++) {
+                // Points in this ring are at least in this distance.
+                float ringDist = Math.max(ring - 1, 0) * mCellSize;
+                float ringDist2 = ringDist * ringDist;
+                if (ringDist2 > radius2) break;
+                if (nearestOnly && mHeapSize == mMaxNeighbours && ringDist2 >= mHeapDist2[0]) break;
+
+                int minRow = Math.max(row - ring, 0);
+                int maxRow = Math.min(row + ring, mRows - 1);
+                for (int r = minRow; r <= maxRow; r++) {
+                    if (r == row - ring || r == row + ring) {
+                        // Top and bottom row of ring.
+                        int minColumn = Math.max(column - ring, 0);
+                        int maxColumn = Math.min(column + ring, mColumns - 1);
+                        for (int c = minColumn; c <= maxColumn; c++) {
+                            if (visitCell(r * mColumns + c, radius2)) return mExactValue;
+                        }
+                    } else {
+                        // Inner rows of ring have only cells on sides.
+                        int c = column - ring;
+                        if (c >= 0 && c < mColumns && visitCell(r * mColumns + c, radius2)) {
+                            return mExactValue;
+                        }
+                        c = column + ring;
+                        if (c >= 0 && c < mColumns && visitCell(r * mColumns + c, radius2)) {
+                            return mExactValue;
+                        }
+                    }
+                }
+            }
+
+            if (nearestOnly) {
+                for (int i = 0; i < mHeapSize; i++) {
+                    double w = weight(mHeapDist2[i]);
+                    mSum1 += w * mHeapValue[i];
+                    mSum2 += w;
+                }
+            }
+
+            return mSum2 == 0 ? NO_VALUE : (int) (mSum1 / mSum2);
+        }
+
+        /**
+         * Accumulate known points of cell.
+         *
+         * @return True if estimated point is exactly on known point.
+         */
+        private boolean visitCell(int cell, float radius2) {
+            // Arrays and coords in locals, so loop reads no field of query.
+            float[] xs = mXs;
+            float[] ys = mYs;
+            int[] values = mValues;
+            float x = mX;
+            float y = mY;
+            int end = mCellStart[cell + 1];
+
+            if (mMaxNeighbours > 0) {
+                for (int i = mCellStart[cell]; i < end; i++) {
+                    float dx = x - xs[i];
+                    float dy = y - ys[i];
+                    float dist2 = dx * dx + dy * dy;
+                    if (dist2 > radius2) continue;
+                    if (dist2 == 0) {
+                        mExactValue = values[i];
+                        return true;
+                    }
+                    offer(dist2, values[i]);
+                }
+            } else {
+                double sum1 = 0;
+                double sum2 = 0;
+                for (int i = mCellStart[cell]; i < end; i++) {
+                    float dx = x - xs[i];
+                    float dy = y - ys[i];
+                    float dist2 = dx * dx + dy * dy;
+                    if (dist2 > radius2) continue;
+                    if (dist2 == 0) {
+                        mExactValue = values[i];
+                        return true;
+                    }
+                    double w = weight(dist2);
+                    sum1 += w * values[i];
+                    sum2 += w;
+                }
+                mSum1 += sum1;
+                mSum2 += sum2;
+            }
+            return false;
+        }
+
+        /**
+         * Add point to heap of nearest points if is nearer than farthest point in heap.
+         */
+        private void offer(float dist2, int value) {
+            if (mHeapSize < mMaxNeighbours) {
+                // Sift up.
+                int i = mHeapSize++;
+                while (i > 0) {
+                    int parent = (i - 1) / 2;
+                    if (mHeapDist2[parent] >= dist2) break;
+                    mHeapDist2[i] = mHeapDist2[parent];
+                    mHeapValue[i] = mHeapValue[parent];
+                    i = parent;
+                }
+                mHeapDist2[i] = dist2;
+                mHeapValue[i] = value;
+            } else if (dist2 < mHeapDist2[0]) {
+                // Replace farthest point and sift down.
+                int i = 0;
+                while (true) {
+                    int child = 2 * i + 1;
+                    if (child >= mHeapSize) break;
+                    if (child + 1 < mHeapSize && mHeapDist2[child + 1] > mHeapDist2[child]) child++;
+                    if (mHeapDist2[child] <= dist2) break;
+                    mHeapDist2[i] = mHeapDist2[child];
+                    mHeapValue[i] = mHeapValue[child];
+                    i = child;
+                }
+                mHeapDist2[i] = dist2;
+                mHeapValue[i] = value;
+            }
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package app.wi_fiheatmapper;
+
+/**
+ * Estimates values on arbitrary coords from values on known points.
+ * <p/>
+ * Expensive work is done once in {@link #setPoints} and estimation by {@link Query} only reads it,
+ * so points should be set again only if they changed. Queries of more threads can estimate
+ * concurrently, but points must not be set while any query estimates.
+ */
+public abstract class Interpolator {
+
+    /**
+     * Returned if no known point is in search radius.
+     */
+    public static final int NO_VALUE = Integer.MIN_VALUE;
+
+    public enum Type {
+        /**
+         * Inverse distance weighting. Cheapest, but shows bull's-eyes around known points.
+         */
+        IDW(true),
+        /**
+         * Radial basis functions. Smooth surface through known points.
+         */
+        RBF(false),
+        /**
+         * Ordinary kriging with variogram fitted to known points. Smoothest and most expensive.
+         */
+        KRIGING(false);
+
+        private final boolean mLocal;
+
+        Type(boolean local) {
+            mLocal = local;
+        }
+
+        /**
+         * Changed point of local interpolator changes only estimates in search radius of it. Fit
+         * of other interpolators depends on all points, so changed point can change any estimate.
+         *
+         * @return True if interpolators of this type are local.
+         */
+        public boolean isLocal() {
+            return mLocal;
+        }
+    }
+
+    private long mFitNanos;
+
+    /**
+     * @param type          Type of interpolator.
+     * @param exponent      Power parameter of IDW, not used by other types.
+     * @param maxNeighbours Max count of nearest points used for estimation.
+     * @param searchRadius  Only points in this distance are used for estimation.
+     */
+    public static Interpolator create(Type type, float exponent, int maxNeighbours,
+                                      float searchRadius) {
+        switch (type) {
+            case IDW:
+                return new IdwInterpolator(exponent, maxNeighbours, searchRadius);
+            case RBF:
+                return new RbfInterpolator(maxNeighbours, searchRadius);
+            case KRIGING:
+                return new KrigingInterpolator(maxNeighbours, searchRadius);
+            default:
+                throw new IllegalArgumentException("Unknown interpolator " + type);
+        }
+    }
+
+    public abstract Type getType();
+
+    /**
+     * @return True if interpolator is local, see {@link Type#isLocal()}.
+     */
+    public final boolean isLocal() {
+        return getType().isLocal();
+    }
+
+    /**
+     * Change search radius. Change is applied by next {@link #setPoints}, so queries estimating
+     * concurrently use radius of last fit.
+     *
+     * @param searchRadius Only points in this distance are used for estimation.
+     */
+    public abstract void setSearchRadius(float searchRadius);
+
+    /**
+     * Replace known points and fit interpolator to them.
+     *
+     * @param xs     X coords of known points.
+     * @param ys     Y coords of known points.
+     * @param values Values on known points.
+     * @param count  Count of known points in arrays.
+     */
+    public final void setPoints(float[] xs, float[] ys, int[] values, int count) {
+        long startNanos = System.nanoTime();
+        fit(xs, ys, values, count);
+        mFitNanos = System.nanoTime() - startNanos;
+    }
+
+    /**
+     * Fit interpolator to known points, see {@link #setPoints}.
+     */
+    protected abstract void fit(float[] xs, float[] ys, int[] values, int count);
+
+    /**
+     * @return Time of last {@link #setPoints} in nanos.
+     */
+    public long getFitNanos() {
+        return mFitNanos;
+    }
+
+    public abstract int getCount();
+
+    /**
+     * Create query for estimating values.
+     * Query hold working buffers, so it is not thread safe. Create one query per thread.
+     *
+     * @return New query.
+     */
+    public abstract Query newQuery();
+
+    /**
+     * Estimation of values on arbitrary coords.
+     */
+    public interface Query {
+
+        /**
+         * Estimate value on (x, y) coords from known points.
+         *
+         * @param x X coord of estimating point.
+         * @param y Y coord of estimating point.
+         * @return Estimated value or {@link #NO_VALUE} if no known point is in search radius.
+         */
+        int estimate(float x, float y);
+    }
+}
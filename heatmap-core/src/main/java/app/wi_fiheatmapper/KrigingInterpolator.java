@@ -0,0 +1,177 @@
+package app.wi_fiheatmapper;
+
+/**
+ * Interpolator by ordinary kriging with exponential variogram.
+ * <p/>
+ * Variogram is fitted to known points by weighted least squares once per {@link #setPoints}.
+ * Estimation uses dual form of kriging, so weights of neighbours are not solved for each pixel,
+ * only coefficients of variogram are solved once for each block.
+ * <p/>
+ * http://homel.vsb.cz/~hom50/SLBGEOST/LOD/GS09.HTM<br/>
+ * https://en.wikipedia.org/wiki/Kriging
+ */
+public class KrigingInterpolator extends LocalKernelInterpolator {
+
+    /**
+     * Count of lag bins of empirical variogram.
+     */
+    private static final int LAG_BINS = 12;
+    /**
+     * Variogram is fitted to pairs of at most this many points, pairs of all points would be too
+     * expensive.
+     */
+    private static final int MAX_VARIOGRAM_POINTS = 1000;
+    /**
+     * Count of ranges tried by fitting, from zero to twice max lag.
+     */
+    private static final int RANGE_STEPS = 20;
+
+    private final double[] mLagSums = new double[LAG_BINS];
+    private final int[] mLagCounts = new int[LAG_BINS];
+
+    // Exponential variogram.
+    private double mNugget;
+    private double mPartialSill = 1;
+    private double mRange = 1;
+
+    /**
+     * @param maxNeighbours Count of nearest points used for estimation.
+     * @param searchRadius  Pixels farther from all known points have no value.
+     */
+    public KrigingInterpolator(int maxNeighbours, float searchRadius) {
+        super(maxNeighbours, searchRadius);
+    }
+
+    @Override
+    public Type getType() {
+        return Type.KRIGING;
+    }
+
+    /**
+     * @return Variogram of points at zero distance, i.e. noise of values.
+     */
+    public double getNugget() {
+        return mNugget;
+    }
+
+    /**
+     * @return Variogram of distant points less nugget.
+     */
+    public double getPartialSill() {
+        return mPartialSill;
+    }
+
+    /**
+     * @return Distance in which variogram reaches 95% of sill.
+     */
+    public double getRange() {
+        return mRange;
+    }
+
+    @Override
+    protected void prepareKernel(float[] xs, float[] ys, int[] values, int count) {
+        // Empirical variogram up to search radius, pixels do not use farther points.
+        double maxLag = getSearchRadius();
+        if (Double.isInfinite(maxLag) || maxLag <= 0) {
+            float minX = Float.POSITIVE_INFINITY, minY = Float.POSITIVE_INFINITY;
+            float maxX = Float.NEGATIVE_INFINITY, maxY = Float.NEGATIVE_INFINITY;
+            for (int i = 0; i < count; i++) {
+                minX = Math.min(minX, xs[i]);
+                minY = Math.min(minY, ys[i]);
+                maxX = Math.max(maxX, xs[i]);
+                maxY = Math.max(maxY, ys[i]);
+            }
+            maxLag = Math.max(Math.hypot(maxX - minX, maxY - minY) / 2, 1e-3);
+        }
+
+        for (int b = 0; b < LAG_BINS; b++) {
+            mLagSums[b] = 0;
+            mLagCounts[b] = 0;
+        }
+        int stride = Math.max(count / MAX_VARIOGRAM_POINTS, 1);
+        for (int i = 0; i < count; i += stride) {
+            for (int j = i + stride; j < count; j += stride) {
+                double dx = xs[i] - xs[j];
+                double dy = ys[i] - ys[j];
+                double lag = Math.sqrt(dx * dx + dy * dy);
+                if (lag <= 0 || lag > maxLag) continue;
+
+                int bin = Math.min((int) (lag / maxLag * LAG_BINS), LAG_BINS - 1);
+                double diff = values[i] - values[j];
+                mLagSums[bin] += diff * diff / 2;
+                mLagCounts[bin]++;
+            }
+        }
+        fitVariogram(maxLag);
+    }
+
+    /**
+     * Fit nugget, partial sill and range to empirical variogram. Nugget and partial sill are
+     * linear for given range, so they are solved for each tried range.
+     */
+    private void fitVariogram(double maxLag) {
+        double bestError = Double.POSITIVE_INFINITY;
+        mNugget = 0;
+        mPartialSill = 1;
+        mRange = maxLag;
+
+        for (int k = 1; k <= RANGE_STEPS; k++) {
+            double range = 2 * maxLag * k / RANGE_STEPS;
+
+            // Normal equations of weighted least squares, weights are counts of pairs.
+            double sw = 0, swf = 0, swff = 0, swg = 0, swfg = 0;
+            for (int b = 0; b < LAG_BINS; b++) {
+                if (mLagCounts[b] == 0) continue;
+                double w = mLagCounts[b];
+                double f = shape((b + 0.5) * maxLag / LAG_BINS, range);
+                double g = mLagSums[b] / mLagCounts[b];
+                sw += w;
+                swf += w * f;
+                swff += w * f * f;
+                swg += w * g;
+                swfg += w * f * g;
+            }
+            if (sw == 0) return;
+
+            double det = sw * swff - swf * swf;
+            double nugget = det != 0 ? (swg * swff - swf * swfg) / det : 0;
+            double partialSill = det != 0 ? (sw * swfg - swf * swg) / det : 0;
+            // Variogram cannot be negative or decreasing.
+            if (nugget < 0) {
+                nugget = 0;
+                partialSill = swff > 0 ? swfg / swff : 0;
+            }
+            if (partialSill < 0) {
+                partialSill = 0;
+                nugget = swg / sw;
+            }
+
+            double error = 0;
+            for (int b = 0; b < LAG_BINS; b++) {
+                if (mLagCounts[b] == 0) continue;
+                double f = shape((b + 0.5) * maxLag / LAG_BINS, range);
+                double residual = mLagSums[b] / mLagCounts[b] - nugget - partialSill * f;
+                error += mLagCounts[b] * residual * residual;
+            }
+            if (error < bestError) {
+                bestError = error;
+                mNugget = nugget;
+                mPartialSill = partialSill;
+                mRange = range;
+            }
+        }
+    }
+
+    /**
+     * @return Shape of exponential variogram, 0 at zero lag and 0.95 at range.
+     */
+    private static double shape(double lag, double range) {
+        return 1 - Math.exp(-3 * lag / range);
+    }
+
+    @Override
+    protected double kernel(double dist2) {
+        if (dist2 == 0) return 0;
+        return mNugget + mPartialSill * shape(Math.sqrt(dist2), mRange);
+    }
+}
@@ -0,0 +1,447 @@
+package app.wi_fiheatmapper;
+
+import java.util.Arrays;
+
+/**
+ * Interpolator which sums kernel of distance to known points weighted by coefficients solved from
+ * known values.
+ * <p/>
+ * Global system for all points would cost cube of count of points, so area is split to square
+ * blocks and each block has own system of nearest points to its center. Systems of all blocks are
+ * solved once by {@link #setPoints}, estimation of pixel is only sum over neighbours of its block.
+ * Value of pixel is
+ * <pre>
+ *     c<sub>0</sub> + &sum; c<sub>i</sub> kernel(|p - p<sub>i</sub>|)
+ * </pre>
+ * where coefficients solve same sum on all neighbours with condition &sum; c<sub>i</sub> = 0.
+ * Neighbourhoods of nearby blocks overlap, so steps on edges of blocks are small.
+ * <p/>
+ * https://en.wikipedia.org/wiki/Radial_basis_function_interpolation
+ */
+public abstract class LocalKernelInterpolator extends Interpolator {
+
+    /**
+     * Count of neighbours if count is not limited by caller.
+     */
+    static final int DEFAULT_NEIGHBOURS = 16;
+    /**
+     * Cost of solving system grows with cube of count of neighbours.
+     */
+    private static final int MAX_NEIGHBOURS = 48;
+    /**
+     * Average count of known points in one block.
+     */
+    private static final int POINTS_PER_BLOCK = 4;
+
+    private final int mNeighbours;
+    private float mSearchRadius;
+    /**
+     * Search radius applied by next fit, so running queries never see changed radius.
+     */
+    private float mNextSearchRadius;
+    private int mCount;
+
+    // Known points sorted by block. Points of block i are in range [mPointStart[i], mPointStart[i + 1]).
+    private float[] mXs = new float[0];
+    private float[] mYs = new float[0];
+    private int[] mValues = new int[0];
+    private int[] mPointStart = new int[]{0, 0};
+    private int[] mPointBlocks = new int[0];
+
+    // Fitted blocks. Neighbours of block i are in range [mNeighbourStart[i], mNeighbourStart[i + 1])
+    // and are copied to own arrays, so estimation reads them sequentially.
+    private int[] mNeighbourStart = new int[]{0, 0};
+    private float[] mNeighbourXs = new float[0];
+    private float[] mNeighbourYs = new float[0];
+    private double[] mCoefficients = new double[0];
+    private double[] mConstants = new double[1];
+    private int[] mMinValues = new int[1];
+    private int[] mMaxValues = new int[1];
+
+    private float mOriginX;
+    private float mOriginY;
+    private float mBlockSize = 1;
+    private int mColumns = 1;
+    private int mRows = 1;
+
+    // Buffers of fitting, reused by next fit.
+    private final float[] mHeapDist2;
+    private final int[] mHeapIndex;
+    private int mHeapSize;
+    private final double[] mMatrix;
+    private final double[] mRhs;
+
+    /**
+     * @param maxNeighbours Count of nearest points in system of each block. Zero or negative for
+     *                      default count.
+     * @param searchRadius  Pixels farther from all known points have no value. Use
+     *                      {@link Float#POSITIVE_INFINITY} for no limit.
+     */
+    protected LocalKernelInterpolator(int maxNeighbours, float searchRadius) {
+        mNeighbours = Math.min(maxNeighbours > 0 ? maxNeighbours : DEFAULT_NEIGHBOURS, MAX_NEIGHBOURS);
+        mSearchRadius = mNextSearchRadius = searchRadius;
+        mHeapDist2 = new float[mNeighbours];
+        mHeapIndex = new int[mNeighbours];
+        mMatrix = new double[(mNeighbours + 1) * (mNeighbours + 1)];
+        mRhs = new double[mNeighbours + 1];
+    }
+
+    @Override
+    public void setSearchRadius(float searchRadius) {
+        mNextSearchRadius = searchRadius;
+    }
+
+    /**
+     * @return Search radius applied by last fit.
+     */
+    public float getSearchRadius() {
+        return mSearchRadius;
+    }
+
+    @Override
+    public int getCount() {
+        return mCount;
+    }
+
+    /**
+     * Prepare kernel for known points, e.g. fit its parameters. Called before systems are solved.
+     */
+    protected abstract void prepareKernel(float[] xs, float[] ys, int[] values, int count);
+
+    /**
+     * @param dist2 Squared distance of two points.
+     * @return Kernel of distance.
+     */
+    protected abstract double kernel(double dist2);
+
+    @Override
+    protected void fit(float[] xs, float[] ys, int[] values, int count) {
+        mSearchRadius = mNextSearchRadius;
+        mCount = count;
+        if (count == 0) {
+            mColumns = mRows = 1;
+            mNeighbourStart[0] = mNeighbourStart[1] = 0;
+            return;
+        }
+
+        prepareKernel(xs, ys, values, count);
+
+        float minX = Float.POSITIVE_INFINITY, minY = Float.POSITIVE_INFINITY;
+        float maxX = Float.NEGATIVE_INFINITY, maxY = Float.NEGATIVE_INFINITY;
+        for (int i = 0; i < count; i++) {
+            minX = Math.min(minX, xs[i]);
+            minY = Math.min(minY, ys[i]);
+            maxX = Math.max(maxX, xs[i]);
+            maxY = Math.max(maxY, ys[i]);
+        }
+
+        // Size blocks to have few points in each block on average.
+        float width = maxX - minX;
+        float height = maxY - minY;
+        float blockSize = (float) Math.sqrt(Math.max(width, 1e-3f) * Math.max(height, 1e-3f)
+                                                    * POINTS_PER_BLOCK / count);
+        if (!Float.isInfinite(mSearchRadius) && mSearchRadius > 0) {
+            blockSize = Math.min(blockSize, mSearchRadius);
+        }
+        blockSize = Math.max(blockSize, Math.max(width, height) / 256f);
+        if (blockSize <= 0) blockSize = 1;
+
+        mOriginX = minX;
+        mOriginY = minY;
+        mBlockSize = blockSize;
+        mColumns = (int) (width / blockSize) + 1;
+        mRows = (int) (height / blockSize) + 1;
+
+        sortPoints(xs, ys, values, count);
+        fitBlocks();
+    }
+
+    /**
+     * Counting sort of points by block, so neighbours are searched only in blocks around.
+     */
+    private void sortPoints(float[] xs, float[] ys, int[] values, int count) {
+        int blockCount = mColumns * mRows;
+        if (mPointStart.length < blockCount + 1) {
+            mPointStart = new int[blockCount + 1];
+        } else {
+            Arrays.fill(mPointStart, 0, blockCount + 1, 0);
+        }
+        if (mXs.length < count) {
+            mXs = new float[count];
+            mYs = new float[count];
+            mValues = new int[count];
+            mPointBlocks = new int[count];
+        }
+
+        int[] start = mPointStart;
+        for (int i = 0; i < count; i++) {
+            mPointBlocks[i] = blockOf(xs[i], ys[i]);
+            start[mPointBlocks[i] + 1]++;
+        }
+        for (int i = 1; i <= blockCount; i++) {
+            start[i] += start[i - 1];
+        }
+        // Positions of next point of each block, block i + 1 starts where block i ends.
+        int[] next = Arrays.copyOf(start, blockCount);
+        for (int i = 0; i < count; i++) {
+            int j = next[mPointBlocks[i]]++;
+            mXs[j] = xs[i];
+            mYs[j] = ys[i];
+            mValues[j] = values[i];
+        }
+    }
+
+    /**
+     * Find neighbours of each block and solve its system.
+     */
+    private void fitBlocks() {
+        int blockCount = mColumns * mRows;
+        if (mNeighbourStart.length < blockCount + 1) {
+            mNeighbourStart = new int[blockCount + 1];
+            mConstants = new double[blockCount];
+            mMinValues = new int[blockCount];
+            mMaxValues = new int[blockCount];
+        }
+
+        // Points farther than this from center of block are not in search radius of its pixels.
+        float halfDiagonal = mBlockSize * (float) Math.sqrt(0.5);
+        float limit = mSearchRadius + halfDiagonal;
+        float limit2 = Float.isInfinite(limit) ? Float.POSITIVE_INFINITY : limit * limit;
+
+        int offset = 0;
+        for (int row = 0; row < mRows; row++) {
+            for (int column = 0; column < mColumns; column++) {
+                int block = row * mColumns + column;
+                mNeighbourStart[block] = offset;
+                findNeighbours(column, row, limit2);
+                ensureNeighbours(offset + mHeapSize);
+                for (int i = 0; i < mHeapSize; i++) {
+                    mNeighbourXs[offset + i] = mXs[mHeapIndex[i]];
+                    mNeighbourYs[offset + i] = mYs[mHeapIndex[i]];
+                }
+                if (mHeapSize > 0) solveBlock(block, offset, mHeapSize);
+                offset += mHeapSize;
+            }
+        }
+        mNeighbourStart[blockCount] = offset;
+    }
+
+    /**
+     * Grow neighbour buffers to hold count of neighbours. Blocks far from all points have no
+     * neighbours, so buffers are not sized by count of blocks.
+     */
+    private void ensureNeighbours(int count) {
+        if (mNeighbourXs.length >= count) return;
+
+        int capacity = Math.max(count, mNeighbourXs.length * 2);
+        mNeighbourXs = Arrays.copyOf(mNeighbourXs, capacity);
+        mNeighbourYs = Arrays.copyOf(mNeighbourYs, capacity);
+        mCoefficients = Arrays.copyOf(mCoefficients, capacity);
+    }
+
+    /**
+     * Fill heap by nearest points to center of block.
+     */
+    private void findNeighbours(int column, int row, float limit2) {
+        mHeapSize = 0;
+        float centerX = mOriginX + (column + 0.5f) * mBlockSize;
+        float centerY = mOriginY + (row + 0.5f) * mBlockSize;
+        int maxRing = Math.max(Math.max(column, mColumns - 1 - column),
+                               Math.max(row, mRows - 1 - row));
+
+        // Visit rings of blocks around block from nearest.
+        for (int ring = 0; ring <= maxRing; ring++) {
+            // Points in this ring are at least in this distance from center.
+            float ringDist = Math.max(ring - 0.5f, 0) * mBlockSize;
+            float ringDist2 = ringDist * ringDist;
+            if (ringDist2 > limit2) break;
+            if (mHeapSize == mNeighbours && ringDist2 >= mHeapDist2[0]) break;
+
+            int minRow = Math.max(row - ring, 0);
+            int maxRow = Math.min(row + ring, mRows - 1);
+            for (int r = minRow; r <= maxRow; r++) {
+                boolean edge = r == row - ring || r == row + ring;
+                int step = edge ? 1 : 2 * ring;
+                for (int c = column - ring; c <= column + ring; c += Math.max(step, 1)) {
+                    if (c < 0 || c >= mColumns) continue;
+                    int block = r * mColumns + c;
+                    for (int i = mPointStart[block]; i < mPointStart[block + 1]; i++) {
+                        float dx = centerX - mXs[i];
+                        float dy = centerY - mYs[i];
+                        float dist2 = dx * dx + dy * dy;
+                        if (dist2 <= limit2) offer(dist2, i);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Add point to max heap of nearest points if is nearer than farthest point in heap.
+     */
+    private void offer(float dist2, int index) {
+        if (mHeapSize < mNeighbours) {
+            int i = mHeapSize++;
+            while (i > 0) {
+                int parent = (i - 1) / 2;
+                if (mHeapDist2[parent] >= dist2) break;
+                mHeapDist2[i] = mHeapDist2[parent];
+                mHeapIndex[i] = mHeapIndex[parent];
+                i = parent;
+            }
+            mHeapDist2[i] = dist2;
+            mHeapIndex[i] = index;
+        } else if (dist2 < mHeapDist2[0]) {
+            int i = 0;
+            while (true) {
+                int child = 2 * i + 1;
+                if (child >= mHeapSize) break;
+                if (child + 1 < mHeapSize && mHeapDist2[child + 1] > mHeapDist2[child]) child++;
+                if (mHeapDist2[child] <= dist2) break;
+                mHeapDist2[i] = mHeapDist2[child];
+                mHeapIndex[i] = mHeapIndex[child];
+                i = child;
+            }
+            mHeapDist2[i] = dist2;
+            mHeapIndex[i] = index;
+        }
+    }
+
+    /**
+     * Solve coefficients of block from its neighbours in heap. Block with singular system, e.g.
+     * with duplicate points, gets mean of neighbours.
+     */
+    private void solveBlock(int block, int offset, int count) {
+        int n = count + 1;
+        int min = Integer.MAX_VALUE;
+        int max = Integer.MIN_VALUE;
+        long sum = 0;
+        for (int i = 0; i < count; i++) {
+            float xi = mNeighbourXs[offset + i];
+            float yi = mNeighbourYs[offset + i];
+            for (int j = 0; j < i; j++) {
+                double dx = xi - mNeighbourXs[offset + j];
+                double dy = yi - mNeighbourYs[offset + j];
+                double k = kernel(dx * dx + dy * dy);
+                mMatrix[i * n + j] = k;
+                mMatrix[j * n + i] = k;
+            }
+            mMatrix[i * n + i] = kernel(0);
+            mMatrix[i * n + count] = 1;
+            mMatrix[count * n + i] = 1;
+
+            int value = mValues[mHeapIndex[i]];
+            mRhs[i] = value;
+            min = Math.min(min, value);
+            max = Math.max(max, value);
+            sum += value;
+        }
+        mMatrix[count * n + count] = 0;
+        mRhs[count] = 0;
+        mMinValues[block] = min;
+        mMaxValues[block] = max;
+
+        if (count > 1 && min != max && solve(mMatrix, mRhs, n)) {
+            System.arraycopy(mRhs, 0, mCoefficients, offset, count);
+            mConstants[block] = mRhs[count];
+        } else {
+            Arrays.fill(mCoefficients, offset, offset + count, 0);
+            mConstants[block] = (double) sum / count;
+        }
+    }
+
+    /**
+     * Solve linear system by gaussian elimination with partial pivoting.
+     *
+     * @param a Matrix n x n in rows, destroyed by solving.
+     * @param b Right side, replaced by solution.
+     * @return False if matrix is singular.
+     */
+    static boolean solve(double[] a, double[] b, int n) {
+        double scale = 0;
+        for (int i = 0; i < n * n; i++) {
+            scale = Math.max(scale, Math.abs(a[i]));
+        }
+        double epsilon = scale * 1e-12;
+
+        for (int k = 0; k < n; k++) {
+            int pivot = k;
+            for (int i = k + 1; i < n; i++) {
+                if (Math.abs(a[i * n + k]) > Math.abs(a[pivot * n + k])) pivot = i;
+            }
+            if (Math.abs(a[pivot * n + k]) <= epsilon) return false;
+            if (pivot != k) {
+                for (int j = k; j < n; j++) {
+                    double t = a[k * n + j];
+                    a[k * n + j] = a[pivot * n + j];
+                    a[pivot * n + j] = t;
+                }
+                double t = b[k];
+                b[k] = b[pivot];
+                b[pivot] = t;
+            }
+            for (int i = k + 1; i < n; i++) {
+                double f = a[i * n + k] / a[k * n + k];
+                if (f == 0) continue;
+                for (int j = k + 1; j < n; j++) {
+                    a[i * n + j] -= f * a[k * n + j];
+                }
+                b[i] -= f * b[k];
+            }
+        }
+        for (int i = n - 1; i >= 0; i--) {
+            double s = b[i];
+            for (int j = i + 1; j < n; j++) {
+                s -= a[i * n + j] * b[j];
+            }
+            b[i] = s / a[i * n + i];
+        }
+        return true;
+    }
+
+    private int blockOf(float x, float y) {
+        int column = Math.min(Math.max((int) Math.floor((x - mOriginX) / mBlockSize), 0), mColumns - 1);
+        int row = Math.min(Math.max((int) Math.floor((y - mOriginY) / mBlockSize), 0), mRows - 1);
+        return row * mColumns + column;
+    }
+
+    @Override
+    public Query newQuery() {
+        return new Query();
+    }
+
+    /**
+     * Estimation of values on arbitrary coords. Query has no state, but one query per thread is
+     * expected as by other interpolators.
+     */
+    public class Query implements Interpolator.Query {
+
+        private Query() {
+        }
+
+        @Override
+        public int estimate(float x, float y) {
+            if (mCount == 0) return NO_VALUE;
+
+            int block = blockOf(x, y);
+            int start = mNeighbourStart[block];
+            int end = mNeighbourStart[block + 1];
+            if (start == end) return NO_VALUE;
+
+            double sum = mConstants[block];
+            float minDist2 = Float.POSITIVE_INFINITY;
+            for (int i = start; i < end; i++) {
+                float dx = x - mNeighbourXs[i];
+                float dy = y - mNeighbourYs[i];
+                float dist2 = dx * dx + dy * dy;
+                minDist2 = Math.min(minDist2, dist2);
+                sum += mCoefficients[i] * kernel(dist2);
+            }
+            if (minDist2 > mSearchRadius * mSearchRadius) return NO_VALUE;
+
+            // Surface can overshoot between points, keep it in range of neighbours.
+            long value = Math.round(sum);
+            return (int) Math.min(Math.max(value, mMinValues[block]), mMaxValues[block]);
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package app.wi_fiheatmapper;
+
+/**
+ * Projection of geographic coords to local plane in meters.
+ * <p/>
+ * Plane is tangent to Earth in origin with x axis to east and y axis to north. For surveyed area of
+ * few kilometers distortion is negligible and distances in plane are close to real distances.
+ */
+public class LocalProjection {
+
+    /**
+     * Meters per degree of latitude on sphere with mean Earth radius.
+     */
+    private static final double METERS_PER_DEGREE = 6371009 * Math.PI / 180;
+
+    private final double mOriginLatitude;
+    private final double mOriginLongitude;
+    private final double mMetersPerLongitude;
+
+    public LocalProjection(double originLatitude, double originLongitude) {
+        mOriginLatitude = originLatitude;
+        mOriginLongitude = originLongitude;
+        mMetersPerLongitude = METERS_PER_DEGREE * Math.cos(Math.toRadians(originLatitude));
+    }
+
+    public double getOriginLatitude() {
+        return mOriginLatitude;
+    }
+
+    public double getOriginLongitude() {
+        return mOriginLongitude;
+    }
+
+    /**
+     * @return Distance to east from origin in meters.
+     */
+    public float toX(double longitude) {
+        return (float) ((longitude - mOriginLongitude) * mMetersPerLongitude);
+    }
+
+    /**
+     * @return Distance to north from origin in meters.
+     */
+    public float toY(double latitude) {
+        return (float) ((latitude - mOriginLatitude) * METERS_PER_DEGREE);
+    }
+
+    public double toLongitude(double x) {
+        return mOriginLongitude + x / mMetersPerLongitude;
+    }
+
+    public double toLatitude(double y) {
+        return mOriginLatitude + y / METERS_PER_DEGREE;
+    }
+}
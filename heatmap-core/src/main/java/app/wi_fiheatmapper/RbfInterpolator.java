@@ -0,0 +1,47 @@
+package app.wi_fiheatmapper;
+
+/**
+ * Interpolator by multiquadric radial basis functions. Surface goes smoothly through all known
+ * points, so it has no bull's-eyes of IDW around them.
+ * <p/>
+ * Shape parameter of multiquadric is set to mean spacing of known points, so surface is neither
+ * flat between points nor peaked on them.
+ * <p/>
+ * https://en.wikipedia.org/wiki/Radial_basis_function
+ */
+public class RbfInterpolator extends LocalKernelInterpolator {
+
+    private double mShape2 = 1;
+
+    /**
+     * @param maxNeighbours Count of nearest points used for estimation.
+     * @param searchRadius  Pixels farther from all known points have no value.
+     */
+    public RbfInterpolator(int maxNeighbours, float searchRadius) {
+        super(maxNeighbours, searchRadius);
+    }
+
+    @Override
+    public Type getType() {
+        return Type.RBF;
+    }
+
+    @Override
+    protected void prepareKernel(float[] xs, float[] ys, int[] values, int count) {
+        float minX = Float.POSITIVE_INFINITY, minY = Float.POSITIVE_INFINITY;
+        float maxX = Float.NEGATIVE_INFINITY, maxY = Float.NEGATIVE_INFINITY;
+        for (int i = 0; i < count; i++) {
+            minX = Math.min(minX, xs[i]);
+            minY = Math.min(minY, ys[i]);
+            maxX = Math.max(maxX, xs[i]);
+            maxY = Math.max(maxY, ys[i]);
+        }
+        // Squared mean spacing is area per point.
+        mShape2 = Math.max(maxX - minX, 1e-3f) * Math.max(maxY - minY, 1e-3f) / count;
+    }
+
+    @Override
+    protected double kernel(double dist2) {
+        return Math.sqrt(dist2 + mShape2);
+    }
+}
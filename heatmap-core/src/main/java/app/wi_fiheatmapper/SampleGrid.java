@@ -0,0 +1,194 @@
+package app.wi_fiheatmapper;
+
+import java.util.Arrays;
+
+/**
+ * Bins heatmap samples to square cells of metric grid. Each cell is one sample in store located in
+ * center of cell with mean RSSI of all samples in cell, so size of store and cost of interpolation
+ * are bounded by surveyed area, not by duration of survey.
+ * <p/>
+ * Count, mean and variance of RSSI of each cell are updated by Welford's algorithm. Cells are
+ * found by packed integer coords in open addressing hash table, so no object is allocated per
+ * sample.
+ * <p/>
+ * Grid must be only writer of its store. Grid is not thread safe.
+ */
+public class SampleGrid implements SampleSink {
+
+    private static final int INITIAL_CAPACITY = 64;
+    private static final int EMPTY = -1;
+
+    private final SampleStore mStore;
+    private final float mCellSize;
+    /**
+     * Projection with origin in first sample, null if grid is empty.
+     */
+    private LocalProjection mProjection;
+
+    // Hash table of cell coords to index of cell. Capacity is power of two.
+    private long[] mKeys = new long[INITIAL_CAPACITY * 2];
+    private int[] mCells = newTable(INITIAL_CAPACITY * 2);
+
+    // Statistics of cells indexed by index of sample in store.
+    private int[] mCounts = new int[INITIAL_CAPACITY];
+    private double[] mMeans = new double[INITIAL_CAPACITY];
+    private double[] mSquaredDeviations = new double[INITIAL_CAPACITY];
+    private float[] mBestAccuracies = new float[INITIAL_CAPACITY];
+    private int mCellCount;
+
+    /**
+     * @param store    Empty store for cells.
+     * @param cellSize Size of side of cell in meters.
+     */
+    public SampleGrid(SampleStore store, float cellSize) {
+        if (store.size() != 0) throw new IllegalArgumentException("Store of grid must be empty");
+        if (cellSize <= 0) throw new IllegalArgumentException("Size of cell must be positive");
+        mStore = store;
+        mCellSize = cellSize;
+    }
+
+    public SampleStore getStore() {
+        return mStore;
+    }
+
+    public float getCellSize() {
+        return mCellSize;
+    }
+
+    /**
+     * Add sample to its cell. New cell is appended to store, RSSI of existing cell is updated.
+     * Accuracy of cell is best accuracy of its samples and time is time of last sample.
+     *
+     * @return Index of cell of sample in store.
+     */
+    @Override
+    public int append(double latitude, double longitude, int rssi, long timestamp, float accuracy) {
+        if (mProjection == null) mProjection = new LocalProjection(latitude, longitude);
+        int cellX = (int) Math.floor(mProjection.toX(longitude) / mCellSize);
+        int cellY = (int) Math.floor(mProjection.toY(latitude) / mCellSize);
+        long key = ((long) cellX << 32) | (cellY & 0xFFFFFFFFL);
+
+        int slot = findSlot(key);
+        int cell = mCells[slot];
+        if (cell == EMPTY) {
+            cell = mStore.append(mProjection.toLatitude((cellY + 0.5) * mCellSize),
+                                 mProjection.toLongitude((cellX + 0.5) * mCellSize), rssi,
+                                 timestamp, accuracy);
+            addCell(slot, key, cell, rssi, accuracy);
+            return cell;
+        }
+
+        int count = ++mCounts[cell];
+        double delta = rssi - mMeans[cell];
+        mMeans[cell] += delta / count;
+        mSquaredDeviations[cell] += delta * (rssi - mMeans[cell]);
+        mBestAccuracies[cell] = Math.min(mBestAccuracies[cell], accuracy);
+        mStore.set(cell, (int) Math.round(mMeans[cell]), timestamp, mBestAccuracies[cell]);
+        return cell;
+    }
+
+    /**
+     * @return Count of cells, same as size of store.
+     */
+    public int size() {
+        return mCellCount;
+    }
+
+    /**
+     * @param cell Index of cell in store.
+     * @return Count of samples in cell.
+     */
+    public int getCount(int cell) {
+        checkCell(cell);
+        return mCounts[cell];
+    }
+
+    /**
+     * @param cell Index of cell in store.
+     * @return Mean RSSI of samples in cell in dBm.
+     */
+    public double getMeanRssi(int cell) {
+        checkCell(cell);
+        return mMeans[cell];
+    }
+
+    /**
+     * @param cell Index of cell in store.
+     * @return Sample variance of RSSI in cell, zero for cell with one sample.
+     */
+    public double getVariance(int cell) {
+        checkCell(cell);
+        return mCounts[cell] > 1 ? mSquaredDeviations[cell] / (mCounts[cell] - 1) : 0;
+    }
+
+    /**
+     * Remove all cells and samples of store.
+     */
+    public void clear() {
+        mStore.clear();
+        mProjection = null;
+        Arrays.fill(mCells, EMPTY);
+        mCellCount = 0;
+    }
+
+    private void addCell(int slot, long key, int cell, int rssi, float accuracy) {
+        if (cell != mCellCount) throw new IllegalStateException("Store of grid changed by other writer");
+
+        if (mCellCount == mCounts.length) {
+            int capacity = mCellCount * 2;
+            mCounts = Arrays.copyOf(mCounts, capacity);
+            mMeans = Arrays.copyOf(mMeans, capacity);
+            mSquaredDeviations = Arrays.copyOf(mSquaredDeviations, capacity);
+            mBestAccuracies = Arrays.copyOf(mBestAccuracies, capacity);
+        }
+        mCounts[cell] = 1;
+        mMeans[cell] = rssi;
+        mSquaredDeviations[cell] = 0;
+        mBestAccuracies[cell] = accuracy;
+        mCellCount++;
+
+        mKeys[slot] = key;
+        mCells[slot] = cell;
+        // Table is kept at most half full.
+        if (mCellCount * 2 > mKeys.length) rehash(mKeys.length * 2);
+    }
+
+    private int findSlot(long key) {
+        int mask = mKeys.length - 1;
+        int slot = hash(key) & mask;
+        while (mCells[slot] != EMPTY && mKeys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void rehash(int capacity) {
+        long[] keys = mKeys;
+        int[] cells = mCells;
+        mKeys = new long[capacity];
+        mCells = newTable(capacity);
+        for (int i = 0; i < keys.length; i++) {
+            if (cells[i] == EMPTY) continue;
+            int slot = findSlot(keys[i]);
+            mKeys[slot] = keys[i];
+            mCells[slot] = cells[i];
+        }
+    }
+
+    private static int hash(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    private static int[] newTable(int capacity) {
+        int[] table = new int[capacity];
+        Arrays.fill(table, EMPTY);
+        return table;
+    }
+
+    private void checkCell(int cell) {
+        if (cell < 0 || cell >= mCellCount) {
+            throw new IndexOutOfBoundsException("Cell: " + cell + ", count: " + mCellCount);
+        }
+    }
+}
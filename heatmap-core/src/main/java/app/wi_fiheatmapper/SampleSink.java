@@ -0,0 +1,19 @@
+package app.wi_fiheatmapper;
+
+/**
+ * Receiver of heatmap samples, e.g. {@link SampleStore} or {@link SampleGrid}.
+ */
+public interface SampleSink {
+
+    /**
+     * Add sample.
+     *
+     * @param latitude  Latitude of sample.
+     * @param longitude Longitude of sample.
+     * @param rssi      Signal strength in dBm.
+     * @param timestamp Time of sample in millis.
+     * @param accuracy  Accuracy of location in meters.
+     * @return Index of sample in store.
+     */
+    int append(double latitude, double longitude, int rssi, long timestamp, float accuracy);
+}
@@ -0,0 +1,447 @@
+package app.wi_fiheatmapper;
+
+/**
+ * Store of heatmap samples. Samples are appended, only their RSSI can be changed later.
+ * <p/>
+ * Samples are kept in parallel primitive arrays (columns) split to fixed size chunks, so appending
+ * never copies stored samples and no object is allocated per sample. Chunks are shared with read
+ * only {@link Snapshot}s without copying. Sample changed by {@link #set} is written to copy of its
+ * chunk if chunk is shared, so snapshots never see changes. Location of sample is never changed.
+ * <p/>
+ * Location of sample is projected once by append to local plane with origin in first sample, and
+ * bounds of projected samples are kept by store. Renderers read coords in meters and bounds
+ * directly, so they do no geographic math per sample.
+ * <p/>
+ * Every change of store increments version. Changes since known version are available as
+ * {@link Delta}, so readers can apply only changed samples.
+ * <p/>
+ * Store is not thread safe for writing. Snapshots can be read from any thread.
+ */
+public class SampleStore implements SampleSink {
+
+    // Small chunks are cheap to copy by set.
+    private static final int CHUNK_SHIFT = 10;
+    private static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+    /**
+     * Count of last changes remembered for deltas. Older versions get full delta.
+     */
+    private static final int JOURNAL_SIZE = 1024;
+
+    private double[][] mLatitudes = new double[1][];
+    private double[][] mLongitudes = new double[1][];
+    private short[][] mRssis = new short[1][];
+    private long[][] mTimestamps = new long[1][];
+    private float[][] mAccuracies = new float[1][];
+    private float[][] mXs = new float[1][];
+    private float[][] mYs = new float[1][];
+    private int mChunkCount;
+    private int mSize;
+
+    /**
+     * Projection with origin in first sample, null if store is empty.
+     */
+    private LocalProjection mProjection;
+    // Bounds of projected samples in meters.
+    private float mMinX = Float.POSITIVE_INFINITY;
+    private float mMinY = Float.POSITIVE_INFINITY;
+    private float mMaxX = Float.NEGATIVE_INFINITY;
+    private float mMaxY = Float.NEGATIVE_INFINITY;
+
+    /**
+     * Count of taken snapshots. Chunk or array of chunks is shared with snapshot if it was created
+     * before last snapshot.
+     */
+    private int mSnapshotCount;
+    private int[] mChunkSnapshotCounts = new int[1];
+    private int mChunksSnapshotCount;
+
+    // Ring buffer of indexes of changed samples. Change to version v is on index v % JOURNAL_SIZE.
+    private final int[] mJournal = new int[JOURNAL_SIZE];
+    private long mVersion;
+    /**
+     * Version of last removing of all samples. Older versions get full delta.
+     */
+    private long mClearVersion;
+
+    /**
+     * Append sample to store.
+     *
+     * @param latitude  Latitude of sample.
+     * @param longitude Longitude of sample.
+     * @param rssi      Signal strength in dBm.
+     * @param timestamp Time of sample in millis.
+     * @param accuracy  Accuracy of location in meters.
+     * @return Index of appended sample.
+     */
+    @Override
+    public int append(double latitude, double longitude, int rssi, long timestamp, float accuracy) {
+        int chunk = mSize >>> CHUNK_SHIFT;
+        if (chunk == mChunkCount) addChunk();
+        if (mProjection == null) mProjection = new LocalProjection(latitude, longitude);
+        float x = mProjection.toX(longitude);
+        float y = mProjection.toY(latitude);
+        mMinX = Math.min(mMinX, x);
+        mMinY = Math.min(mMinY, y);
+        mMaxX = Math.max(mMaxX, x);
+        mMaxY = Math.max(mMaxY, y);
+
+        int offset = mSize & CHUNK_MASK;
+        mLatitudes[chunk][offset] = latitude;
+        mLongitudes[chunk][offset] = longitude;
+        mRssis[chunk][offset] = (short) rssi;
+        mTimestamps[chunk][offset] = timestamp;
+        mAccuracies[chunk][offset] = accuracy;
+        mXs[chunk][offset] = x;
+        mYs[chunk][offset] = y;
+
+        int index = mSize++;
+        recordChange(index);
+        return index;
+    }
+
+    /**
+     * Change RSSI, time and accuracy of stored sample.
+     *
+     * @param index     Index of sample.
+     * @param rssi      Signal strength in dBm.
+     * @param timestamp Time of sample in millis.
+     * @param accuracy  Accuracy of location in meters.
+     */
+    public void set(int index, int rssi, long timestamp, float accuracy) {
+        if (index < 0 || index >= mSize) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", size: " + mSize);
+        }
+
+        int chunk = index >>> CHUNK_SHIFT;
+        if (mChunkSnapshotCounts[chunk] != mSnapshotCount) copyChunk(chunk);
+
+        int offset = index & CHUNK_MASK;
+        mRssis[chunk][offset] = (short) rssi;
+        mTimestamps[chunk][offset] = timestamp;
+        mAccuracies[chunk][offset] = accuracy;
+        recordChange(index);
+    }
+
+    /**
+     * Remove all samples. Snapshots taken before still see removed samples. Projection is set
+     * again by next appended sample.
+     */
+    public void clear() {
+        mLatitudes = new double[1][];
+        mLongitudes = new double[1][];
+        mRssis = new short[1][];
+        mTimestamps = new long[1][];
+        mAccuracies = new float[1][];
+        mXs = new float[1][];
+        mYs = new float[1][];
+        mChunkSnapshotCounts = new int[1];
+        mChunksSnapshotCount = mSnapshotCount;
+        mChunkCount = 0;
+        mSize = 0;
+        mProjection = null;
+        mMinX = Float.POSITIVE_INFINITY;
+        mMinY = Float.POSITIVE_INFINITY;
+        mMaxX = Float.NEGATIVE_INFINITY;
+        mMaxY = Float.NEGATIVE_INFINITY;
+        mVersion++;
+        mClearVersion = mVersion;
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    /**
+     * @return Version of stored data. Zero for empty store.
+     */
+    public long getVersion() {
+        return mVersion;
+    }
+
+    /**
+     * Get read only view of currently stored samples. Samples appended later are not visible in
+     * this snapshot.
+     *
+     * @return Snapshot of stored samples.
+     */
+    public Snapshot snapshot() {
+        mSnapshotCount++;
+        return new Snapshot(this);
+    }
+
+    /**
+     * Get samples changed since known version.
+     *
+     * @param knownVersion Version of data known by reader.
+     * @return Delta with changed samples or full delta if known version is too old or unknown.
+     */
+    public Delta deltaSince(long knownVersion) {
+        Snapshot snapshot = snapshot();
+        if (knownVersion <= 0 || knownVersion < mClearVersion || knownVersion > mVersion
+                || mVersion - knownVersion > JOURNAL_SIZE) {
+            return new Delta(snapshot, 0, null);
+        }
+
+        int[] changed = new int[(int) (mVersion - knownVersion)];
+        for (int i = 0; i < changed.length; i++) {
+            changed[i] = mJournal[(int) ((knownVersion + i) % JOURNAL_SIZE)];
+        }
+        return new Delta(snapshot, knownVersion, changed);
+    }
+
+    private void recordChange(int index) {
+        mJournal[(int) (mVersion % JOURNAL_SIZE)] = index;
+        mVersion++;
+    }
+
+    private void addChunk() {
+        if (mChunkCount == mLatitudes.length) {
+            // Grow only arrays of chunk references. Old arrays are still used by snapshots.
+            int capacity = mChunkCount * 2;
+            mLatitudes = copyOf(mLatitudes, new double[capacity][]);
+            mLongitudes = copyOf(mLongitudes, new double[capacity][]);
+            mRssis = copyOf(mRssis, new short[capacity][]);
+            mTimestamps = copyOf(mTimestamps, new long[capacity][]);
+            mAccuracies = copyOf(mAccuracies, new float[capacity][]);
+            mXs = copyOf(mXs, new float[capacity][]);
+            mYs = copyOf(mYs, new float[capacity][]);
+            int[] chunkSnapshotCounts = new int[capacity];
+            System.arraycopy(mChunkSnapshotCounts, 0, chunkSnapshotCounts, 0, mChunkCount);
+            mChunkSnapshotCounts = chunkSnapshotCounts;
+            mChunksSnapshotCount = mSnapshotCount;
+        }
+
+        mLatitudes[mChunkCount] = new double[CHUNK_SIZE];
+        mLongitudes[mChunkCount] = new double[CHUNK_SIZE];
+        mRssis[mChunkCount] = new short[CHUNK_SIZE];
+        mTimestamps[mChunkCount] = new long[CHUNK_SIZE];
+        mAccuracies[mChunkCount] = new float[CHUNK_SIZE];
+        mXs[mChunkCount] = new float[CHUNK_SIZE];
+        mYs[mChunkCount] = new float[CHUNK_SIZE];
+        mChunkSnapshotCounts[mChunkCount] = mSnapshotCount;
+        mChunkCount++;
+    }
+
+    /**
+     * Copy changeable columns of chunk shared with snapshots. Arrays of chunks are copied too if
+     * they are shared, else snapshots would see copied chunk.
+     */
+    private void copyChunk(int chunk) {
+        if (mChunksSnapshotCount != mSnapshotCount) {
+            mRssis = copyOf(mRssis, new short[mRssis.length][]);
+            mTimestamps = copyOf(mTimestamps, new long[mTimestamps.length][]);
+            mAccuracies = copyOf(mAccuracies, new float[mAccuracies.length][]);
+            mChunksSnapshotCount = mSnapshotCount;
+        }
+        mRssis[chunk] = mRssis[chunk].clone();
+        mTimestamps[chunk] = mTimestamps[chunk].clone();
+        mAccuracies[chunk] = mAccuracies[chunk].clone();
+        mChunkSnapshotCounts[chunk] = mSnapshotCount;
+    }
+
+    private static <T> T[] copyOf(T[] src, T[] dst) {
+        System.arraycopy(src, 0, dst, 0, src.length);
+        return dst;
+    }
+
+    /**
+     * Read only view of samples stored at time of creating snapshot.
+     */
+    public static class Snapshot {
+        private final double[][] mLatitudes;
+        private final double[][] mLongitudes;
+        private final short[][] mRssis;
+        private final long[][] mTimestamps;
+        private final float[][] mAccuracies;
+        private final float[][] mXs;
+        private final float[][] mYs;
+        private final int mSize;
+        private final long mVersion;
+        private final LocalProjection mProjection;
+        private final float mMinX;
+        private final float mMinY;
+        private final float mMaxX;
+        private final float mMaxY;
+
+        private Snapshot(SampleStore store) {
+            mLatitudes = store.mLatitudes;
+            mLongitudes = store.mLongitudes;
+            mRssis = store.mRssis;
+            mTimestamps = store.mTimestamps;
+            mAccuracies = store.mAccuracies;
+            mXs = store.mXs;
+            mYs = store.mYs;
+            mSize = store.mSize;
+            mVersion = store.mVersion;
+            mProjection = store.mProjection;
+            mMinX = store.mMinX;
+            mMinY = store.mMinY;
+            mMaxX = store.mMaxX;
+            mMaxY = store.mMaxY;
+        }
+
+        /**
+         * @return Version of store at time of creating snapshot.
+         */
+        public long getVersion() {
+            return mVersion;
+        }
+
+        /**
+         * Snapshots of different stores can have same version, so version alone does not tell if
+         * samples are same.
+         *
+         * @return True if other snapshot is of same version of same store.
+         */
+        public boolean hasSameSamples(Snapshot other) {
+            // Arrays of chunks belong to one store, store never reuses version.
+            return other == this || (other != null && other.mVersion == mVersion
+                    && other.mLatitudes == mLatitudes && other.mRssis == mRssis);
+        }
+
+        public int size() {
+            return mSize;
+        }
+
+        public boolean isEmpty() {
+            return mSize == 0;
+        }
+
+        public double getLatitude(int index) {
+            checkIndex(index);
+            return mLatitudes[index >>> CHUNK_SHIFT][index & CHUNK_MASK];
+        }
+
+        public double getLongitude(int index) {
+            checkIndex(index);
+            return mLongitudes[index >>> CHUNK_SHIFT][index & CHUNK_MASK];
+        }
+
+        public int getRssi(int index) {
+            checkIndex(index);
+            return mRssis[index >>> CHUNK_SHIFT][index & CHUNK_MASK];
+        }
+
+        public long getTimestamp(int index) {
+            checkIndex(index);
+            return mTimestamps[index >>> CHUNK_SHIFT][index & CHUNK_MASK];
+        }
+
+        public float getAccuracy(int index) {
+            checkIndex(index);
+            return mAccuracies[index >>> CHUNK_SHIFT][index & CHUNK_MASK];
+        }
+
+        /**
+         * Projection of samples to local plane. Stores have different projections and store
+         * gets new projection after clearing, so it can be compared by identity.
+         *
+         * @return Projection with origin in first sample or null if snapshot is empty.
+         */
+        public LocalProjection getProjection() {
+            return mProjection;
+        }
+
+        /**
+         * @return Distance of sample to east from origin of projection in meters.
+         */
+        public float getX(int index) {
+            checkIndex(index);
+            return mXs[index >>> CHUNK_SHIFT][index & CHUNK_MASK];
+        }
+
+        /**
+         * @return Distance of sample to north from origin of projection in meters.
+         */
+        public float getY(int index) {
+            checkIndex(index);
+            return mYs[index >>> CHUNK_SHIFT][index & CHUNK_MASK];
+        }
+
+        // Bounds of projected samples, infinite if snapshot is empty.
+
+        public float getMinX() {
+            return mMinX;
+        }
+
+        public float getMinY() {
+            return mMinY;
+        }
+
+        public float getMaxX() {
+            return mMaxX;
+        }
+
+        public float getMaxY() {
+            return mMaxY;
+        }
+
+        private void checkIndex(int index) {
+            if (index < 0 || index >= mSize) {
+                throw new IndexOutOfBoundsException("Index: " + index + ", size: " + mSize);
+            }
+        }
+    }
+
+    /**
+     * Samples changed between two versions of store.
+     */
+    public static class Delta {
+        private final Snapshot mSnapshot;
+        private final long mBaseVersion;
+        private final int[] mChanged;
+
+        private Delta(Snapshot snapshot, long baseVersion, int[] changed) {
+            mSnapshot = snapshot;
+            mBaseVersion = baseVersion;
+            mChanged = changed;
+        }
+
+        /**
+         * @return Snapshot of all samples at version of this delta.
+         */
+        public Snapshot getSamples() {
+            return mSnapshot;
+        }
+
+        /**
+         * @return Version of data this delta is applied to. Zero for full delta.
+         */
+        public long getBaseVersion() {
+            return mBaseVersion;
+        }
+
+        /**
+         * @return Version of data after applying this delta.
+         */
+        public long getVersion() {
+            return mSnapshot.getVersion();
+        }
+
+        /**
+         * Full delta contain all samples. Reader should drop all previously known data.
+         *
+         * @return True if this delta contain all samples.
+         */
+        public boolean isFull() {
+            return mChanged == null;
+        }
+
+        public int getChangedCount() {
+            return mChanged == null ? mSnapshot.size() : mChanged.length;
+        }
+
+        /**
+         * Get index of changed sample in {@link #getSamples()}. Sample can be listed more times if
+         * it was changed more times.
+         *
+         * @param i Index of change in range [0, {@link #getChangedCount()}).
+         * @return Index of changed sample.
+         */
+        public int getChangedIndex(int i) {
+            return mChanged == null ? i : mChanged[i];
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package app.wi_fiheatmapper;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class DirtyRegionTest {
+
+    @Test
+    public void add_overlappingRects_areMerged() throws Exception {
+        DirtyRegion region = new DirtyRegion();
+        region.add(0, 0, 10, 10);
+        region.add(5, 5, 15, 15);
+
+        assertEquals(1, region.size());
+        assertEquals(0, region.getLeft(0));
+        assertEquals(0, region.getTop(0));
+        assertEquals(15, region.getRight(0));
+        assertEquals(15, region.getBottom(0));
+    }
+
+    @Test
+    public void add_separateRects_areKept() throws Exception {
+        DirtyRegion region = new DirtyRegion();
+        region.add(0, 0, 10, 10);
+        region.add(10, 0, 20, 10);
+        region.add(50, 50, 60, 60);
+
+        assertEquals(3, region.size());
+        assertEquals(300, region.getArea());
+    }
+
+    @Test
+    public void add_rectJoiningTwoRects_mergesAll() throws Exception {
+        DirtyRegion region = new DirtyRegion();
+        region.add(0, 0, 10, 10);
+        region.add(20, 0, 30, 10);
+        region.add(5, 0, 25, 5);
+
+        assertEquals(1, region.size());
+        assertEquals(300, region.getArea());
+    }
+
+    @Test
+    public void add_emptyRect_isIgnored() throws Exception {
+        DirtyRegion region = new DirtyRegion();
+        region.add(5, 5, 5, 10);
+
+        assertTrue(region.isEmpty());
+    }
+}
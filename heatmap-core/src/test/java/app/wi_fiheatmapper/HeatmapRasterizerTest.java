@@ -0,0 +1,105 @@
+package app.wi_fiheatmapper;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class HeatmapRasterizerTest {
+
+    private static final int WIDTH = 100;
+    private static final int HEIGHT = 70;
+
+    @Test
+    public void render_parallel_matchesSingleThread() throws Exception {
+        IdwInterpolator interpolator = createInterpolator();
+        DirtyRegion region = new DirtyRegion();
+        region.add(0, 0, WIDTH, HEIGHT);
+
+        int[] expected = new int[WIDTH * HEIGHT];
+        new HeatmapRasterizer(1).render(interpolator, coords(WIDTH), coords(HEIGHT), palette(),
+                                        region, expected, WIDTH, null);
+
+        HeatmapRasterizer rasterizer = new HeatmapRasterizer(4);
+        int[] pixels = new int[WIDTH * HEIGHT];
+        assertTrue(rasterizer.render(interpolator, coords(WIDTH), coords(HEIGHT), palette(), region,
+                                     pixels, WIDTH, null));
+        rasterizer.shutdown();
+
+        assertArrayEquals(expected, pixels);
+    }
+
+    @Test
+    public void render_cancelled_returnsFalse() throws Exception {
+        DirtyRegion region = new DirtyRegion();
+        region.add(0, 0, WIDTH, HEIGHT);
+
+        HeatmapRasterizer rasterizer = new HeatmapRasterizer(4);
+        boolean completed = rasterizer.render(createInterpolator(), coords(WIDTH), coords(HEIGHT),
+                                              palette(), region, new int[WIDTH * HEIGHT], WIDTH,
+                                              new HeatmapRasterizer.Cancellation() {
+                                                  @Override
+                                                  public boolean isCancelled() {
+                                                      return true;
+                                                  }
+                                              });
+        rasterizer.shutdown();
+
+        assertFalse(completed);
+    }
+
+    @Test
+    public void render_emptyRegion_completes() throws Exception {
+        HeatmapRasterizer rasterizer = new HeatmapRasterizer(4);
+        int[] pixels = new int[WIDTH * HEIGHT];
+        boolean completed = rasterizer.render(createInterpolator(), coords(WIDTH), coords(HEIGHT),
+                                              palette(), new DirtyRegion(), pixels, WIDTH, null);
+        rasterizer.shutdown();
+
+        assertTrue(completed);
+        assertArrayEquals(new int[WIDTH * HEIGHT], pixels);
+    }
+
+    private static IdwInterpolator createInterpolator() {
+        Random random = new Random(7);
+        int count = 200;
+        float[] xs = new float[count];
+        float[] ys = new float[count];
+        int[] rssis = new int[count];
+        for (int i = 0; i < count; i++) {
+            xs[i] = random.nextFloat() * WIDTH;
+            ys[i] = random.nextFloat() * HEIGHT;
+            rssis[i] = -30 - random.nextInt(60);
+        }
+        IdwInterpolator interpolator = new IdwInterpolator(3f, 12, 10f);
+        interpolator.setPoints(xs, ys, rssis, count);
+        return interpolator;
+    }
+
+    @Test
+    public void palette_clampsRssiToRange() throws Exception {
+        HeatmapColors.Palette palette = palette();
+
+        assertEquals(HeatmapColors.rssiColor(-90, -90, -30), palette.colorOf(-100));
+        assertEquals(HeatmapColors.rssiColor(-60, -90, -30), palette.colorOf(-60));
+        assertEquals(HeatmapColors.rssiColor(-30, -90, -30), palette.colorOf(-20));
+    }
+
+    private static HeatmapColors.Palette palette() {
+        HeatmapColors.Palette palette = new HeatmapColors.Palette();
+        palette.setRange(-90, -30);
+        return palette;
+    }
+
+    private static float[] coords(int count) {
+        float[] coords = new float[count];
+        for (int i = 0; i < count; i++) {
+            coords[i] = i;
+        }
+        return coords;
+    }
+}
@@ -0,0 +1,148 @@
+package app.wi_fiheatmapper;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class HeatmapRendererTest {
+
+    private static final int MAX_DIMEN = 64;
+
+    @Test
+    public void render_coversSamplesWithPowerOfTwoRaster() throws Exception {
+        SampleStore store = createStore();
+        HeatmapRenderer renderer = createRenderer();
+
+        assertTrue(renderer.render(store.snapshot(), null, null));
+        assertTrue(renderer.isFullRender());
+        assertEquals(MAX_DIMEN, Math.max(renderer.getWidth(), renderer.getHeight()));
+        int shorter = Math.min(renderer.getWidth(), renderer.getHeight());
+        assertEquals(Integer.highestOneBit(shorter), shorter);
+        assertTrue(renderer.getSouth() < 50.0 && renderer.getNorth() > 50.0003);
+        assertTrue(renderer.getWest() < 14.0 && renderer.getEast() > 14.0003);
+        assertEquals(-80, renderer.getMinRssi());
+        assertEquals(-50, renderer.getMaxRssi());
+    }
+
+    @Test
+    public void render_changedSample_updatesOnlyRegionAroundIt() throws Exception {
+        SampleStore store = createStore();
+        HeatmapRenderer renderer = createRenderer();
+        renderer.render(store.snapshot(), null, null);
+
+        store.append(50.00015, 14.00015, -60, 5, 3);
+        assertTrue(renderer.render(store.snapshot(), new int[]{4}, null));
+        assertFalse(renderer.isFullRender());
+        int size = renderer.getWidth() * renderer.getHeight();
+        assertTrue(renderer.getRegion().getArea() < size);
+        int[] updated = Arrays.copyOf(renderer.getPixels(), size);
+
+        // Incremental update gives same pixels as full render.
+        HeatmapRenderer fullRenderer = createRenderer();
+        fullRenderer.render(store.snapshot(), null, null);
+        assertArrayEquals(Arrays.copyOf(fullRenderer.getPixels(), size), updated);
+    }
+
+    @Test
+    public void render_changedSampleOfGlobalInterpolator_matchesFullRender() throws Exception {
+        for (Interpolator.Type type : new Interpolator.Type[]{Interpolator.Type.RBF,
+                                                              Interpolator.Type.KRIGING}) {
+            SampleStore store = createStore();
+            HeatmapRenderer renderer = createRenderer(type);
+            renderer.render(store.snapshot(), null, null);
+
+            store.append(50.00015, 14.00015, -60, 5, 3);
+            assertTrue(renderer.render(store.snapshot(), new int[]{4}, null));
+            assertTrue(renderer.isFullRender());
+            int size = renderer.getWidth() * renderer.getHeight();
+            int[] updated = Arrays.copyOf(renderer.getPixels(), size);
+
+            HeatmapRenderer fullRenderer = createRenderer(type);
+            fullRenderer.render(store.snapshot(), null, null);
+            assertArrayEquals(Arrays.copyOf(fullRenderer.getPixels(), size), updated);
+        }
+    }
+
+    @Test
+    public void render_afterCancelled_isFull() throws Exception {
+        SampleStore store = createStore();
+        HeatmapRenderer renderer = createRenderer();
+        HeatmapRasterizer.Cancellation cancelled = new HeatmapRasterizer.Cancellation() {
+            @Override
+            public boolean isCancelled() {
+                return true;
+            }
+        };
+
+        assertFalse(renderer.render(store.snapshot(), null, cancelled));
+        assertTrue(renderer.render(store.snapshot(), new int[0], null));
+        assertTrue(renderer.isFullRender());
+    }
+
+    @Test
+    public void render_noChangedSamples_keepsPixels() throws Exception {
+        SampleStore store = createStore();
+        HeatmapRasterizer rasterizer = new HeatmapRasterizer(4);
+        HeatmapRenderer renderer = new HeatmapRenderer(rasterizer, 3f, 12, 20f, 2f, MAX_DIMEN);
+        assertTrue(renderer.render(store.snapshot(), null, null));
+        int size = renderer.getWidth() * renderer.getHeight();
+        int[] pixels = Arrays.copyOf(renderer.getPixels(), size);
+
+        // Empty region of changed pixels is not rasterized.
+        boolean completed = renderer.render(store.snapshot(), new int[0], null);
+        rasterizer.shutdown();
+        assertTrue(completed);
+        assertFalse(renderer.isFullRender());
+        assertTrue(renderer.getRegion().isEmpty());
+        assertArrayEquals(pixels, Arrays.copyOf(renderer.getPixels(), size));
+    }
+
+    @Test
+    public void render_sameSamples_reusesFit() throws Exception {
+        SampleStore store = createStore();
+        HeatmapRenderer renderer = new HeatmapRenderer(new HeatmapRasterizer(1),
+                                                       new KrigingInterpolator(12, 2f), 20f, 2f,
+                                                       MAX_DIMEN);
+
+        assertTrue(renderer.render(store.snapshot(), null, null));
+        assertTrue(renderer.getFitNanos() > 0);
+        assertTrue(renderer.render(store.snapshot(), null, null));
+        assertEquals(0, renderer.getFitNanos());
+
+        // Other store with same version has other samples.
+        SampleStore other = createStore();
+        other.set(0, -55, 5, 3);
+        store.append(50.00015, 14.00015, -60, 5, 3);
+        assertEquals(store.getVersion(), other.getVersion());
+        assertTrue(renderer.render(other.snapshot(), null, null));
+        assertTrue(renderer.getFitNanos() > 0);
+
+        renderer.setInterpolator(new RbfInterpolator(12, 2f));
+        assertTrue(renderer.render(other.snapshot(), new int[0], null));
+        assertTrue(renderer.isFullRender());
+        assertTrue(renderer.getFitNanos() > 0);
+    }
+
+    private static HeatmapRenderer createRenderer() {
+        return new HeatmapRenderer(new HeatmapRasterizer(1), 3f, 12, 20f, 2f, MAX_DIMEN);
+    }
+
+    private static HeatmapRenderer createRenderer(Interpolator.Type type) {
+        return new HeatmapRenderer(new HeatmapRasterizer(1), Interpolator.create(type, 3f, 12, 2f),
+                                   20f, 2f, MAX_DIMEN);
+    }
+
+    private static SampleStore createStore() {
+        SampleStore store = new SampleStore();
+        store.append(50.0, 14.0, -50, 1, 3);
+        store.append(50.0003, 14.0, -60, 2, 3);
+        store.append(50.0, 14.0003, -70, 3, 3);
+        store.append(50.0003, 14.0003, -80, 4, 3);
+        return store;
+    }
+}
@@ -0,0 +1,143 @@
+package app.wi_fiheatmapper;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class IdwInterpolatorTest {
+
+    @Test
+    public void estimate_onKnownPoint_returnsKnownValue() throws Exception {
+        IdwInterpolator interpolator = new IdwInterpolator(3f, 4, Float.POSITIVE_INFINITY);
+        interpolator.setPoints(new float[]{0, 10}, new float[]{0, 10}, new int[]{-40, -80}, 2);
+
+        assertEquals(-40, interpolator.newQuery().estimate(0, 0));
+        assertEquals(-80, interpolator.newQuery().estimate(10, 10));
+    }
+
+    @Test
+    public void estimate_outOfRadius_returnsNoValue() throws Exception {
+        IdwInterpolator interpolator = new IdwInterpolator(3f, 0, 5f);
+        interpolator.setPoints(new float[]{0}, new float[]{0}, new int[]{-40}, 1);
+
+        assertEquals(IdwInterpolator.NO_VALUE, interpolator.newQuery().estimate(10, 0));
+        assertEquals(-40, interpolator.newQuery().estimate(4, 0));
+    }
+
+    @Test
+    public void setSearchRadius_isAppliedByNextFit() throws Exception {
+        IdwInterpolator interpolator = new IdwInterpolator(2.5f, 0, 5f);
+        interpolator.setPoints(new float[]{0}, new float[]{0}, new int[]{-40}, 1);
+        Interpolator.Query query = interpolator.newQuery();
+
+        // Query keeps radius of last fit until points are set again.
+        interpolator.setSearchRadius(20f);
+        assertEquals(IdwInterpolator.NO_VALUE, query.estimate(10, 0));
+
+        interpolator.setPoints(new float[]{0}, new float[]{0}, new int[]{-40}, 1);
+        assertEquals(-40, query.estimate(10, 0));
+    }
+
+    @Test
+    public void estimate_noPoints_returnsNoValue() throws Exception {
+        IdwInterpolator interpolator = new IdwInterpolator(3f, 4, Float.POSITIVE_INFINITY);
+        interpolator.setPoints(new float[0], new float[0], new int[0], 0);
+
+        assertEquals(IdwInterpolator.NO_VALUE, interpolator.newQuery().estimate(0, 0));
+    }
+
+    @Test
+    public void estimate_nearestNeighbours_matchesBruteForce() throws Exception {
+        Random random = new Random(42);
+        int count = 500;
+        int neighbours = 8;
+        float[] xs = new float[count];
+        float[] ys = new float[count];
+        int[] values = new int[count];
+        for (int i = 0; i < count; i++) {
+            xs[i] = random.nextFloat() * 128;
+            ys[i] = random.nextFloat() * 64;
+            values[i] = -30 - random.nextInt(60);
+        }
+
+        IdwInterpolator interpolator = new IdwInterpolator(3f, neighbours, Float.POSITIVE_INFINITY);
+        interpolator.setPoints(xs, ys, values, count);
+        IdwInterpolator.Query query = interpolator.newQuery();
+
+        for (int t = 0; t < 100; t++) {
+            float x = random.nextFloat() * 160 - 16;
+            float y = random.nextFloat() * 96 - 16;
+            assertEquals(bruteForce(xs, ys, values, neighbours, x, y), query.estimate(x, y), 1);
+        }
+    }
+
+    @Test
+    public void weight_withoutPow_matchesPow() throws Exception {
+        float radius = 20f;
+        for (float exponent : new float[]{1f, 2f, 2.5f, 3f, 4f}) {
+            IdwInterpolator interpolator = new IdwInterpolator(exponent, 8, radius);
+            // Squared distances from near zero to radius, some of them on entries of table.
+            for (float dist2 = 0.01f; dist2 <= radius * radius; dist2 *= 1.1f) {
+                double expected = Math.pow(dist2, -exponent / 2);
+                assertEquals("p=" + exponent + " d2=" + dist2, expected,
+                             interpolator.weight(dist2), expected * 1e-3);
+            }
+        }
+    }
+
+    @Test
+    public void estimate_weightTable_matchesBruteForce() throws Exception {
+        Random random = new Random(7);
+        int count = 300;
+        float[] xs = new float[count];
+        float[] ys = new float[count];
+        int[] values = new int[count];
+        for (int i = 0; i < count; i++) {
+            xs[i] = random.nextFloat() * 64;
+            ys[i] = random.nextFloat() * 64;
+            values[i] = -30 - random.nextInt(60);
+        }
+
+        // Radius covers whole area, so k nearest points are always in it.
+        IdwInterpolator interpolator = new IdwInterpolator(2.5f, 6, 100f);
+        interpolator.setPoints(xs, ys, values, count);
+        IdwInterpolator.Query query = interpolator.newQuery();
+
+        for (int t = 0; t < 100; t++) {
+            float x = random.nextFloat() * 64;
+            float y = random.nextFloat() * 64;
+            assertEquals(bruteForce(xs, ys, values, 6, 2.5f, x, y), query.estimate(x, y), 1);
+        }
+    }
+
+    /**
+     * Reference IDW over k nearest points found by full selection.
+     */
+    private static int bruteForce(float[] xs, float[] ys, int[] values, int k, float x, float y) {
+        return bruteForce(xs, ys, values, k, 3f, x, y);
+    }
+
+    private static int bruteForce(float[] xs, float[] ys, int[] values, int k, float exponent,
+                                  float x, float y) {
+        boolean[] used = new boolean[xs.length];
+        double sum1 = 0, sum2 = 0;
+        for (int n = 0; n < k; n++) {
+            int nearest = -1;
+            float nearestDist2 = Float.POSITIVE_INFINITY;
+            for (int i = 0; i < xs.length; i++) {
+                float dist2 = (x - xs[i]) * (x - xs[i]) + (y - ys[i]) * (y - ys[i]);
+                if (!used[i] && dist2 < nearestDist2) {
+                    nearest = i;
+                    nearestDist2 = dist2;
+                }
+            }
+            used[nearest] = true;
+            double w = 1 / Math.pow(nearestDist2, exponent / 2);
+            sum1 += w * values[nearest];
+            sum2 += w;
+        }
+        return (int) (sum1 / sum2);
+    }
+}
@@ -0,0 +1,110 @@
+package app.wi_fiheatmapper;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class LocalKernelInterpolatorTest {
+
+    @Test
+    public void estimate_onKnownPoint_returnsKnownValue() throws Exception {
+        for (Interpolator.Type type : new Interpolator.Type[]{Interpolator.Type.RBF,
+                                                              Interpolator.Type.KRIGING}) {
+            Interpolator interpolator = createRandom(type, 300);
+            Random random = new Random(1);
+            for (int i = 0; i < 300; i++) {
+                float x = random.nextFloat() * 100;
+                float y = random.nextFloat() * 100;
+                int value = value(x, y, random);
+                assertEquals(type.toString(), value, interpolator.newQuery().estimate(x, y), 1);
+            }
+        }
+    }
+
+    @Test
+    public void estimate_betweenPoints_isBetweenValues() throws Exception {
+        for (Interpolator.Type type : new Interpolator.Type[]{Interpolator.Type.RBF,
+                                                              Interpolator.Type.KRIGING}) {
+            Interpolator interpolator = Interpolator.create(type, 3f, 8, 20f);
+            interpolator.setPoints(new float[]{0, 10, 20}, new float[]{0, 0, 0},
+                                   new int[]{-40, -60, -80}, 3);
+            Interpolator.Query query = interpolator.newQuery();
+
+            // No bull's-eye, surface falls monotonically along line of points.
+            int last = query.estimate(0, 0);
+            for (int x = 1; x <= 20; x++) {
+                int value = query.estimate(x, 0);
+                assertTrue(type + " at " + x, value <= last);
+                last = value;
+            }
+        }
+    }
+
+    @Test
+    public void estimate_outOfRadius_returnsNoValue() throws Exception {
+        Interpolator interpolator = new RbfInterpolator(8, 5f);
+        interpolator.setPoints(new float[]{0, 1}, new float[]{0, 1}, new int[]{-40, -50}, 2);
+
+        assertEquals(Interpolator.NO_VALUE, interpolator.newQuery().estimate(20, 0));
+        assertTrue(interpolator.newQuery().estimate(4, 0) != Interpolator.NO_VALUE);
+    }
+
+    @Test
+    public void estimate_duplicatePoints_returnsMean() throws Exception {
+        Interpolator interpolator = new KrigingInterpolator(8, 5f);
+        interpolator.setPoints(new float[]{0, 0}, new float[]{0, 0}, new int[]{-40, -50}, 2);
+
+        assertEquals(-45, interpolator.newQuery().estimate(0, 0));
+    }
+
+    @Test
+    public void setPoints_fitsVariogramOfCorrelatedValues() throws Exception {
+        KrigingInterpolator interpolator = (KrigingInterpolator) createRandom(Interpolator.Type.KRIGING,
+                                                                              500);
+
+        assertTrue(interpolator.getPartialSill() > 0);
+        assertTrue(interpolator.getRange() > 0);
+        assertTrue(interpolator.getNugget() >= 0);
+        assertTrue(interpolator.getFitNanos() > 0);
+    }
+
+    @Test
+    public void solve_returnsSolutionOrSingular() throws Exception {
+        // Zero on diagonal needs pivoting.
+        double[] b = {5, 10};
+        assertTrue(LocalKernelInterpolator.solve(new double[]{0, 1, 2, 0}, b, 2));
+        assertEquals(5, b[0], 1e-9);
+        assertEquals(5, b[1], 1e-9);
+
+        assertFalse(LocalKernelInterpolator.solve(new double[]{1, 2, 2, 4}, new double[]{1, 2}, 2));
+    }
+
+    /**
+     * Interpolator of smooth field with noise on random points in 100 x 100 area.
+     */
+    private static Interpolator createRandom(Interpolator.Type type, int count) {
+        Random random = new Random(1);
+        float[] xs = new float[count];
+        float[] ys = new float[count];
+        int[] values = new int[count];
+        for (int i = 0; i < count; i++) {
+            xs[i] = random.nextFloat() * 100;
+            ys[i] = random.nextFloat() * 100;
+            values[i] = value(xs[i], ys[i], random);
+        }
+        Interpolator interpolator = Interpolator.create(type, 3f, 12, 20f);
+        interpolator.setPoints(xs, ys, values, count);
+        return interpolator;
+    }
+
+    /**
+     * Signal falling with distance from corner with few dB of noise.
+     */
+    private static int value(float x, float y, Random random) {
+        return (int) (-30 - Math.hypot(x, y) / 3) - random.nextInt(5);
+    }
+}
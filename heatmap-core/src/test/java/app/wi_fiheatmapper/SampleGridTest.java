@@ -0,0 +1,65 @@
+package app.wi_fiheatmapper;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class SampleGridTest {
+
+    /**
+     * About 1 meter in degrees of latitude.
+     */
+    private static final double METER = 1 / 111195.0;
+
+    @Test
+    public void append_sameCell_updatesStatistics() throws Exception {
+        SampleStore store = new SampleStore();
+        SampleGrid grid = new SampleGrid(store, 3);
+
+        int cell = grid.append(50, 14, -50, 1, 8);
+        assertEquals(cell, grid.append(50 + METER, 14, -60, 2, 4));
+        assertEquals(cell, grid.append(50 + 2 * METER, 14, -70, 3, 6));
+
+        assertEquals(1, store.size());
+        assertEquals(3, grid.getCount(cell));
+        assertEquals(-60, grid.getMeanRssi(cell), 1e-9);
+        assertEquals(100, grid.getVariance(cell), 1e-9);
+
+        SampleStore.Snapshot samples = store.snapshot();
+        assertEquals(-60, samples.getRssi(cell));
+        assertEquals(3, samples.getTimestamp(cell));
+        assertEquals(4, samples.getAccuracy(cell), 0);
+        // Sample is in center of cell.
+        assertEquals(50 + 1.5 * METER, samples.getLatitude(cell), METER / 100);
+    }
+
+    @Test
+    public void append_walkingSameWay_boundsSizeOfStore() throws Exception {
+        SampleStore store = new SampleStore();
+        SampleGrid grid = new SampleGrid(store, 3);
+
+        // Walk 30 meters there and back ten times.
+        for (int walk = 0; walk < 10; walk++) {
+            for (int i = 0; i < 30; i++) {
+                int meters = walk % 2 == 0 ? i : 29 - i;
+                grid.append(50 + (meters + 0.5) * METER, 14, -50 - meters, walk * 30 + i, 5);
+            }
+        }
+
+        assertEquals(10, store.size());
+        assertEquals(10, grid.size());
+        assertEquals(30, grid.getCount(0));
+    }
+
+    @Test
+    public void clear_removesCellsAndSamples() throws Exception {
+        SampleStore store = new SampleStore();
+        SampleGrid grid = new SampleGrid(store, 3);
+        grid.append(50, 14, -50, 1, 5);
+        grid.clear();
+
+        assertEquals(0, store.size());
+        assertEquals(0, grid.append(51, 15, -60, 2, 5));
+        assertEquals(1, grid.getCount(0));
+    }
+}
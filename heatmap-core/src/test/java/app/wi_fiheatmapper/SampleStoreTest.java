@@ -0,0 +1,153 @@
+package app.wi_fiheatmapper;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SampleStoreTest {
+
+    @Test
+    public void append_acrossChunks_keepsAllColumns() throws Exception {
+        SampleStore store = new SampleStore();
+        int count = 10000;
+        for (int i = 0; i < count; i++) {
+            assertEquals(i, store.append(50 + i * 1e-6, 14 + i * 1e-6, -(i % 100), i * 1000L, i % 10));
+        }
+
+        SampleStore.Snapshot snapshot = store.snapshot();
+        assertEquals(count, snapshot.size());
+        for (int i = 0; i < count; i += 97) {
+            assertEquals(50 + i * 1e-6, snapshot.getLatitude(i), 0);
+            assertEquals(14 + i * 1e-6, snapshot.getLongitude(i), 0);
+            assertEquals(-(i % 100), snapshot.getRssi(i));
+            assertEquals(i * 1000L, snapshot.getTimestamp(i));
+            assertEquals(i % 10, snapshot.getAccuracy(i), 0);
+        }
+    }
+
+    @Test
+    public void append_projectsToFirstSampleAndKeepsBounds() throws Exception {
+        SampleStore store = new SampleStore();
+        store.append(50, 14, -50, 0, 5);
+        store.append(50.001, 14.002, -60, 0, 5);
+        store.append(49.999, 14.001, -70, 0, 5);
+
+        SampleStore.Snapshot snapshot = store.snapshot();
+        LocalProjection projection = snapshot.getProjection();
+        assertEquals(50, projection.getOriginLatitude(), 0);
+        assertEquals(14, projection.getOriginLongitude(), 0);
+        assertEquals(0, snapshot.getX(0), 0);
+        assertEquals(0, snapshot.getY(0), 0);
+        assertEquals(projection.toX(14.002), snapshot.getX(1), 0);
+        assertEquals(projection.toY(50.001), snapshot.getY(1), 0);
+        assertEquals(0, snapshot.getMinX(), 0);
+        assertEquals(projection.toY(49.999), snapshot.getMinY(), 0);
+        assertEquals(projection.toX(14.002), snapshot.getMaxX(), 0);
+        assertEquals(projection.toY(50.001), snapshot.getMaxY(), 0);
+
+        // Cleared store gets projection with origin in next sample.
+        store.clear();
+        store.append(51, 15, -50, 0, 5);
+        SampleStore.Snapshot cleared = store.snapshot();
+        assertEquals(51, cleared.getProjection().getOriginLatitude(), 0);
+        assertEquals(0, cleared.getMaxX(), 0);
+        assertEquals(projection, snapshot.getProjection());
+    }
+
+    @Test
+    public void snapshot_doesNotSeeLaterSamples() throws Exception {
+        SampleStore store = new SampleStore();
+        store.append(50, 14, -50, 0, 5);
+        SampleStore.Snapshot snapshot = store.snapshot();
+
+        for (int i = 0; i < 5000; i++) {
+            store.append(51, 15, -60, 0, 5);
+        }
+
+        assertEquals(1, snapshot.size());
+        assertEquals(-50, snapshot.getRssi(0));
+        assertEquals(5001, store.snapshot().size());
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void snapshot_indexOutOfSize_throws() throws Exception {
+        SampleStore store = new SampleStore();
+        store.append(50, 14, -50, 0, 5);
+        SampleStore.Snapshot snapshot = store.snapshot();
+        store.append(50, 14, -50, 0, 5);
+
+        snapshot.getRssi(1);
+    }
+
+    @Test
+    public void deltaSince_knownVersion_containsOnlyNewSamples() throws Exception {
+        SampleStore store = new SampleStore();
+        store.append(50, 14, -50, 0, 5);
+        long knownVersion = store.getVersion();
+        store.append(50, 14, -60, 0, 5);
+        store.append(50, 14, -70, 0, 5);
+
+        SampleStore.Delta delta = store.deltaSince(knownVersion);
+
+        assertFalse(delta.isFull());
+        assertEquals(knownVersion, delta.getBaseVersion());
+        assertEquals(store.getVersion(), delta.getVersion());
+        assertEquals(2, delta.getChangedCount());
+        assertEquals(-60, delta.getSamples().getRssi(delta.getChangedIndex(0)));
+        assertEquals(-70, delta.getSamples().getRssi(delta.getChangedIndex(1)));
+    }
+
+    @Test
+    public void deltaSince_unknownOrOldVersion_isFull() throws Exception {
+        SampleStore store = new SampleStore();
+        for (int i = 0; i < 2000; i++) {
+            store.append(50, 14, -50, 0, 5);
+        }
+
+        assertTrue(store.deltaSince(0).isFull());
+        assertTrue(store.deltaSince(1).isFull());
+        assertTrue(store.deltaSince(store.getVersion() + 1).isFull());
+        assertEquals(2000, store.deltaSince(0).getChangedCount());
+        assertEquals(0, store.deltaSince(store.getVersion()).getChangedCount());
+    }
+
+    @Test
+    public void clear_givesFullDeltaToOlderVersions() throws Exception {
+        SampleStore store = new SampleStore();
+        store.append(50, 14, -50, 0, 5);
+        long knownVersion = store.getVersion();
+        store.clear();
+        store.append(51, 15, -60, 0, 5);
+
+        SampleStore.Delta delta = store.deltaSince(knownVersion);
+        assertTrue(delta.isFull());
+        assertEquals(1, delta.getSamples().size());
+        assertEquals(51, delta.getSamples().getLatitude(0), 0);
+        assertFalse(store.deltaSince(store.getVersion() - 1).isFull());
+    }
+
+    @Test
+    public void set_isNotVisibleInOlderSnapshot() throws Exception {
+        SampleStore store = new SampleStore();
+        for (int i = 0; i < 3000; i++) {
+            store.append(50, 14, -50, i, 5);
+        }
+        SampleStore.Snapshot before = store.snapshot();
+        long knownVersion = store.getVersion();
+
+        store.set(2500, -40, 5000, 3);
+        store.set(2501, -45, 5001, 3);
+
+        assertEquals(-50, before.getRssi(2500));
+        assertEquals(2500, before.getTimestamp(2500));
+        SampleStore.Delta delta = store.deltaSince(knownVersion);
+        assertEquals(2, delta.getChangedCount());
+        assertEquals(2500, delta.getChangedIndex(0));
+        assertEquals(-40, delta.getSamples().getRssi(2500));
+        assertEquals(-45, delta.getSamples().getRssi(2501));
+        assertEquals(3, delta.getSamples().getAccuracy(2500), 0);
+        assertEquals(50, delta.getSamples().getLatitude(2500), 0);
+    }
+}